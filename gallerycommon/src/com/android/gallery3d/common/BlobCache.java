@@ -58,6 +58,7 @@
 // public void insert(long key, byte[] data) throws IOException;
 // public byte[] lookup(long key) throws IOException;
 // public void lookup(LookupRequest req) throws IOException;
+// public void setMappedReads(boolean enabled);
 // public void close();
 // public void syncIndex();
 // public void syncAll();
@@ -71,6 +72,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -103,6 +105,12 @@ public class BlobCache implements Closeable {
     private static final int BH_LENGTH = 16;
     private static final int BLOB_HEADER_SIZE = 20;
 
+    // In mapped-read mode, the mapping of the active data file is only
+    // refreshed for a blob appended after the mapping was made if the file
+    // has grown by at least this many bytes. Otherwise a positional read is
+    // used, so interleaved inserts and lookups do not remap on every hit.
+    private static final int REMAP_MIN_GROWTH = 1024 * 1024;
+
     private RandomAccessFile mIndexFile;
     private RandomAccessFile mDataFile0;
     private RandomAccessFile mDataFile1;
@@ -122,8 +130,16 @@ public class BlobCache implements Closeable {
     private int mInactiveHashStart;
     private byte[] mIndexHeader = new byte[INDEX_HEADER_SIZE];
     private byte[] mBlobHeader = new byte[BLOB_HEADER_SIZE];
+    private ByteBuffer mBlobHeaderBuffer = ByteBuffer.wrap(mBlobHeader);
+    // Wraps the last req.buffer seen by getBlob(), so the pooled buffers of
+    // repeated lookups are not wrapped again on every hit.
+    private ByteBuffer mBlobDataBuffer;
     private Adler32 mAdler32 = new Adler32();
 
+    private boolean mMappedReads;
+    private MappedByteBuffer mDataMap0;
+    private MappedByteBuffer mDataMap1;
+
     // Creates the cache. Three files will be created:
     // path + ".idx", path + ".0", and path + ".1"
     // The ".0" file and the ".1" file each stores data for a region. Each of
@@ -179,6 +195,8 @@ public class BlobCache implements Closeable {
     }
 
     private void closeAll() {
+        releaseDataMaps();
+        mBlobDataBuffer = null;
         closeSilently(mIndexChannel);
         closeSilently(mIndexFile);
         closeSilently(mDataFile0);
@@ -282,6 +300,9 @@ public class BlobCache implements Closeable {
     }
 
     private void setActiveVariables() throws IOException {
+        // The active file may be truncated below, which invalidates any
+        // mapping of it.
+        releaseDataMaps();
         mActiveDataFile = (mActiveRegion == 0) ? mDataFile0 : mDataFile1;
         mInactiveDataFile = (mActiveRegion == 1) ? mDataFile0 : mDataFile1;
         mActiveDataFile.setLength(mActiveBytes);
@@ -298,6 +319,7 @@ public class BlobCache implements Closeable {
     }
 
     private void resetCache(int maxEntries, int maxBytes) throws IOException {
+        releaseDataMaps();
         mIndexFile.setLength(0);  // truncate to zero the index
         mIndexFile.setLength(INDEX_HEADER_SIZE + maxEntries * 12 * 2);
         mIndexFile.seek(0);
@@ -386,8 +408,8 @@ public class BlobCache implements Closeable {
         }
         byte[] header = mBlobHeader;
         Arrays.fill(header, (byte) 0);
-        mActiveDataFile.seek(mFileOffset);
-        mActiveDataFile.write(header);
+        // Use a positional write so the append position is not disturbed.
+        mActiveDataFile.getChannel().write(ByteBuffer.wrap(header), mFileOffset);
     }
 
     // Appends the data to the active file. It also updates the hash entry.
@@ -410,6 +432,43 @@ public class BlobCache implements Closeable {
         writeInt(mIndexHeader, IH_ACTIVE_BYTES, mActiveBytes);
     }
 
+    // Enables or disables mapped-read mode. In this mode lookups read the
+    // blob header and data from read-only memory mappings of the data files
+    // instead of issuing a read system call for each of them. The blob is
+    // still copied into req.buffer, because the mapping is dropped whenever
+    // the regions are flipped and the truncated file must not be touched
+    // after that.
+    public void setMappedReads(boolean enabled) {
+        mMappedReads = enabled;
+        if (!enabled) releaseDataMaps();
+    }
+
+    private void releaseDataMaps() {
+        mDataMap0 = null;
+        mDataMap1 = null;
+    }
+
+    // Returns a mapping of the given data file which covers [0, end), or null
+    // if there is none and a positional read should be used instead.
+    private MappedByteBuffer getDataMap(RandomAccessFile file, int end)
+            throws IOException {
+        MappedByteBuffer map = (file == mDataFile0) ? mDataMap0 : mDataMap1;
+        if (map != null && map.capacity() >= end) return map;
+
+        long length = file.length();
+        if (length < end) return null;
+        if (map != null && length - map.capacity() < REMAP_MIN_GROWTH) {
+            return null;
+        }
+        map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (file == mDataFile0) {
+            mDataMap0 = map;
+        } else {
+            mDataMap1 = map;
+        }
+        return map;
+    }
+
     public static class LookupRequest {
         public long key;        // input: the key to find
         public byte[] buffer;   // input/output: the buffer to store the blob
@@ -485,13 +544,23 @@ public class BlobCache implements Closeable {
     // Returns false if the blob is not available (either the index file is
     // not sync with the data file, or one of them is corrupted). The length
     // of the blob is stored in the req.length variable.
+    //
+    // The blob is read from the data file mapping in mapped-read mode, or
+    // with positional reads on the file channel otherwise, so the file
+    // pointer (which is the append position of the active file) is left
+    // untouched.
     private boolean getBlob(RandomAccessFile file, int offset,
             LookupRequest req) throws IOException {
         byte[] header = mBlobHeader;
-        long oldPosition = file.getFilePointer();
         try {
-            file.seek(offset);
-            if (file.read(header) != BLOB_HEADER_SIZE) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer map = mMappedReads
+                    ? getDataMap(file, offset + BLOB_HEADER_SIZE) : null;
+            if (map != null) {
+                map.position(offset);
+                map.get(header);
+            } else if (!readFully(channel,
+                    (ByteBuffer) mBlobHeaderBuffer.clear(), offset)) {
                 Log.w(TAG, "cannot read blob header");
                 return false;
             }
@@ -521,7 +590,12 @@ public class BlobCache implements Closeable {
             byte[] blob = req.buffer;
             req.length = length;
 
-            if (file.read(blob, 0, length) != length) {
+            int dataOffset = offset + BLOB_HEADER_SIZE;
+            if (map != null && map.capacity() >= dataOffset + length) {
+                map.position(dataOffset);
+                map.get(blob, 0, length);
+            } else if (!readFully(channel, wrapBlobData(blob, length),
+                    dataOffset)) {
                 Log.w(TAG, "cannot read blob data");
                 return false;
             }
@@ -533,11 +607,30 @@ public class BlobCache implements Closeable {
         } catch (Throwable t)  {
             Log.e(TAG, "getBlob failed.", t);
             return false;
-        } finally {
-            file.seek(oldPosition);
         }
     }
 
+    private ByteBuffer wrapBlobData(byte[] blob, int length) {
+        if (mBlobDataBuffer == null || mBlobDataBuffer.array() != blob) {
+            mBlobDataBuffer = ByteBuffer.wrap(blob);
+        }
+        mBlobDataBuffer.clear();
+        mBlobDataBuffer.limit(length);
+        return mBlobDataBuffer;
+    }
+
+    // Reads until the buffer is full, starting at the given file position.
+    // Returns false if the end of file is reached first.
+    private static boolean readFully(FileChannel channel, ByteBuffer buf,
+            long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) return false;
+            position += n;
+        }
+        return true;
+    }
+
     // Tries to look up a key in the specified hash region.
     // Returns true if the lookup is successful.
     // The slot offset in the index file is saved in mSlotOffset. If the lookup
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// This is an on-disk cache which spreads its entries over several independent
+// BlobCache instances ("shards"). The shard of an entry is chosen from the
+// hash of its key, and each shard is guarded by its own lock, so lookups and
+// inserts for keys in different shards can run in parallel.
+//
+// Shard i uses the files path + "_" + i + ".idx", ".0" and ".1". The
+// maxEntries and maxBytes limits are divided evenly between the shards.
+//
+// The file path + ".gen" holds the generation the shards were filled in,
+// e.g. the time the app data was last wiped. When the cache is opened with
+// another generation, all the shards are reset, whichever process changed
+// the generation.
+//
+// Unlike BlobCache, the instance of this class can be used by multiple
+// threads at the same time.
+package com.android.gallery3d.common;
+
+import com.android.gallery3d.common.BlobCache.LookupRequest;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ShardedBlobCache implements Closeable {
+    private final BlobCache[] mShards;
+
+    public ShardedBlobCache(String path, int shardCount, int maxEntries,
+            int maxBytes, long generation, int version) throws IOException {
+        Utils.assertTrue(shardCount > 0);
+        mShards = new BlobCache[shardCount];
+        int entries = Math.max(1, maxEntries / shardCount);
+        int bytes = Math.max(1, maxBytes / shardCount);
+        boolean reset = readGeneration(path) != generation;
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                mShards[i] = new BlobCache(getShardPath(path, i), entries,
+                        bytes, reset, version);
+            }
+            if (reset) writeGeneration(path, generation);
+        } catch (IOException e) {
+            closeAll();
+            throw e;
+        }
+    }
+
+    // Delete the files associated with the given path previously created
+    // by the ShardedBlobCache constructor.
+    public static void deleteFiles(String path, int shardCount) {
+        for (int i = 0; i < shardCount; i++) {
+            BlobCache.deleteFiles(getShardPath(path, i));
+        }
+        new File(getGenerationPath(path)).delete();
+    }
+
+    private static String getShardPath(String path, int shard) {
+        return path + "_" + shard;
+    }
+
+    private static String getGenerationPath(String path) {
+        return path + ".gen";
+    }
+
+    // Returns the generation the shards were filled in, or -1 if it is not
+    // known, so that shards without a generation file are reset.
+    private static long readGeneration(String path) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(getGenerationPath(path)));
+            return in.readLong();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            Utils.closeSilently(in);
+        }
+    }
+
+    private static void writeGeneration(String path, long generation)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(getGenerationPath(path)));
+        try {
+            out.writeLong(generation);
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    // The BlobCache uses the low bits of the key to pick the hash slot, so
+    // the shard is taken from the mixed high bits to keep the slots of each
+    // shard evenly used.
+    private BlobCache getShard(long key) {
+        int h = (int) (key >>> 32) ^ (int) key;
+        h *= 0x9E3779B1;
+        return mShards[(h >>> 16) % mShards.length];
+    }
+
+    // See BlobCache.setMappedReads(boolean).
+    public void setMappedReads(boolean enabled) {
+        for (BlobCache shard : mShards) {
+            synchronized (shard) {
+                shard.setMappedReads(enabled);
+            }
+        }
+    }
+
+    public void insert(long key, byte[] data) throws IOException {
+        BlobCache shard = getShard(key);
+        synchronized (shard) {
+            shard.insert(key, data);
+        }
+    }
+
+    public void clearEntry(long key) throws IOException {
+        BlobCache shard = getShard(key);
+        synchronized (shard) {
+            shard.clearEntry(key);
+        }
+    }
+
+    public byte[] lookup(long key) throws IOException {
+        LookupRequest req = new LookupRequest();
+        req.key = key;
+        return lookup(req) ? req.buffer : null;
+    }
+
+    // See BlobCache.lookup(LookupRequest).
+    public boolean lookup(LookupRequest req) throws IOException {
+        BlobCache shard = getShard(req.key);
+        synchronized (shard) {
+            return shard.lookup(req);
+        }
+    }
+
+    public void syncIndex() {
+        for (BlobCache shard : mShards) {
+            synchronized (shard) {
+                shard.syncIndex();
+            }
+        }
+    }
+
+    public void syncAll() {
+        for (BlobCache shard : mShards) {
+            synchronized (shard) {
+                shard.syncAll();
+            }
+        }
+    }
+
+    // Close the cache. All resources are released. No other method should be
+    // called after this is called.
+    @Override
+    public void close() {
+        closeAll();
+    }
+
+    // BlobCache.close() syncs the files before closing them.
+    private void closeAll() {
+        for (BlobCache shard : mShards) {
+            if (shard == null) continue;
+            synchronized (shard) {
+                BlobCache.closeSilently(shard);
+            }
+        }
+    }
+}
@@ -160,6 +160,22 @@ public class Utils {
         return crc;
     }
 
+    /**
+     * Continues a 64-bit crc with the 8 little-endian bytes of a long value,
+     * without allocating an input buffer.
+     *
+     * @param crc the crc so far, e.g. the result of crc64Long()
+     * @param value the value to append
+     * @return the updated 64-bit crc value
+     */
+    public static final long crc64Long(long crc, long value) {
+        for (int k = 0; k < 8; ++k) {
+            crc = sCrcTable[(((int) crc) ^ (int) value) & 0xff] ^ (crc >> 8);
+            value >>= 8;
+        }
+        return crc;
+    }
+
     public static byte[] getBytes(String in) {
         byte[] result = new byte[in.length() * 2];
         int output = 0;
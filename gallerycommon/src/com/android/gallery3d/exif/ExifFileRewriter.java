@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.exif;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+
+/**
+ * This class replaces the Exif APP1 segment of a JPEG file with the tags of an
+ * {@link ExifInterface}, without reading the image data into memory.
+ * <p>
+ * Only the segments in front of the image data are read. If the new APP1
+ * segment fits in the old one, it is written over it and padded to the same
+ * size. Otherwise the file is rebuilt in a temporary file next to it, with the
+ * image data moved by {@link FileChannel#transferTo}, and the new APP1 segment
+ * is padded with {@link #EXIF_PADDING} bytes so that it can grow in place the
+ * next time. The padding is not referenced by any IFD, so readers ignore it.
+ */
+class ExifFileRewriter {
+    /**
+     * The number of free bytes reserved in a rewritten APP1 segment.
+     */
+    protected static final int EXIF_PADDING = 4096;
+
+    private static final short SOS = (short) 0xFFDA;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+    private static final int MARKER_SIZE = 2;
+    private static final int SEGMENT_HEADER_SIZE = 4;
+    private static final int EXIF_HEADER_SIZE = 6;
+
+    private final ExifInterface mInterface;
+    private final File mFile;
+
+    // The range of the Exif APP1 segment, markers included, or an empty range
+    // right after SOI if there is none. The image header, with the SOF, SOS
+    // or EOI marker ending it, ends at mHeaderEnd.
+    private int mExifStart;
+    private int mExifEnd;
+    private int mHeaderEnd;
+
+    protected ExifFileRewriter(ExifInterface iRef, String filename) {
+        mInterface = iRef;
+        mFile = new File(filename);
+    }
+
+    /**
+     * Replaces the Exif tags of the file with the existing ones merged with the
+     * given tags. The tags of the ExifInterface are replaced by the merged tags.
+     *
+     * @throws IOException
+     */
+    protected void rewrite(Collection<ExifTag> tags) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            byte[] header = readHeader(channel);
+            mInterface.readExif(header);
+            mInterface.setTags(tags);
+
+            byte[] exif = createExifSegment();
+            int oldSize = mExifEnd - mExifStart;
+            if (oldSize > 0 && exif.length <= oldSize) {
+                ByteBuffer buf = ByteBuffer.wrap(pad(exif, oldSize));
+                while (buf.hasRemaining()) {
+                    channel.write(buf, mExifStart + buf.position());
+                }
+                channel.force(false);
+                return;
+            }
+            int size = Math.min(exif.length + EXIF_PADDING,
+                    MAX_SEGMENT_LENGTH + MARKER_SIZE);
+            rebuild(channel, pad(exif, size));
+        } finally {
+            ExifInterface.closeSilently(file);
+        }
+    }
+
+    // Reads the file up to the first SOF or SOS marker and finds the Exif
+    // APP1 segment in it.
+    private byte[] readHeader(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(EXIF_HEADER_SIZE + SEGMENT_HEADER_SIZE);
+        readFully(channel, buf, 0, MARKER_SIZE);
+        if (buf.getShort(0) != JpegHeader.SOI) {
+            throw new IOException("Not a valid jpeg image, cannot write exif");
+        }
+        mExifStart = mExifEnd = MARKER_SIZE;
+        boolean foundExif = false;
+        long pos = MARKER_SIZE;
+        while (true) {
+            if (pos + MARKER_SIZE > fileSize) {
+                throw new IOException("Invalid JPEG format");
+            }
+            int n = (int) Math.min(buf.capacity(), fileSize - pos);
+            readFully(channel, buf, pos, n);
+            short marker = buf.getShort(0);
+            if (marker == JpegHeader.EOI || marker == SOS || JpegHeader.isSofMarker(marker)) {
+                break;
+            }
+            if (n < SEGMENT_HEADER_SIZE) {
+                throw new IOException("Invalid JPEG format");
+            }
+            int length = buf.getShort(2) & 0xffff;
+            if (length < 2) {
+                throw new IOException("Invalid JPEG format");
+            }
+            // Some invalid formatted image contains multiple APP1,
+            // use the first one with Exif data.
+            if (!foundExif && marker == JpegHeader.APP1 && n == buf.capacity()
+                    && buf.getInt(SEGMENT_HEADER_SIZE) == ExifParser.EXIF_HEADER
+                    && buf.getShort(SEGMENT_HEADER_SIZE + 4) == ExifParser.EXIF_HEADER_TAIL) {
+                mExifStart = (int) pos;
+                mExifEnd = (int) pos + MARKER_SIZE + length;
+                foundExif = true;
+            }
+            pos += MARKER_SIZE + length;
+            if (pos > Integer.MAX_VALUE) {
+                throw new IOException("Invalid JPEG format");
+            }
+        }
+        // Keep the marker which ends the header, where ExifParser stops.
+        mHeaderEnd = (int) pos + MARKER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(mHeaderEnd);
+        readFully(channel, header, 0, mHeaderEnd);
+        return header.array();
+    }
+
+    // Returns the APP1 segment written by ExifOutputStream for the tags of
+    // the ExifInterface.
+    private byte[] createExifSegment() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream s = mInterface.getExifWriterStream(bytes);
+        // ExifOutputStream writes the APP1 segment right after SOI.
+        s.write(new byte[] {
+                (byte) (JpegHeader.SOI >> 8), (byte) JpegHeader.SOI
+        });
+        s.flush();
+        byte[] out = bytes.toByteArray();
+        byte[] exif = new byte[out.length - MARKER_SIZE];
+        System.arraycopy(out, MARKER_SIZE, exif, 0, exif.length);
+        return exif;
+    }
+
+    // Returns the segment grown to the given size with zeros, with its length
+    // updated.
+    private static byte[] pad(byte[] segment, int size) throws IOException {
+        if (segment.length > MAX_SEGMENT_LENGTH + MARKER_SIZE) {
+            // The length field of the segment cannot hold it.
+            throw new IOException("Exif segment is too large: " + segment.length);
+        }
+        byte[] padded = new byte[Math.max(size, segment.length)];
+        System.arraycopy(segment, 0, padded, 0, segment.length);
+        int length = padded.length - MARKER_SIZE;
+        padded[2] = (byte) (length >> 8);
+        padded[3] = (byte) length;
+        return padded;
+    }
+
+    // Writes the file with the given Exif segment to a temporary file, which
+    // then replaces the file.
+    private void rebuild(FileChannel channel, byte[] exif) throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        boolean success = false;
+        try {
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+            transferFully(channel, 0, mExifStart, outChannel);
+            ByteBuffer buf = ByteBuffer.wrap(exif);
+            while (buf.hasRemaining()) {
+                outChannel.write(buf);
+            }
+            transferFully(channel, mExifEnd, channel.size() - mExifEnd, outChannel);
+            outChannel.force(false);
+            out.close();
+            out = null;
+            success = temp.renameTo(mFile);
+            if (!success) {
+                throw new IOException("Cannot replace " + mFile + " by " + temp);
+            }
+        } finally {
+            ExifInterface.closeSilently(out);
+            if (!success) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static void transferFully(FileChannel in, long position, long count,
+            FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new IOException("Failed to copy the image data");
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position,
+            int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -745,6 +745,29 @@ public class ExifInterface {
         mData = d;
     }
 
+    /**
+     * Reads only the given exif tags from an InputStream, clearing this
+     * ExifInterface object's existing exif tags. The IFDs which cannot hold
+     * the given tags are skipped, and the other tags of the IFDs which are
+     * read are not created. The thumbnail is not read.
+     *
+     * @param inStream an InputStream containing a jpeg compressed image.
+     * @param tagIds the tag constants to read, e.g. {@link #TAG_ORIENTATION}.
+     * @throws IOException
+     */
+    public void readExif(InputStream inStream, int[] tagIds) throws IOException {
+        if (inStream == null || tagIds == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        ExifData d = null;
+        try {
+            d = new ExifReader(this).read(inStream, tagIds);
+        } catch (ExifInvalidFormatException e) {
+            throw new IOException("Invalid exif format : " + e);
+        }
+        mData = d;
+    }
+
     /**
      * Reads the exif tags from a file, clearing this ExifInterface object's
      * existing exif tags.
@@ -768,6 +791,32 @@ public class ExifInterface {
         is.close();
     }
 
+    /**
+     * Reads only the given exif tags from a file, clearing this ExifInterface
+     * object's existing exif tags.
+     *
+     * @param inFileName a string representing the filepath to jpeg file.
+     * @param tagIds the tag constants to read, e.g. {@link #TAG_ORIENTATION}.
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @see #readExif(InputStream, int[])
+     */
+    public void readExif(String inFileName, int[] tagIds)
+            throws FileNotFoundException, IOException {
+        if (inFileName == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        InputStream is = null;
+        try {
+            is = (InputStream) new BufferedInputStream(new FileInputStream(inFileName));
+            readExif(is, tagIds);
+        } catch (IOException e) {
+            closeSilently(is);
+            throw e;
+        }
+        is.close();
+    }
+
     /**
      * Sets the exif tags, clearing this ExifInterface object's existing exif
      * tags.
@@ -1029,6 +1078,11 @@ public class ExifInterface {
             is.close();
             is = null;
 
+            // There are no tags to overwrite.
+            if (exifSize == 0) {
+                return false;
+            }
+
             // Open file for memory mapping.
             file = new RandomAccessFile(temp, "rw");
             long fileLength = file.length();
@@ -1080,8 +1134,9 @@ public class ExifInterface {
 
     /**
      * Attempts to do an in-place rewrite of the exif metadata. If this fails,
-     * fall back to overwriting file. This preserves tags that are not being
-     * rewritten.
+     * fall back to rewriting the exif segment of the file, which only moves
+     * the image data if the segment has to grow. This preserves tags that are
+     * not being rewritten.
      *
      * @param filename a String containing a filepath for a jpeg file.
      * @param tags tags that will be written into the jpeg file over existing
@@ -1095,24 +1150,12 @@ public class ExifInterface {
             IOException {
         // Attempt in-place write
         if (!rewriteExif(filename, tags)) {
-            // Fall back to doing a copy
+            // Fall back to replacing the exif segment
             ExifData tempData = mData;
             mData = new ExifData(DEFAULT_BYTE_ORDER);
-            FileInputStream is = null;
-            ByteArrayOutputStream bytes = null;
             try {
-                is = new FileInputStream(filename);
-                bytes = new ByteArrayOutputStream();
-                doExifStreamIO(is, bytes);
-                byte[] imageBytes = bytes.toByteArray();
-                readExif(imageBytes);
-                setTags(tags);
-                writeExif(imageBytes, filename);
-            } catch (IOException e) {
-                closeSilently(is);
-                throw e;
+                new ExifFileRewriter(this, filename).rewrite(tags);
             } finally {
-                is.close();
                 // Prevent clobbering of mData
                 mData = tempData;
             }
@@ -145,6 +145,7 @@ class ExifParser {
 
     private final CountedDataInputStream mTiffStream;
     private final int mOptions;
+    private final int[] mTagFilter;
     private int mIfdStartOffset = 0;
     private int mNumOfTagInIfd = 0;
     private int mIfdType;
@@ -198,8 +199,8 @@ class ExifParser {
         return (mOptions & OPTION_THUMBNAIL) != 0;
     }
 
-    private ExifParser(InputStream inputStream, int options, ExifInterface iRef)
-            throws IOException, ExifInvalidFormatException {
+    private ExifParser(InputStream inputStream, int options, int[] tagFilter,
+            ExifInterface iRef) throws IOException, ExifInvalidFormatException {
         if (inputStream == null) {
             throw new IOException("Null argument inputStream to ExifParser");
         }
@@ -210,6 +211,7 @@ class ExifParser {
         mContainExifData = seekTiffData(inputStream);
         mTiffStream = new CountedDataInputStream(inputStream);
         mOptions = options;
+        mTagFilter = tagFilter;
         if (!mContainExifData) {
             return;
         }
@@ -238,7 +240,50 @@ class ExifParser {
      */
     protected static ExifParser parse(InputStream inputStream, int options, ExifInterface iRef)
             throws IOException, ExifInvalidFormatException {
-        return new ExifParser(inputStream, options, iRef);
+        return new ExifParser(inputStream, options, null, iRef);
+    }
+
+    /**
+     * Parses the the given InputStream with the options needed to read the
+     * given tags. No {@link ExifTag} is created for the other tags, except
+     * those pointing to the IFDs to be read.
+     *
+     * @param tagIds the tag constants to read, e.g.
+     *            {@link ExifInterface#TAG_ORIENTATION}.
+     * @exception IOException
+     * @exception ExifInvalidFormatException
+     * @see #getOptionsForTags(int[])
+     */
+    protected static ExifParser parse(InputStream inputStream, int[] tagIds, ExifInterface iRef)
+            throws IOException, ExifInvalidFormatException {
+        return new ExifParser(inputStream, getOptionsForTags(tagIds), tagIds, iRef);
+    }
+
+    /**
+     * Returns the options requesting the IFDs which contain the given tags.
+     */
+    protected static int getOptionsForTags(int[] tagIds) {
+        int options = 0;
+        for (int tagId : tagIds) {
+            switch (ExifInterface.getTrueIfd(tagId)) {
+                case IfdId.TYPE_IFD_0:
+                    options |= OPTION_IFD_0;
+                    break;
+                case IfdId.TYPE_IFD_1:
+                    options |= OPTION_IFD_1;
+                    break;
+                case IfdId.TYPE_IFD_EXIF:
+                    options |= OPTION_IFD_EXIF;
+                    break;
+                case IfdId.TYPE_IFD_GPS:
+                    options |= OPTION_IFD_GPS;
+                    break;
+                case IfdId.TYPE_IFD_INTEROPERABILITY:
+                    options |= OPTION_IFD_INTEROPERABILITY;
+                    break;
+            }
+        }
+        return options;
     }
 
     /**
@@ -253,7 +298,7 @@ class ExifParser {
             throws IOException, ExifInvalidFormatException {
         return new ExifParser(inputStream, OPTION_IFD_0 | OPTION_IFD_1
                 | OPTION_IFD_EXIF | OPTION_IFD_GPS | OPTION_IFD_INTEROPERABILITY
-                | OPTION_THUMBNAIL, iRef);
+                | OPTION_THUMBNAIL, null, iRef);
     }
 
     /**
@@ -274,16 +319,19 @@ class ExifParser {
         }
         int offset = mTiffStream.getReadByteCount();
         int endOfTags = mIfdStartOffset + OFFSET_SIZE + TAG_SIZE * mNumOfTagInIfd;
-        if (offset < endOfTags) {
+        // Skipped tags are looped over here rather than by calling next()
+        // again, as most of an IFD may be skipped when there is a tag filter.
+        while (offset < endOfTags) {
             mTag = readTag();
-            if (mTag == null) {
-                return next();
-            }
-            if (mNeedToParseOffsetsInCurrentIfd) {
-                checkOffsetOrImageTag(mTag);
+            if (mTag != null) {
+                if (mNeedToParseOffsetsInCurrentIfd) {
+                    checkOffsetOrImageTag(mTag);
+                }
+                return EVENT_NEW_TAG;
             }
-            return EVENT_NEW_TAG;
-        } else if (offset == endOfTags) {
+            offset = mTiffStream.getReadByteCount();
+        }
+        if (offset == endOfTags) {
             // There is a link to ifd1 at the end of ifd0
             if (mIfdType == IfdId.TYPE_IFD_0) {
                 long ifdOffset = readUnsignedLong();
@@ -544,6 +592,10 @@ class ExifParser {
             mTiffStream.skip(4);
             return null;
         }
+        if (!isTagRequested(tagId)) {
+            mTiffStream.skip(4);
+            return null;
+        }
         // TODO: handle numOfComp overflow
         ExifTag tag = new ExifTag(tagId, dataFormat, (int) numOfComp, mIfdType,
                 ((int) numOfComp) != ExifTag.SIZE_UNDEFINED);
@@ -579,6 +631,33 @@ class ExifParser {
         return tag;
     }
 
+    // Without a tag filter every tag is read. With one, the tags pointing to
+    // other IFDs and to the thumbnail are read too if the parser has to follow
+    // them.
+    private boolean isTagRequested(short tagId) {
+        if (mTagFilter == null) {
+            return true;
+        }
+        if (mNeedToParseOffsetsInCurrentIfd && isOffsetTag(tagId)) {
+            return true;
+        }
+        int tag = ExifInterface.defineTag(mIfdType, tagId);
+        for (int requested : mTagFilter) {
+            if (requested == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOffsetTag(short tagId) {
+        return tagId == TAG_EXIF_IFD || tagId == TAG_GPS_IFD
+                || tagId == TAG_INTEROPERABILITY_IFD
+                || tagId == TAG_JPEG_INTERCHANGE_FORMAT
+                || tagId == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH
+                || tagId == TAG_STRIP_OFFSETS || tagId == TAG_STRIP_BYTE_COUNTS;
+    }
+
     /**
      * Check the tag, if the tag is one of the offset tag that points to the IFD
      * or image the caller is interested in, register the IFD or image.
@@ -43,7 +43,23 @@ class ExifReader {
      */
     protected ExifData read(InputStream inputStream) throws ExifInvalidFormatException,
             IOException {
-        ExifParser parser = ExifParser.parse(inputStream, mInterface);
+        return read(ExifParser.parse(inputStream, mInterface));
+    }
+
+    /**
+     * Same as {@link #read(InputStream)}, but only the given tags are read.
+     * The thumbnail is not read.
+     *
+     * @throws ExifInvalidFormatException
+     * @throws IOException
+     */
+    protected ExifData read(InputStream inputStream, int[] tagIds)
+            throws ExifInvalidFormatException, IOException {
+        return read(ExifParser.parse(inputStream, tagIds, mInterface));
+    }
+
+    private ExifData read(ExifParser parser) throws ExifInvalidFormatException,
+            IOException {
         ExifData exifData = new ExifData(parser.getByteOrder());
         ExifTag tag = null;
 
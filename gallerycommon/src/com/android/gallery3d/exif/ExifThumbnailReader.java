@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.exif;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class reads only the compressed thumbnail of a JPEG file. Unlike
+ * {@link ExifInterface#readExif(String)} followed by
+ * {@link ExifInterface#getThumbnail()}, it creates no {@link ExifTag} objects:
+ * the Exif APP1 segment is read into one buffer, the IFD1 entries are scanned
+ * in place for the JPEGInterchangeFormat tags, and the thumbnail is returned as
+ * a slice of that buffer.
+ */
+public class ExifThumbnailReader {
+    private static final short TAG_JPEG_INTERCHANGE_FORMAT = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT);
+    private static final short TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = ExifInterface
+            .getTrueTagKey(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+
+    private static final int EXIF_HEADER_SIZE = 6;
+    private static final int TIFF_HEADER_SIZE = 8;
+    private static final int VALUE_OFFSET_IN_TAG = 8;
+
+    private ExifThumbnailReader() {
+    }
+
+    /**
+     * Returns the compressed thumbnail of the given JPEG file, or null if it
+     * has none. The thumbnail is the data between the position and the limit
+     * of the returned buffer, which is backed by an array.
+     *
+     * @exception IOException
+     */
+    public static ByteBuffer readThumbnail(String inFileName) throws IOException {
+        if (inFileName == null) {
+            throw new IllegalArgumentException("Argument is null");
+        }
+        InputStream is = new BufferedInputStream(new FileInputStream(inFileName));
+        try {
+            return readThumbnail(is);
+        } finally {
+            ExifInterface.closeSilently(is);
+        }
+    }
+
+    /**
+     * Same as {@link #readThumbnail(String)}, for a JPEG stream. The stream is
+     * read up to the end of the Exif APP1 segment.
+     *
+     * @exception IOException
+     */
+    public static ByteBuffer readThumbnail(InputStream inStream) throws IOException {
+        byte[] app1 = readExifSegment(new DataInputStream(inStream));
+        if (app1 == null) {
+            return null;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(app1, EXIF_HEADER_SIZE,
+                app1.length - EXIF_HEADER_SIZE).slice();
+        short byteOrder = tiff.getShort(0);
+        if (byteOrder == ExifParser.LITTLE_ENDIAN_TAG) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder == ExifParser.BIG_ENDIAN_TAG) {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return null;
+        }
+        if (tiff.getShort(2) != ExifParser.TIFF_HEADER_TAIL) {
+            return null;
+        }
+
+        // The link to IFD1 follows the entries of IFD0.
+        int ifd0 = getOffset(tiff, tiff.getInt(4));
+        int link = ifd0 > 0 ? getEndOfTags(tiff, ifd0) : -1;
+        if (link < 0) {
+            return null;
+        }
+        int ifd1 = getOffset(tiff, tiff.getInt(link));
+        if (ifd1 <= 0) {
+            return null;
+        }
+
+        int end = getEndOfTags(tiff, ifd1);
+        if (end < 0) {
+            return null;
+        }
+        int thumbOffset = -1;
+        int thumbLength = -1;
+        for (int p = ifd1 + ExifParser.OFFSET_SIZE; p < end; p += ExifParser.TAG_SIZE) {
+            short tagId = tiff.getShort(p);
+            if (tagId == TAG_JPEG_INTERCHANGE_FORMAT) {
+                thumbOffset = getValue(tiff, p);
+            } else if (tagId == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
+                thumbLength = getValue(tiff, p);
+            }
+        }
+        // The thumbnail is stored in the same APP1 segment.
+        if (thumbOffset < TIFF_HEADER_SIZE || thumbLength <= 0
+                || thumbLength > tiff.limit() - thumbOffset) {
+            return null;
+        }
+        return ByteBuffer.wrap(app1, EXIF_HEADER_SIZE + thumbOffset, thumbLength);
+    }
+
+    // Returns the body of the APP1 segment holding the Exif data, starting
+    // with the Exif header, or null if there is none before the image data.
+    private static byte[] readExifSegment(DataInputStream dataStream) throws IOException {
+        if (dataStream.readShort() != JpegHeader.SOI) {
+            return null;
+        }
+        short marker = dataStream.readShort();
+        while (marker != JpegHeader.EOI && !JpegHeader.isSofMarker(marker)) {
+            int length = dataStream.readUnsignedShort() - 2;
+            if (length < 0) {
+                return null;
+            }
+            // Some invalid formatted image contains multiple APP1,
+            // try to find the one with Exif data.
+            if (marker == JpegHeader.APP1
+                    && length >= EXIF_HEADER_SIZE + TIFF_HEADER_SIZE) {
+                byte[] segment = new byte[length];
+                dataStream.readFully(segment);
+                ByteBuffer header = ByteBuffer.wrap(segment);
+                if (header.getInt(0) == ExifParser.EXIF_HEADER
+                        && header.getShort(4) == ExifParser.EXIF_HEADER_TAIL) {
+                    return segment;
+                }
+            } else {
+                skipFully(dataStream, length);
+            }
+            marker = dataStream.readShort();
+        }
+        return null;
+    }
+
+    private static void skipFully(DataInputStream dataStream, int length)
+            throws IOException {
+        while (length > 0) {
+            int skipped = dataStream.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    // Returns the position of the 4-byte link to the next IFD, or -1 if the
+    // IFD at the given position does not fit in the buffer.
+    private static int getEndOfTags(ByteBuffer tiff, int ifd) {
+        if (ifd > tiff.limit() - ExifParser.OFFSET_SIZE) {
+            return -1;
+        }
+        int count = tiff.getShort(ifd) & 0xffff;
+        int end = ifd + ExifParser.OFFSET_SIZE + count * ExifParser.TAG_SIZE;
+        return end > tiff.limit() - 4 ? -1 : end;
+    }
+
+    // Returns the offset if it points into the buffer, 0 for a null link and
+    // -1 otherwise.
+    private static int getOffset(ByteBuffer tiff, int offset) {
+        if (offset == 0) {
+            return 0;
+        }
+        return offset >= TIFF_HEADER_SIZE && offset < tiff.limit() ? offset : -1;
+    }
+
+    // Returns the value of a tag holding a single SHORT or LONG, or -1.
+    private static int getValue(ByteBuffer tiff, int tag) {
+        short type = tiff.getShort(tag + 2);
+        if (type == ExifTag.TYPE_UNSIGNED_SHORT) {
+            return tiff.getShort(tag + VALUE_OFFSET_IN_TAG) & 0xffff;
+        } else if (type == ExifTag.TYPE_UNSIGNED_LONG) {
+            return tiff.getInt(tag + VALUE_OFFSET_IN_TAG);
+        }
+        return -1;
+    }
+}
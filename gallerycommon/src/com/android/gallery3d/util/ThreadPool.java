@@ -16,20 +16,36 @@
 
 package com.android.gallery3d.util;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThreadPool {
     @SuppressWarnings("unused")
     private static final String TAG = "ThreadPool";
-    private static final int CORE_POOL_SIZE = 4;
-    private static final int MAX_POOL_SIZE = 8;
+    private static final int NUM_CPUS =
+            Runtime.getRuntime().availableProcessors();
+    private static final int CORE_POOL_SIZE = Math.max(4, NUM_CPUS);
+    private static final int MAX_POOL_SIZE = CORE_POOL_SIZE;
     private static final int KEEP_ALIVE_TIME = 10; // 10 seconds
 
+    // Job priority. Jobs with a higher priority are started first. Jobs with
+    // the same priority are started in submission order, except viewport
+    // jobs which are started in reverse submission order (LIFO), so the
+    // content which has just scrolled into view is loaded first.
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_VIEWPORT = 2;
+
+    // Workers cancelled while waiting in the queue are moved to the head of
+    // the queue, so they finish (and call their listeners) right away.
+    private static final int PRIORITY_CANCELLED = Integer.MAX_VALUE;
+
     // Resource type
     public static final int MODE_NONE = 0;
     public static final int MODE_CPU = 1;
@@ -37,7 +53,8 @@ public class ThreadPool {
 
     public static final JobContext JOB_CONTEXT_STUB = new JobContextStub();
 
-    ResourceCounter mCpuCounter = new ResourceCounter(2);
+    // Leave one core for the UI and GL threads.
+    ResourceCounter mCpuCounter = new ResourceCounter(Math.max(2, NUM_CPUS - 1));
     ResourceCounter mNetworkCounter = new ResourceCounter(2);
 
     // A Job is like a Callable, but it has an addition JobContext parameter.
@@ -78,7 +95,25 @@ public class ThreadPool {
         }
     }
 
-    private final Executor mExecutor;
+    // The queue only ever holds Workers.
+    private static final Comparator<Runnable> WORKER_ORDER =
+            new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            Worker<?> w1 = (Worker<?>) r1;
+            Worker<?> w2 = (Worker<?>) r2;
+            if (w1.mQueuePriority != w2.mQueuePriority) {
+                return w1.mQueuePriority > w2.mQueuePriority ? -1 : 1;
+            }
+            if (w1.mSequence == w2.mSequence) return 0;
+            boolean older = w1.mSequence < w2.mSequence;
+            if (w1.mQueuePriority == PRIORITY_VIEWPORT) older = !older;
+            return older ? -1 : 1;
+        }
+    };
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
 
     public ThreadPool() {
         this(CORE_POOL_SIZE, MAX_POOL_SIZE);
@@ -87,7 +122,8 @@ public class ThreadPool {
     public ThreadPool(int initPoolSize, int maxPoolSize) {
         mExecutor = new ThreadPoolExecutor(
                 initPoolSize, maxPoolSize, KEEP_ALIVE_TIME,
-                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(16, WORKER_ORDER),
                 new PriorityThreadFactory("thread-pool",
                 android.os.Process.THREAD_PRIORITY_BACKGROUND));
     }
@@ -95,15 +131,29 @@ public class ThreadPool {
     // Submit a job to the thread pool. The listener will be called when the
     // job is finished (or cancelled).
     public <T> Future<T> submit(Job<T> job, FutureListener<T> listener) {
-        Worker<T> w = new Worker<T>(job, listener);
-        mExecutor.execute(w);
-        return w;
+        return submit(job, listener, PRIORITY_NORMAL, 0);
     }
 
     public <T> Future<T> submit(Job<T> job) {
         return submit(job, null);
     }
 
+    public <T> Future<T> submit(Job<T> job, FutureListener<T> listener,
+            int priority) {
+        return submit(job, listener, priority, 0);
+    }
+
+    // Submit a job with the given priority. If deadline is not 0 and the job
+    // has not started by then (in SystemClock.uptimeMillis() time base), it
+    // is cancelled instead of being run.
+    public <T> Future<T> submit(Job<T> job, FutureListener<T> listener,
+            int priority, long deadline) {
+        Worker<T> w = new Worker<T>(job, listener, priority, deadline,
+                mSequence.getAndIncrement());
+        mExecutor.execute(w);
+        return w;
+    }
+
     private class Worker<T> implements Runnable, Future<T>, JobContext {
         @SuppressWarnings("hiding")
         private static final String TAG = "Worker";
@@ -115,10 +165,19 @@ public class ThreadPool {
         private boolean mIsDone;
         private T mResult;
         private int mMode;
-
-        public Worker(Job<T> job, FutureListener<T> listener) {
+        private boolean mIsStarted;
+        private final long mDeadline;
+        private final long mSequence;
+        // Only changed while the worker is out of the queue.
+        private volatile int mQueuePriority;
+
+        public Worker(Job<T> job, FutureListener<T> listener, int priority,
+                long deadline, long sequence) {
             mJob = job;
             mListener = listener;
+            mQueuePriority = priority;
+            mDeadline = deadline;
+            mSequence = sequence;
         }
 
         // This is called by a thread in the thread pool.
@@ -126,6 +185,13 @@ public class ThreadPool {
         public void run() {
             T result = null;
 
+            synchronized (this) {
+                mIsStarted = true;
+            }
+            if (mDeadline != 0 && SystemClock.uptimeMillis() > mDeadline) {
+                cancel();
+            }
+
             // A job is in CPU mode by default. setMode returns false
             // if the job is cancelled.
             if (setMode(MODE_CPU)) {
@@ -150,6 +216,10 @@ public class ThreadPool {
         public synchronized void cancel() {
             if (mIsCancelled) return;
             mIsCancelled = true;
+            if (!mIsStarted && mExecutor.remove(this)) {
+                mQueuePriority = PRIORITY_CANCELLED;
+                mExecutor.execute(this);
+            }
             if (mWaitOnResource != null) {
                 synchronized (mWaitOnResource) {
                     mWaitOnResource.notifyAll();
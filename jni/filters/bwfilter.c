@@ -17,10 +17,11 @@
 #include <math.h>
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterBwFilter, nativeApplyFilter, jobject bitmap, jint width, jint height, jint rw, jint gw, jint bw)
+void JNIFUNCF(ImageFilterBwFilter, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom, jint rw, jint gw, jint bw)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     unsigned char * rgb = (unsigned char * )destination;
     float sr = rw;
     float sg = gw;
@@ -35,7 +36,7 @@ void JNIFUNCF(ImageFilterBwFilter, nativeApplyFilter, jobject bitmap, jint width
     sg /= avg;
     sr /= avg;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
 
     for (i = 0; i < len; i+=4)
     {
@@ -36,13 +36,14 @@ int clampMax(int c,int max)
     return  c;
 }
 
-void JNIFUNCF(ImageFilterContrast, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat bright)
+void JNIFUNCF(ImageFilterContrast, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom, jfloat bright)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     unsigned char * rgb = (unsigned char * )destination;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
     float m =  (float)pow(2, bright/100.);
     float c =  127-m*127;
 
@@ -16,13 +16,14 @@
 
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterExposure, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat bright)
+void JNIFUNCF(ImageFilterExposure, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom, jfloat bright)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     unsigned char * rgb = (unsigned char * )destination;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
 
     int m =   (255-bright);
 
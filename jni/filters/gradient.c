@@ -16,8 +16,8 @@
 
 #include "filters.h"
 
-void JNIFUNCF(ImageFilter, nativeApplyGradientFilter, jobject bitmap, jint width, jint height,
-        jintArray redGradient, jintArray greenGradient, jintArray blueGradient)
+void JNIFUNCF(ImageFilter, nativeApplyGradientFilter, jobject bitmap, jint width,
+        jint top, jint bottom, jintArray redGradient, jintArray greenGradient, jintArray blueGradient)
 {
     char* destination = 0;
     jint* redGradientArray = 0;
@@ -31,8 +31,9 @@ void JNIFUNCF(ImageFilter, nativeApplyGradientFilter, jobject bitmap, jint width
         blueGradientArray = (*env)->GetIntArrayElements(env, blueGradient, NULL);
 
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
     for (i = 0; i < len; i+=4)
     {
         if (redGradient)
@@ -18,12 +18,13 @@
 #include "filters.h"
 
 void JNIFUNCF(ImageFilterHighlights, nativeApplyFilter, jobject bitmap,
-              jint width, jint height, jfloatArray luminanceMap){
+              jint width, jint top, jint bottom, jfloatArray luminanceMap){
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     unsigned char * rgb = (unsigned char * )destination;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
     jfloat* lum = (*env)->GetFloatArrayElements(env, luminanceMap,0);
     unsigned short * hsv = (unsigned short *)malloc(3*sizeof(short));
 
@@ -16,13 +16,14 @@
 
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterHue, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloatArray matrix)
+void JNIFUNCF(ImageFilterHue, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom, jfloatArray matrix)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     unsigned char * rgb = (unsigned char * )destination;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
     jfloat* mat = (*env)->GetFloatArrayElements(env, matrix,0);
 
     for (i = 0; i < len; i+=4)
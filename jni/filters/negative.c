@@ -16,12 +16,13 @@
 
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterNegative, nativeApplyFilter, jobject bitmap, jint width, jint height)
+void JNIFUNCF(ImageFilterNegative, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
 
-    int tot_len = height * width * 4;
+    int tot_len = (bottom - top) * width * 4;
     int i;
     char * dst = destination;
     for (i = 0; i < tot_len; i+=4) {
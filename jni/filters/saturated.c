@@ -16,12 +16,13 @@
 
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterSaturated, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat saturation)
+void JNIFUNCF(ImageFilterSaturated, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom, jfloat saturation)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
     float Rf = 0.2999f;
     float Gf = 0.587f;
     float Bf = 0.114f;
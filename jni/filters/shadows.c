@@ -17,7 +17,7 @@
 #include <math.h>
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterShadows, nativeApplyFilter, jobject bitmap, jint width, jint height, float scale){
+void JNIFUNCF(ImageFilterShadows, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom, float scale){
     double shadowFilterMap[] = {
             -0.00591,  0.0001,
              1.16488,  0.01668,
@@ -28,10 +28,11 @@ void JNIFUNCF(ImageFilterShadows, nativeApplyFilter, jobject bitmap, jint width,
 
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     unsigned char * rgb = (unsigned char * )destination;
     int i;
     double s = (scale>=0)?scale:scale/5;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
 
     double *poly = (double *) malloc(5*sizeof(double));
     for (i = 0; i < 5; i++) {
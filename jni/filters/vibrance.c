@@ -17,12 +17,13 @@
 #include <math.h>
 #include "filters.h"
 
-void JNIFUNCF(ImageFilterVibrance, nativeApplyFilter, jobject bitmap, jint width, jint height,  jfloat vibrance)
+void JNIFUNCF(ImageFilterVibrance, nativeApplyFilter, jobject bitmap, jint width, jint top, jint bottom,  jfloat vibrance)
 {
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    destination += top * width * 4;
     int i;
-    int len = width * height * 4;
+    int len = width * (bottom - top) * 4;
     float Rf = 0.2999f;
     float Gf = 0.587f;
     float Bf = 0.114f;
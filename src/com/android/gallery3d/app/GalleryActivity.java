@@ -30,7 +30,6 @@ import android.content.DialogInterface.OnCancelListener;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -706,22 +705,14 @@ public final class GalleryActivity extends AbstractGalleryActivity implements On
         private boolean loadMpo(Context context, Uri uri) {
             boolean loaded = false;
             MpoParser parser = MpoParser.parse(context, uri);
-            byte[] primaryMpoData = parser.readImgData(true);
-            byte[] auxiliaryMpoData = parser.readImgData(false);
-
-            if(primaryMpoData != null && auxiliaryMpoData != null) {
-                Bitmap primaryBm = BitmapFactory.decodeByteArray(primaryMpoData, 0, primaryMpoData.length);
-                primaryMpoData = null;
-
-                if(primaryBm == null) {
-                    return false;
-                }
 
+            // decode both images straight from the file
+            Bitmap primaryBm = parser.decodeImg(true, null);
+            if(primaryBm != null) {
                 // check for pre-generated dm file
                 String mpoFilepath = ImageLoader.getLocalPathFromUri(context, uri);
                 // read auxiliary image and generate depth map.
-                Bitmap auxiliaryBm = BitmapFactory.decodeByteArray(auxiliaryMpoData, 0, auxiliaryMpoData.length);
-                auxiliaryMpoData = null;
+                Bitmap auxiliaryBm = parser.decodeImg(false, null);
 
                 if(auxiliaryBm == null) {
                     primaryBm.recycle();
@@ -24,12 +24,14 @@ import android.os.Looper;
 import com.android.gallery3d.data.DataManager;
 import com.android.gallery3d.data.DownloadCache;
 import com.android.gallery3d.data.ImageCacheService;
+import com.android.gallery3d.data.TileCacheService;
 import com.android.gallery3d.util.ThreadPool;
 
 public interface GalleryApp {
     public DataManager getDataManager();
 
     public ImageCacheService getImageCacheService();
+    public TileCacheService getTileCacheService();
     public DownloadCache getDownloadCache();
     public ThreadPool getThreadPool();
 
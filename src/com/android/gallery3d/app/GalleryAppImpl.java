@@ -23,12 +23,14 @@ import android.os.AsyncTask;
 import com.android.gallery3d.data.DataManager;
 import com.android.gallery3d.data.DownloadCache;
 import com.android.gallery3d.data.ImageCacheService;
+import com.android.gallery3d.data.TileCacheService;
 import com.android.gallery3d.gadget.WidgetUtils;
 import com.android.gallery3d.picasasource.PicasaSource;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.LightCycleHelper;
 import com.android.gallery3d.util.ThreadPool;
 import com.android.gallery3d.util.UsageStatistics;
+import com.android.photos.data.GalleryBitmapPool;
 
 import java.io.File;
 
@@ -39,6 +41,7 @@ public class GalleryAppImpl extends Application implements GalleryApp {
     private static GalleryAppImpl sGalleryAppImpl;
 
     private ImageCacheService mImageCacheService;
+    private TileCacheService mTileCacheService;
     private Object mLock = new Object();
     private DataManager mDataManager;
     private ThreadPool mThreadPool;
@@ -55,6 +58,12 @@ public class GalleryAppImpl extends Application implements GalleryApp {
         sGalleryAppImpl = this;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        GalleryBitmapPool.getInstance().onTrimMemory(level);
+    }
+
     @Override
     public Context getAndroidContext() {
         return this;
@@ -85,6 +94,17 @@ public class GalleryAppImpl extends Application implements GalleryApp {
         }
     }
 
+    @Override
+    public TileCacheService getTileCacheService() {
+        // This method may block on file I/O so a dedicated lock is needed here.
+        synchronized (mLock) {
+            if (mTileCacheService == null) {
+                mTileCacheService = new TileCacheService(getAndroidContext());
+            }
+            return mTileCacheService;
+        }
+    }
+
     @Override
     public synchronized ThreadPool getThreadPool() {
         if (mThreadPool == null) {
@@ -145,6 +145,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
     private final Handler mMainHandler;
     private final ThreadPool mThreadPool;
+    private final GalleryApp mApplication;
 
     private final PhotoView mPhotoView;
     private final MediaSet mSource;
@@ -189,6 +190,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         mIsPanorama = isPanorama;
         mIsStaticCamera = isStaticCamera;
         mThreadPool = activity.getThreadPool();
+        mApplication = (GalleryApp) activity.getApplication();
         mNeedFullImage = true;
 
         Arrays.fill(mChanges, MediaObject.INVALID_DATA_VERSION);
@@ -637,7 +639,12 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             if (fullImage != null) {
                 mTileProvider.setScreenNail(screenNail,
                         fullImage.getWidth(), fullImage.getHeight());
-                mTileProvider.setRegionDecoder(fullImage);
+                // Tiles are decoded in parallel, each thread with a region
+                // decoder of its own.
+                MediaItem item = getItemInternal(mCurrentIndex);
+                mTileProvider.setRegionDecoder(fullImage,
+                        item == null ? null : new FullImageJob(item));
+                mTileProvider.setTileCache(mApplication, item);
             } else {
                 int width = screenNail.getWidth();
                 int height = screenNail.getHeight();
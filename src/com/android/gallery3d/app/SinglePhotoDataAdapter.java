@@ -50,6 +50,7 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
 
     private PhotoView mPhotoView;
     private ThreadPool mThreadPool;
+    private GalleryApp mApplication;
     private int mLoadingState = LOADING_INIT;
     private BitmapScreenNail mBitmapScreenNail;
 
@@ -72,6 +73,7 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
             }
         };
         mThreadPool = activity.getThreadPool();
+        mApplication = (GalleryApp) activity.getApplication();
     }
 
     private static class ImageBundle {
@@ -133,7 +135,8 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
         try {
             setScreenNail(bundle.backupImage,
                     bundle.decoder.getWidth(), bundle.decoder.getHeight());
-            setRegionDecoder(bundle.decoder);
+            setRegionDecoder(bundle.decoder, mItem.requestLargeImage());
+            setTileCache(mApplication, mItem);
             mPhotoView.notifyImageChange(0);
         } catch (Throwable t) {
             Log.w(TAG, "fail to decode large", t);
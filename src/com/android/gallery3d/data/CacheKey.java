@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import com.android.gallery3d.common.BlobCache.LookupRequest;
+import com.android.gallery3d.common.ShardedBlobCache;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
+
+import java.io.IOException;
+
+// The key of an entry of ImageCacheService or TileCacheService: the image
+// (path and modification time) and a fixed number of int fields.
+//
+// Each blob starts with a fixed-width header holding the whole key (all
+// little-endian), so a crc collision of the cache key is detected without
+// comparing variable-length strings:
+// [0]  Path fingerprint, see Path.getFingerprint()
+// [8]  timeModified
+// [16] the fields, 4 bytes each
+// followed by the data.
+//
+// Lookups are made from many ThreadPool workers, so each thread reuses its
+// own key and lookup request, see newThreadLocal().
+class CacheKey {
+    private static final int KH_PATH = 0;
+    private static final int KH_TIME_MODIFIED = 8;
+    private static final int KH_FIELDS = 16;
+
+    private final LookupRequest mRequest = new LookupRequest();
+    private final int[] mFields;
+    private long mFingerprint;
+    private long mTimeModified;
+
+    CacheKey(int fieldCount) {
+        mFields = new int[fieldCount];
+    }
+
+    static ThreadLocal<CacheKey> newThreadLocal(final int fieldCount) {
+        return new ThreadLocal<CacheKey>() {
+            @Override
+            protected CacheKey initialValue() {
+                return new CacheKey(fieldCount);
+            }
+        };
+    }
+
+    CacheKey set(Path path, long timeModified) {
+        mFingerprint = path.getFingerprint();
+        mTimeModified = timeModified;
+        return this;
+    }
+
+    CacheKey setField(int index, int value) {
+        mFields[index] = value;
+        return this;
+    }
+
+    int getHeaderSize() {
+        return KH_FIELDS + 4 * mFields.length;
+    }
+
+    long getKey() {
+        long key = Utils.crc64Long(mFingerprint, mTimeModified);
+        for (int field : mFields) {
+            key = Utils.crc64Long(key, field);
+        }
+        return key;
+    }
+
+    void writeHeader(byte[] data) {
+        writeLong(data, KH_PATH, mFingerprint);
+        writeLong(data, KH_TIME_MODIFIED, mTimeModified);
+        for (int i = 0; i < mFields.length; i++) {
+            writeInt(data, KH_FIELDS + 4 * i, mFields[i]);
+        }
+    }
+
+    /**
+     * Looks the key up in the cache.
+     *
+     * The data will be stored in <code>buffer.data</code>, started from
+     * <code>buffer.offset</code> for <code>buffer.length</code> bytes. If the
+     * buffer.data is not big enough, a new byte array will be allocated.
+     *
+     * @return true if the data is found; false if not found.
+     */
+    boolean lookup(ShardedBlobCache cache, BytesBuffer buffer) throws IOException {
+        LookupRequest request = mRequest;
+        try {
+            request.key = getKey();
+            request.buffer = buffer.data;
+            if (!cache.lookup(request) || !isSameKey(request.buffer, request.length)) {
+                return false;
+            }
+            buffer.data = request.buffer;
+            buffer.offset = getHeaderSize();
+            buffer.length = request.length - buffer.offset;
+            return true;
+        } finally {
+            // Do not keep the caller's buffer alive.
+            request.buffer = null;
+        }
+    }
+
+    private boolean isSameKey(byte[] buffer, int length) {
+        if (length < getHeaderSize()
+                || readLong(buffer, KH_PATH) != mFingerprint
+                || readLong(buffer, KH_TIME_MODIFIED) != mTimeModified) {
+            return false;
+        }
+        for (int i = 0; i < mFields.length; i++) {
+            if (readInt(buffer, KH_FIELDS + 4 * i) != mFields[i]) return false;
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xff)
+                | ((buf[offset + 1] & 0xff) << 8)
+                | ((buf[offset + 2] & 0xff) << 16)
+                | ((buf[offset + 3] & 0xff) << 24);
+    }
+
+    private static long readLong(byte[] buf, int offset) {
+        return (readInt(buf, offset) & 0xffffffffL)
+                | ((long) readInt(buf, offset + 4) << 32);
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            buf[offset + i] = (byte) (value & 0xff);
+            value >>= 8;
+        }
+    }
+
+    private static void writeLong(byte[] buf, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            buf[offset + i] = (byte) (value & 0xff);
+            value >>= 8;
+        }
+    }
+}
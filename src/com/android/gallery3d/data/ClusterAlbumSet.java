@@ -41,6 +41,11 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
      * exclude not selectable such as Title item in TimeLine. */
     private int mTotalSelectableMediaItemCount;
     private ArrayList<Integer> mAlbumItemCountList;
+    // Kept across reloads, so that only the changed part of the timeline is
+    // clustered again.
+    private TimeClustering mTimeClustering;
+    // Created on the first reload, as it may open the cache files.
+    private ClusteringCache mClusteringCache;
 
     public ClusterAlbumSet(Path path, GalleryApp application,
             MediaSet baseSet, int kind) {
@@ -70,7 +75,9 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
     public long reload() {
         synchronized(this){
             if (mBaseSet.reload() > mDataVersion) {
-                if (mFirstReloadDone) {
+                // TimeClustering applies the content changes by itself.
+                if (mFirstReloadDone
+                        && mKind != ClusterSource.CLUSTER_ALBUMSET_TIME) {
                     updateClustersContents();
                 } else {
                     updateClusters();
@@ -93,11 +100,29 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
 
     private void updateClusters() {
         mAlbums.clear();
-        Clustering clustering;
         Context context = mApplication.getAndroidContext();
+        // Once TimeClustering has run, it updates its clusters incrementally,
+        // which is cheaper than fingerprinting the set to read them back.
+        // The cache is only written after a miss, when the clusters changed.
+        boolean useCache = ClusteringCache.isCacheable(mKind) && mTimeClustering == null;
+        long fingerprint = 0;
+        if (useCache) {
+            if (mClusteringCache == null) {
+                mClusteringCache = new ClusteringCache(context);
+            }
+            fingerprint = ClusteringCache.computeFingerprint(mBaseSet);
+            if (loadCachedClusters(fingerprint)) {
+                return;
+            }
+        }
+
+        Clustering clustering;
         switch (mKind) {
             case ClusterSource.CLUSTER_ALBUMSET_TIME:
-                clustering = new TimeClustering(context);
+                if (mTimeClustering == null) {
+                    mTimeClustering = new TimeClustering(context);
+                }
+                clustering = mTimeClustering;
                 break;
             case ClusterSource.CLUSTER_ALBUMSET_LOCATION:
                 clustering = new LocationClustering(context);
@@ -115,7 +140,6 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
 
         clustering.run(mBaseSet);
         int n = clustering.getNumberOfClusters();
-        DataManager dataManager = mApplication.getDataManager();
         for (int i = 0; i < n; i++) {
             Path childPath;
             String childName = clustering.getClusterName(i);
@@ -128,13 +152,7 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
                 childPath = mPath.getChild(i);
             }
 
-            ClusterAlbum album;
-            synchronized (DataManager.LOCK) {
-                album = (ClusterAlbum) dataManager.peekMediaObject(childPath);
-                if (album == null) {
-                    album = new ClusterAlbum(childPath, dataManager, this, mKind);
-                }
-            }
+            ClusterAlbum album = getClusterAlbum(childPath);
             album.setMediaItems(clustering.getCluster(i));
             album.setName(childName);
             album.setCoverMediaItem(clustering.getClusterCover(i));
@@ -142,6 +160,38 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
             album.setVideoItemCount(clustering.getClusterVideoCount(i));
             mAlbums.add(album);
         }
+
+        if (useCache && clustering.isCacheable()) {
+            mClusteringCache.putClusters(mBaseSet.getPath(), mKind, fingerprint,
+                    mAlbums);
+        }
+    }
+
+    private boolean loadCachedClusters(long fingerprint) {
+        ArrayList<ClusteringCache.Cluster> clusters =
+                mClusteringCache.getClusters(mBaseSet.getPath(), mKind, fingerprint);
+        if (clusters == null) return false;
+        for (ClusteringCache.Cluster cluster : clusters) {
+            ClusterAlbum album = getClusterAlbum(mPath.getChild(cluster.segment));
+            album.setMediaItems(cluster.paths);
+            album.setName(cluster.name);
+            album.setCoverMediaItem(null);
+            album.setImageItemCount(cluster.imageCount);
+            album.setVideoItemCount(cluster.videoCount);
+            mAlbums.add(album);
+        }
+        return true;
+    }
+
+    private ClusterAlbum getClusterAlbum(Path childPath) {
+        DataManager dataManager = mApplication.getDataManager();
+        synchronized (DataManager.LOCK) {
+            ClusterAlbum album = (ClusterAlbum) dataManager.peekMediaObject(childPath);
+            if (album == null) {
+                album = new ClusterAlbum(childPath, dataManager, this, mKind);
+            }
+            return album;
+        }
     }
 
     protected void updateClustersContents() {
@@ -34,4 +34,10 @@ public abstract class Clustering {
     public int getClusterVideoCount(int index) {
         return 0;
     }
+
+    // Returns false if the result of the last run() is incomplete (e.g. some
+    // names could not be resolved) and should not be kept in ClusteringCache.
+    public boolean isCacheable() {
+        return true;
+    }
 }
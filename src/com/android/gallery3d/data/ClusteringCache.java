@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.CacheManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Locale;
+
+// Keeps the clusters of a ClusterAlbumSet on disk, so they can be shown
+// again after switching the cluster kind or restarting the process without
+// running the Clustering.
+//
+// MediaObject data versions do not survive a process restart, so an entry
+// is checked against a fingerprint of the base set content instead: the
+// path, type, date, location and size of every item, plus the locale and
+// the current year (the cluster names depend on both).
+class ClusteringCache {
+    private static final String TAG = "ClusteringCache";
+
+    private static final String CLUSTER_CACHE_FILE = "clustercache";
+    private static final int CLUSTER_CACHE_MAX_ENTRIES = 32;
+    private static final int CLUSTER_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int CLUSTER_CACHE_VERSION = 1;
+
+    // Leave room for the blob header, BlobCache rejects larger blobs.
+    private static final int MAX_ENTRY_BYTES = CLUSTER_CACHE_MAX_BYTES / 2;
+
+    public static class Cluster {
+        public String segment;
+        public String name;
+        public int imageCount;
+        public int videoCount;
+        public ArrayList<Path> paths;
+    }
+
+    private final BlobCache mCache;
+
+    // This can only be called from a background thread, it may open the
+    // cache files.
+    public ClusteringCache(Context context) {
+        mCache = CacheManager.getCache(context, CLUSTER_CACHE_FILE,
+                CLUSTER_CACHE_MAX_ENTRIES, CLUSTER_CACHE_MAX_BYTES,
+                CLUSTER_CACHE_VERSION);
+    }
+
+    // The clusterings which only read the item attributes covered by the
+    // fingerprint. Tag and face clusters come from other item attributes
+    // and keep cover items, so they are always computed.
+    public static boolean isCacheable(int kind) {
+        return kind == ClusterSource.CLUSTER_ALBUMSET_TIME
+                || kind == ClusterSource.CLUSTER_ALBUMSET_LOCATION
+                || kind == ClusterSource.CLUSTER_ALBUMSET_SIZE;
+    }
+
+    public static long computeFingerprint(MediaSet baseSet) {
+        final long[] crc = new long[] {
+                Utils.crc64Long(Locale.getDefault().toString())};
+        crc[0] = Utils.crc64Long(crc[0], Calendar.getInstance().get(Calendar.YEAR));
+        final double[] latLong = new double[2];
+        int count = baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
+            @Override
+            public void consume(int index, MediaItem item) {
+                item.getLatLong(latLong);
+                long c = Utils.crc64Long(crc[0], index);
+                c = Utils.crc64Long(c, item.getPath().getFingerprint());
+                c = Utils.crc64Long(c, item.getMediaType());
+                c = Utils.crc64Long(c, item.getDateInMs());
+                c = Utils.crc64Long(c, Double.doubleToLongBits(latLong[0]));
+                c = Utils.crc64Long(c, Double.doubleToLongBits(latLong[1]));
+                crc[0] = Utils.crc64Long(c, item.getSize());
+            }
+        }, 0);
+        return Utils.crc64Long(crc[0], count);
+    }
+
+    // Returns the cached clusters of the base set, or null if there are none
+    // for the given fingerprint.
+    public ArrayList<Cluster> getClusters(Path baseSetPath, int kind,
+            long fingerprint) {
+        if (mCache == null) return null;
+        String key = makeKey(baseSetPath, kind);
+        byte[] data;
+        try {
+            synchronized (mCache) {
+                data = mCache.lookup(Utils.crc64Long(key));
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (data == null) return null;
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (dis.readLong() != fingerprint || !key.equals(dis.readUTF())) {
+                return null;
+            }
+            int n = dis.readInt();
+            ArrayList<Cluster> clusters = new ArrayList<Cluster>(n);
+            for (int i = 0; i < n; i++) {
+                Cluster cluster = new Cluster();
+                cluster.segment = dis.readUTF();
+                cluster.name = dis.readUTF();
+                cluster.imageCount = dis.readInt();
+                cluster.videoCount = dis.readInt();
+                int m = dis.readInt();
+                cluster.paths = new ArrayList<Path>(m);
+                for (int j = 0; j < m; j++) {
+                    cluster.paths.add(Path.fromString(dis.readUTF()));
+                }
+                clusters.add(cluster);
+            }
+            return clusters;
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read clusters of " + key, e);
+            return null;
+        } finally {
+            Utils.closeSilently(dis);
+        }
+    }
+
+    public void putClusters(Path baseSetPath, int kind, long fingerprint,
+            ArrayList<ClusterAlbum> albums) {
+        if (mCache == null) return;
+        String key = makeKey(baseSetPath, kind);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        try {
+            dos.writeLong(fingerprint);
+            dos.writeUTF(key);
+            dos.writeInt(albums.size());
+            for (ClusterAlbum album : albums) {
+                dos.writeUTF(album.getPath().getSuffix());
+                dos.writeUTF(album.getName());
+                dos.writeInt(album.getImageItemCount());
+                dos.writeInt(album.getVideoItemCount());
+                ArrayList<Path> paths = album.getMediaItems();
+                dos.writeInt(paths.size());
+                for (Path path : paths) {
+                    dos.writeUTF(path.toString());
+                }
+                if (dos.size() > MAX_ENTRY_BYTES) return;
+            }
+            dos.flush();
+            synchronized (mCache) {
+                mCache.insert(Utils.crc64Long(key), bos.toByteArray());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write clusters of " + key, e);
+        } finally {
+            Utils.closeSilently(dos);
+        }
+    }
+
+    private static String makeKey(Path baseSetPath, int kind) {
+        return baseSetPath.toString() + "#" + kind;
+    }
+}
@@ -261,6 +261,34 @@ public class DataManager implements StitchingChangeListener {
         }
     }
 
+    // Deletes the objects of a list of Paths. Each media source deletes its
+    // own Paths, so the items of one source can be deleted in a few batch
+    // operations instead of one operation (and content notification) each.
+    public void delete(ArrayList<Path> list) {
+        HashMap<String, ArrayList<PathId>> map =
+                new HashMap<String, ArrayList<PathId>>();
+
+        // Group the path by the prefix.
+        int n = list.size();
+        for (int i = 0; i < n; i++) {
+            Path path = list.get(i);
+            String prefix = path.getPrefix();
+            ArrayList<PathId> group = map.get(prefix);
+            if (group == null) {
+                group = new ArrayList<PathId>();
+                map.put(prefix, group);
+            }
+            group.add(new PathId(path, i));
+        }
+
+        for (Entry<String, ArrayList<PathId>> entry : map.entrySet()) {
+            MediaSource source = mSourceMap.get(entry.getKey());
+            if (source != null) {
+                source.delete(entry.getValue());
+            }
+        }
+    }
+
     public void rotate(Path path, int degrees) {
         getMediaObject(path).rotate(degrees);
     }
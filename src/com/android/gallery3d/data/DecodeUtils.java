@@ -167,11 +167,16 @@ public class DecodeUtils {
      */
     public static Bitmap decodeIfBigEnough(JobContext jc, byte[] data,
             Options options, int targetSize) {
+        return decodeIfBigEnough(jc, data, 0, data.length, options, targetSize);
+    }
+
+    public static Bitmap decodeIfBigEnough(JobContext jc, byte[] data,
+            int offset, int length, Options options, int targetSize) {
         if (options == null) options = new Options();
         jc.setCancelListener(new DecodeCanceller(options));
 
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        BitmapFactory.decodeByteArray(data, offset, length, options);
         if (jc.isCancelled()) return null;
         if (options.outWidth < targetSize || options.outHeight < targetSize) {
             return null;
@@ -182,7 +187,7 @@ public class DecodeUtils {
         setOptionsMutable(options);
 
         return ensureGLCompatibleBitmap(
-                BitmapFactory.decodeByteArray(data, 0, data.length, options));
+                BitmapFactory.decodeByteArray(data, offset, length, options));
     }
 
     // TODO: This function should not be called directly from
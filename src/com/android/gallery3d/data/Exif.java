@@ -25,6 +25,9 @@ import java.io.InputStream;
 
 public class Exif {
     private static final String TAG = "GalleryExif";
+    // The tags read by getOrientation().
+    // This is package-private for the benchmark.
+    static final int[] ORIENTATION_TAGS = { ExifInterface.TAG_ORIENTATION };
 
     /**
      * Returns the degrees in clockwise. Values are 0, 90, 180, or 270.
@@ -35,7 +38,7 @@ public class Exif {
         }
         ExifInterface exif = new ExifInterface();
         try {
-            exif.readExif(is);
+            exif.readExif(is, ORIENTATION_TAGS);
             Integer val = exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
             if (val == null) {
                 return 0;
@@ -18,15 +18,11 @@ package com.android.gallery3d.data;
 
 import android.content.Context;
 
-import com.android.gallery3d.common.BlobCache;
-import com.android.gallery3d.common.BlobCache.LookupRequest;
-import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.common.ShardedBlobCache;
 import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
 import com.android.gallery3d.util.CacheManager;
-import com.android.gallery3d.util.GalleryUtils;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 public class ImageCacheService {
     @SuppressWarnings("unused")
@@ -35,14 +31,26 @@ public class ImageCacheService {
     private static final String IMAGE_CACHE_FILE = "imgcache";
     private static final int IMAGE_CACHE_MAX_ENTRIES = 5000;
     private static final int IMAGE_CACHE_MAX_BYTES = 200 * 1024 * 1024;
-    private static final int IMAGE_CACHE_VERSION = 7;
+    private static final int IMAGE_CACHE_VERSION = 8;
+    // Each shard has its own lock, so thumbnail lookups from different
+    // ThreadPool workers do not wait for each other.
+    private static final int IMAGE_CACHE_SHARDS = 8;
+    // Mapping both data files of every shard needs twice
+    // IMAGE_CACHE_MAX_BYTES of address space, so only do it in 64-bit
+    // processes.
+    private static final boolean USE_MAPPED_READS =
+            System.getProperty("os.arch", "").contains("64");
 
-    private BlobCache mCache;
+    // The key fields after the image: the type.
+    private static final ThreadLocal<CacheKey> sKey = CacheKey.newThreadLocal(1);
+
+    private ShardedBlobCache mCache;
 
     public ImageCacheService(Context context) {
-        mCache = CacheManager.getCache(context, IMAGE_CACHE_FILE,
-                IMAGE_CACHE_MAX_ENTRIES, IMAGE_CACHE_MAX_BYTES,
-                IMAGE_CACHE_VERSION);
+        mCache = CacheManager.getShardedCache(context, IMAGE_CACHE_FILE,
+                IMAGE_CACHE_SHARDS, IMAGE_CACHE_MAX_ENTRIES,
+                IMAGE_CACHE_MAX_BYTES, IMAGE_CACHE_VERSION);
+        if (mCache != null) mCache.setMappedReads(USE_MAPPED_READS);
     }
 
     /**
@@ -56,24 +64,12 @@ public class ImageCacheService {
      * @return true if the image data is found; false if not found.
      */
     public boolean getImageData(Path path, long timeModified, int type, BytesBuffer buffer) {
-        byte[] key = makeKey(path, timeModified, type);
-        long cacheKey = Utils.crc64Long(key);
+        if (mCache == null) {
+            return false;
+        }
         try {
-            LookupRequest request = new LookupRequest();
-            request.key = cacheKey;
-            request.buffer = buffer.data;
-            if (mCache == null) {
-                return false;
-            }
-            synchronized (mCache) {
-                if (!mCache.lookup(request)) return false;
-            }
-            if (isSameKey(key, request.buffer)) {
-                buffer.data = request.buffer;
-                buffer.offset = key.length;
-                buffer.length = request.length - buffer.offset;
-                return true;
-            }
+            return sKey.get().set(path, timeModified).setField(0, type)
+                    .lookup(mCache, buffer);
         } catch (IOException ex) {
             // ignore.
         }
@@ -81,52 +77,30 @@ public class ImageCacheService {
     }
 
     public void putImageData(Path path, long timeModified, int type, byte[] value) {
-        byte[] key = makeKey(path, timeModified, type);
-        long cacheKey = Utils.crc64Long(key);
-        ByteBuffer buffer = ByteBuffer.allocate(key.length + value.length);
-        buffer.put(key);
-        buffer.put(value);
         if (mCache == null) {
             return;
         }
-        synchronized (mCache) {
-            try {
-                mCache.insert(cacheKey, buffer.array());
-            } catch (IOException ex) {
-                // ignore.
-            }
+        CacheKey key = sKey.get().set(path, timeModified).setField(0, type);
+        int headerSize = key.getHeaderSize();
+        byte[] data = new byte[headerSize + value.length];
+        key.writeHeader(data);
+        System.arraycopy(value, 0, data, headerSize, value.length);
+        try {
+            mCache.insert(key.getKey(), data);
+        } catch (IOException ex) {
+            // ignore.
         }
     }
 
     public void clearImageData(Path path, long timeModified, int type) {
-        byte[] key = makeKey(path, timeModified, type);
-        long cacheKey = Utils.crc64Long(key);
         if (mCache == null) {
             return;
         }
-        synchronized (mCache) {
-            try {
-                mCache.clearEntry(cacheKey);
-            } catch (IOException ex) {
-                // ignore.
-            }
-        }
-    }
-
-    private static byte[] makeKey(Path path, long timeModified, int type) {
-        return GalleryUtils.getBytes(path.toString() + "+" + timeModified + "+" + type);
-    }
-
-    private static boolean isSameKey(byte[] key, byte[] buffer) {
-        int n = key.length;
-        if (buffer.length < n) {
-            return false;
-        }
-        for (int i = 0; i < n; ++i) {
-            if (key[i] != buffer[i]) {
-                return false;
-            }
+        try {
+            mCache.clearEntry(sKey.get().set(path, timeModified).setField(0, type)
+                    .getKey());
+        } catch (IOException ex) {
+            // ignore.
         }
-        return true;
     }
 }
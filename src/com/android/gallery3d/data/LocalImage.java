@@ -37,6 +37,7 @@ import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.exif.ExifInterface;
 import com.android.gallery3d.exif.ExifTag;
+import com.android.gallery3d.exif.ExifThumbnailReader;
 import com.android.gallery3d.filtershow.tools.SaveImage;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.ThreadPool.Job;
@@ -46,6 +47,7 @@ import com.android.gallery3d.util.UpdateHelper;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 // LocalImage represents an image in the local storage.
 public class LocalImage extends LocalMediaItem {
@@ -208,19 +210,20 @@ public class LocalImage extends LocalMediaItem {
 
             // try to decode from JPEG EXIF
             if (type == MediaItem.TYPE_MICROTHUMBNAIL) {
-                ExifInterface exif = new ExifInterface();
-                byte[] thumbData = null;
+                // Only the thumbnail is read, without parsing the other tags.
+                ByteBuffer thumbData = null;
                 try {
-                    exif.readExif(mLocalFilePath);
-                    thumbData = exif.getThumbnail();
+                    thumbData = ExifThumbnailReader.readThumbnail(mLocalFilePath);
                 } catch (FileNotFoundException e) {
                     Log.w(TAG, "failed to find file to read thumbnail: " + mLocalFilePath);
                 } catch (IOException e) {
                     Log.w(TAG, "failed to get thumbnail from: " + mLocalFilePath);
                 }
                 if (thumbData != null) {
-                    Bitmap bitmap = DecodeUtils.decodeIfBigEnough(
-                            jc, thumbData, options, targetSize);
+                    Bitmap bitmap = DecodeUtils.decodeIfBigEnough(jc,
+                            thumbData.array(),
+                            thumbData.arrayOffset() + thumbData.position(),
+                            thumbData.remaining(), options, targetSize);
                     if (bitmap != null) return bitmap;
                 }
             }
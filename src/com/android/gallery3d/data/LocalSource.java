@@ -17,15 +17,23 @@
 package com.android.gallery3d.data;
 
 import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.UriMatcher;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.MediaStore;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.MediaColumns;
+import android.provider.MediaStore.Video;
 
 import com.android.gallery3d.app.GalleryActivity;
 import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.data.MediaSet.ItemConsumer;
+import com.android.gallery3d.filtershow.tools.SaveImage;
+import com.android.gallery3d.util.GalleryUtils;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -51,6 +59,9 @@ class LocalSource extends MediaSource {
 
     private static final String TAG = "LocalSource";
 
+    // The maximum number of items deleted by one database operation.
+    private static final int DELETE_BATCH_COUNT = 500;
+
     private ContentProviderClient mClient;
 
     public LocalSource(GalleryApp context) {
@@ -243,6 +254,66 @@ class LocalSource extends MediaSource {
         }
     }
 
+    @Override
+    public void delete(ArrayList<PathId> list) {
+        ArrayList<PathId> imageList = new ArrayList<PathId>();
+        ArrayList<PathId> videoList = new ArrayList<PathId>();
+        ArrayList<PathId> otherList = new ArrayList<PathId>();
+        int n = list.size();
+        for (int i = 0; i < n; i++) {
+            PathId pid = list.get(i);
+            Path parent = pid.path.getParent();
+            if (parent == LocalImage.ITEM_PATH) {
+                imageList.add(pid);
+            } else if (parent == LocalVideo.ITEM_PATH) {
+                videoList.add(pid);
+            } else {
+                otherList.add(pid);
+            }
+        }
+        processDelete(imageList, true);
+        processDelete(videoList, false);
+        // Albums are deleted one by one.
+        super.delete(otherList);
+    }
+
+    // Deletes the items with "_id IN (...)" operations, so that the media
+    // provider sends one change notification per batch instead of per item.
+    private void processDelete(ArrayList<PathId> list, boolean isImage) {
+        GalleryUtils.assertNotInRenderThread();
+        ContentResolver resolver = mApplication.getContentResolver();
+        Uri baseUri = isImage
+                ? Images.Media.EXTERNAL_CONTENT_URI
+                : Video.Media.EXTERNAL_CONTENT_URI;
+        int n = list.size();
+        for (int i = 0; i < n; i += DELETE_BATCH_COUNT) {
+            int end = Math.min(n, i + DELETE_BATCH_COUNT);
+            StringBuilder where = new StringBuilder(MediaColumns._ID + " IN (");
+            for (int j = i; j < end; j++) {
+                if (j > i) where.append(',');
+                where.append(Integer.parseInt(list.get(j).path.getSuffix()));
+            }
+            where.append(')');
+            if (isImage) deleteAuxFiles(resolver, baseUri, where.toString());
+            resolver.delete(baseUri, where.toString(), null);
+        }
+    }
+
+    private static void deleteAuxFiles(ContentResolver resolver, Uri baseUri,
+            String where) {
+        Cursor cursor = resolver.query(baseUri,
+                new String[] {MediaColumns.DATA}, where, null, null);
+        if (cursor == null) return;
+        try {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(0);
+                if (path != null) SaveImage.deleteAuxFiles(new File(path));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     // This is a comparator which compares the suffix number in two Paths.
     private static class IdComparator implements Comparator<PathId> {
         @Override
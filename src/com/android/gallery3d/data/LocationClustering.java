@@ -37,25 +37,21 @@ class LocationClustering extends Clustering {
 
     // If the total distance change is less than this ratio, stop iterating.
     private static final float STOP_CHANGE_RATIO = 0.01f;
+
+    // The items are put into the cells of a lat-long grid first, and k-means
+    // runs on the cells (weighted by their number of items) instead of on the
+    // items. The finest cells are 1 / CELLS_PER_DEGREE degree wide (about 14
+    // meters), and they are merged with their neighbors until there are at
+    // most MAX_CELLS cells left.
+    private static final int CELLS_PER_DEGREE = 8192;
+    private static final int MAX_CELLS = 1024;
+
     private Context mContext;
-    private ArrayList<ArrayList<SmallItem>> mClusters;
+    private ArrayList<ArrayList<Path>> mClusters;
     private ArrayList<String> mNames;
     private String mNoLocationString;
     private Handler mHandler;
-
-    private static class Point {
-        public Point(double lat, double lng) {
-            latRad = Math.toRadians(lat);
-            lngRad = Math.toRadians(lng);
-        }
-        public Point() {}
-        public double latRad, lngRad;
-    }
-
-    private static class SmallItem {
-        Path path;
-        double lat, lng;
-    }
+    private boolean mHasUnresolvedAddress;
 
     public LocationClustering(Context context) {
         mContext = context;
@@ -66,68 +62,77 @@ class LocationClustering extends Clustering {
     @Override
     public void run(MediaSet baseSet) {
         final int total = baseSet.getTotalMediaItemCount();
-        final SmallItem[] buf = new SmallItem[total];
-        // Separate items to two sets: with or without lat-long.
+        final Path[] paths = new Path[total];
+        final double[] lats = new double[total];
+        final double[] lngs = new double[total];
         final double[] latLong = new double[2];
         baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
             @Override
             public void consume(int index, MediaItem item) {
                 if (index < 0 || index >= total) return;
-                SmallItem s = new SmallItem();
-                s.path = item.getPath();
+                paths[index] = item.getPath();
                 item.getLatLong(latLong);
-                s.lat = latLong[0];
-                s.lng = latLong[1];
-                buf[index] = s;
+                lats[index] = latLong[0];
+                lngs[index] = latLong[1];
             }
         });
 
-        final ArrayList<SmallItem> withLatLong = new ArrayList<SmallItem>();
-        final ArrayList<SmallItem> withoutLatLong = new ArrayList<SmallItem>();
-        final ArrayList<Point> points = new ArrayList<Point>();
+        // Separate items to two sets: with or without lat-long.
+        int[] withLatLong = new int[total];
+        int m = 0;
+        ArrayList<Path> withoutLatLong = new ArrayList<Path>();
         for (int i = 0; i < total; i++) {
-            SmallItem s = buf[i];
-            if (s == null) continue;
-            if (GalleryUtils.isValidLocation(s.lat, s.lng)) {
-                withLatLong.add(s);
-                points.add(new Point(s.lat, s.lng));
+            if (paths[i] == null) continue;
+            if (GalleryUtils.isValidLocation(lats[i], lngs[i])) {
+                withLatLong[m++] = i;
             } else {
-                withoutLatLong.add(s);
+                withoutLatLong.add(paths[i]);
             }
         }
 
-        ArrayList<ArrayList<SmallItem>> clusters = new ArrayList<ArrayList<SmallItem>>();
+        ReverseGeocoder geocoder = new ReverseGeocoder(mContext);
+        mNames = new ArrayList<String>();
+        boolean hasUnresolvedAddress = false;
+        mClusters = new ArrayList<ArrayList<Path>>();
 
-        int m = withLatLong.size();
         if (m > 0) {
             // cluster the items with lat-long
-            Point[] pointsArray = new Point[m];
-            pointsArray = points.toArray(pointsArray);
             int[] bestK = new int[1];
-            int[] index = kMeans(pointsArray, bestK);
+            int[] grouping = cluster(withLatLong, m, lats, lngs, bestK);
 
-            for (int i = 0; i < bestK[0]; i++) {
-                clusters.add(new ArrayList<SmallItem>());
+            // Sort the items by group (keeping their order in each group),
+            // so the items of group i are members[start[i]..start[i + 1]).
+            int k = bestK[0];
+            int[] start = new int[k + 1];
+            for (int i = 0; i < m; i++) {
+                start[grouping[i] + 1]++;
             }
-
+            for (int i = 0; i < k; i++) {
+                start[i + 1] += start[i];
+            }
+            int[] next = new int[k];
+            System.arraycopy(start, 0, next, 0, k);
+            int[] members = new int[m];
             for (int i = 0; i < m; i++) {
-                clusters.get(index[i]).add(withLatLong.get(i));
+                members[next[grouping[i]]++] = withLatLong[i];
             }
-        }
 
-        ReverseGeocoder geocoder = new ReverseGeocoder(mContext);
-        mNames = new ArrayList<String>();
-        boolean hasUnresolvedAddress = false;
-        mClusters = new ArrayList<ArrayList<SmallItem>>();
-        for (ArrayList<SmallItem> cluster : clusters) {
-            String name = generateName(cluster, geocoder);
-            if (name != null) {
-                mNames.add(name);
-                mClusters.add(cluster);
-            } else {
-                // move cluster-i to no location cluster
-                withoutLatLong.addAll(cluster);
-                hasUnresolvedAddress = true;
+            for (int i = 0; i < k; i++) {
+                String name = generateName(members, start[i], start[i + 1],
+                        lats, lngs, geocoder);
+                ArrayList<Path> cluster = (name != null)
+                        ? new ArrayList<Path>(start[i + 1] - start[i])
+                        : withoutLatLong;
+                for (int j = start[i]; j < start[i + 1]; j++) {
+                    cluster.add(paths[members[j]]);
+                }
+                if (name != null) {
+                    mNames.add(name);
+                    mClusters.add(cluster);
+                } else {
+                    // cluster-i was moved to no location cluster
+                    hasUnresolvedAddress = true;
+                }
             }
         }
 
@@ -136,6 +141,7 @@ class LocationClustering extends Clustering {
             mClusters.add(withoutLatLong);
         }
 
+        mHasUnresolvedAddress = hasUnresolvedAddress;
         if (hasUnresolvedAddress) {
             mHandler.post(new Runnable() {
                 @Override
@@ -147,15 +153,13 @@ class LocationClustering extends Clustering {
         }
     }
 
-    private static String generateName(ArrayList<SmallItem> items,
-            ReverseGeocoder geocoder) {
+    private static String generateName(int[] members, int from, int to,
+            double[] lats, double[] lngs, ReverseGeocoder geocoder) {
         ReverseGeocoder.SetLatLong set = new ReverseGeocoder.SetLatLong();
 
-        int n = items.size();
-        for (int i = 0; i < n; i++) {
-            SmallItem item = items.get(i);
-            double itemLatitude = item.lat;
-            double itemLongitude = item.lng;
+        for (int i = from; i < to; i++) {
+            double itemLatitude = lats[members[i]];
+            double itemLongitude = lngs[members[i]];
 
             if (set.mMinLatLatitude > itemLatitude) {
                 set.mMinLatLatitude = itemLatitude;
@@ -178,6 +182,11 @@ class LocationClustering extends Clustering {
         return geocoder.computeAddress(set);
     }
 
+    @Override
+    public boolean isCacheable() {
+        return !mHasUnresolvedAddress;
+    }
+
     @Override
     public int getNumberOfClusters() {
         return mClusters.size();
@@ -185,12 +194,7 @@ class LocationClustering extends Clustering {
 
     @Override
     public ArrayList<Path> getCluster(int index) {
-        ArrayList<SmallItem> items = mClusters.get(index);
-        ArrayList<Path> result = new ArrayList<Path>(items.size());
-        for (int i = 0, n = items.size(); i < n; i++) {
-            result.add(items.get(i).path);
-        }
-        return result;
+        return new ArrayList<Path>(mClusters.get(index));
     }
 
     @Override
@@ -198,26 +202,127 @@ class LocationClustering extends Clustering {
         return mNames.get(index);
     }
 
-    // Input: n points
+    // The cells of a lat-long grid. Each cell has its grid coordinates, the
+    // number of points in it, and the sum of their coordinates (in radians).
+    private static class Grid {
+        int size;
+        final int[] x, y;
+        final int[] count;
+        final double[] latSum, lngSum;
+
+        // An open addressing hash table from the cell coordinates to the
+        // cell index + 1 (0 means the slot is empty).
+        private final long[] mKeys;
+        private final int[] mSlots;
+        private final int mShift;
+
+        Grid(int capacity) {
+            x = new int[capacity];
+            y = new int[capacity];
+            count = new int[capacity];
+            latSum = new double[capacity];
+            lngSum = new double[capacity];
+
+            int bits = 1;
+            while ((1 << bits) < capacity * 2) bits++;
+            mKeys = new long[1 << bits];
+            mSlots = new int[1 << bits];
+            mShift = 64 - bits;
+        }
+
+        // Returns the index of cell (cx, cy), adding the cell if needed.
+        int getCell(int cx, int cy) {
+            long key = ((long) cx << 32) | (cy & 0xffffffffL);
+            int mask = mSlots.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+            while (mSlots[slot] != 0) {
+                if (mKeys[slot] == key) return mSlots[slot] - 1;
+                slot = (slot + 1) & mask;
+            }
+            int cell = size++;
+            mKeys[slot] = key;
+            mSlots[slot] = cell + 1;
+            x[cell] = cx;
+            y[cell] = cy;
+            return cell;
+        }
+
+        void add(int cell, double latRad, double lngRad, int n) {
+            count[cell] += n;
+            latSum[cell] += latRad;
+            lngSum[cell] += lngRad;
+        }
+    }
+
+    // Input: m items (indexes into lats and lngs, in degrees)
     // Output: the best k is stored in bestK[0], and the return value is the
-    // an array which specifies the group that each point belongs (0 to k - 1).
-    private static int[] kMeans(Point points[], int[] bestK) {
-        int n = points.length;
+    // an array which specifies the group that each item belongs (0 to k - 1).
+    // This is package-private for the benchmark.
+    static int[] cluster(int[] items, int m, double[] lats,
+            double[] lngs, int[] bestK) {
+        // Put the items into the finest cells.
+        int[] itemCell = new int[m];
+        Grid grid = new Grid(m);
+        for (int i = 0; i < m; i++) {
+            double lat = Math.max(-90.0, Math.min(90.0, lats[items[i]]));
+            double lng = Math.max(-180.0, Math.min(180.0, lngs[items[i]]));
+            int cx = (int) ((lat + 90) * CELLS_PER_DEGREE);
+            int cy = (int) ((lng + 180) * CELLS_PER_DEGREE);
+            int cell = grid.getCell(cx, cy);
+            grid.add(cell, Math.toRadians(lat), Math.toRadians(lng), 1);
+            itemCell[i] = cell;
+        }
 
+        // Merge each 2x2 block of cells into one until there are few enough.
+        while (grid.size > MAX_CELLS) {
+            Grid coarse = new Grid(grid.size);
+            int[] parent = new int[grid.size];
+            for (int i = 0; i < grid.size; i++) {
+                int cell = coarse.getCell(grid.x[i] >> 1, grid.y[i] >> 1);
+                coarse.add(cell, grid.latSum[i], grid.lngSum[i], grid.count[i]);
+                parent[i] = cell;
+            }
+            for (int i = 0; i < m; i++) {
+                itemCell[i] = parent[itemCell[i]];
+            }
+            grid = coarse;
+        }
+
+        // Cluster the cell centers, then each item goes to the group of its
+        // cell.
+        int n = grid.size;
+        double[] latRad = new double[n];
+        double[] lngRad = new double[n];
+        for (int i = 0; i < n; i++) {
+            latRad[i] = grid.latSum[i] / grid.count[i];
+            lngRad[i] = grid.lngSum[i] / grid.count[i];
+        }
+        int[] cellGroup = kMeans(latRad, lngRad, grid.count, n, bestK);
+
+        int[] grouping = new int[m];
+        for (int i = 0; i < m; i++) {
+            grouping[i] = cellGroup[itemCell[i]];
+        }
+        return grouping;
+    }
+
+    // Input: n points with weights
+    // Output: the best k is stored in bestK[0], and the return value is the
+    // an array which specifies the group that each point belongs (0 to k - 1).
+    // This is package-private for the benchmark.
+    static int[] kMeans(double[] latRad, double[] lngRad, int[] weight,
+            int n, int[] bestK) {
         // min and max number of groups wanted
         int minK = Math.min(n, MIN_GROUPS);
         int maxK = Math.min(n, MAX_GROUPS);
 
-        Point[] center = new Point[maxK];  // center of each group.
-        Point[] groupSum = new Point[maxK];  // sum of points in each group.
-        int[] groupCount = new int[maxK];  // number of points in each group.
+        double[] centerLat = new double[maxK];  // center of each group.
+        double[] centerLng = new double[maxK];
+        double[] sumLat = new double[maxK];  // sum of points in each group.
+        double[] sumLng = new double[maxK];
+        int[] groupCount = new int[maxK];  // weight of points in each group.
         int[] grouping = new int[n]; // The group assignment for each point.
 
-        for (int i = 0; i < maxK; i++) {
-            center[i] = new Point();
-            groupSum[i] = new Point();
-        }
-
         // The score we want to minimize is:
         //   (sum of distance from each point to its group center) * sqrt(k).
         float bestScore = Float.MAX_VALUE;
@@ -233,27 +338,27 @@ class LocationClustering extends Clustering {
             // step 1: (arbitrarily) pick k points as the initial centers.
             int delta = n / k;
             for (int i = 0; i < k; i++) {
-                Point p = points[i * delta];
-                center[i].latRad = p.latRad;
-                center[i].lngRad = p.lngRad;
+                centerLat[i] = latRad[i * delta];
+                centerLng[i] = lngRad[i * delta];
             }
 
             for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
                 // step 2: assign each point to the nearest center.
                 for (int i = 0; i < k; i++) {
-                    groupSum[i].latRad = 0;
-                    groupSum[i].lngRad = 0;
+                    sumLat[i] = 0;
+                    sumLng[i] = 0;
                     groupCount[i] = 0;
                 }
                 totalDistance = 0;
 
                 for (int i = 0; i < n; i++) {
-                    Point p = points[i];
+                    double lat = latRad[i];
+                    double lng = lngRad[i];
                     float bestDistance = Float.MAX_VALUE;
                     int bestIndex = 0;
                     for (int j = 0; j < k; j++) {
                         float distance = (float) GalleryUtils.fastDistanceMeters(
-                                p.latRad, p.lngRad, center[j].latRad, center[j].lngRad);
+                                lat, lng, centerLat[j], centerLng[j]);
                         // We may have small non-zero distance introduced by
                         // floating point calculation, so zero out small
                         // distances less than 1 meter.
@@ -265,18 +370,19 @@ class LocationClustering extends Clustering {
                             bestIndex = j;
                         }
                     }
+                    int w = weight[i];
                     grouping[i] = bestIndex;
-                    groupCount[bestIndex]++;
-                    groupSum[bestIndex].latRad += p.latRad;
-                    groupSum[bestIndex].lngRad += p.lngRad;
-                    totalDistance += bestDistance;
+                    groupCount[bestIndex] += w;
+                    sumLat[bestIndex] += lat * w;
+                    sumLng[bestIndex] += lng * w;
+                    totalDistance += bestDistance * w;
                 }
 
                 // step 3: calculate new centers
                 for (int i = 0; i < k; i++) {
                     if (groupCount[i] > 0) {
-                        center[i].latRad = groupSum[i].latRad / groupCount[i];
-                        center[i].lngRad = groupSum[i].lngRad / groupCount[i];
+                        centerLat[i] = sumLat[i] / groupCount[i];
+                        centerLng[i] = sumLng[i] / groupCount[i];
                     }
                 }
 
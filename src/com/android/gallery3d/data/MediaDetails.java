@@ -131,11 +131,25 @@ public class MediaDetails implements Iterable<Entry<Integer, Object>> {
         }
     }
 
+    // The tags read by extractExifInfo().
+    // This is package-private for the benchmark.
+    static final int[] EXIF_DETAIL_TAGS = {
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_IMAGE_WIDTH,
+            ExifInterface.TAG_IMAGE_LENGTH,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_APERTURE_VALUE,
+            ExifInterface.TAG_ISO_SPEED_RATINGS,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_FOCAL_LENGTH };
+
     public static void extractExifInfo(MediaDetails details, String filePath) {
 
         ExifInterface exif = new ExifInterface();
         try {
-            exif.readExif(filePath);
+            exif.readExif(filePath, EXIF_DETAIL_TAGS);
         } catch (FileNotFoundException e) {
             Log.w(TAG, "Could not find file to read exif: " + filePath, e);
         } catch (IOException e) {
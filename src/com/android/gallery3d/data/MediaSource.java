@@ -93,4 +93,30 @@ public abstract class MediaSource {
             }
         }
     }
+
+    // Deletes the objects of a list of Paths (all belong to this MediaSource).
+    //
+    // This default implementation deletes the objects one by one. Subclasses
+    // may override this and provide more efficient implementation (like
+    // deleting a batch of rows in one database operation).
+    public void delete(ArrayList<PathId> list) {
+        int n = list.size();
+        for (int i = 0; i < n; i++) {
+            Path path = list.get(i).path;
+            MediaObject obj;
+            synchronized (DataManager.LOCK) {
+                obj = path.getObject();
+                if (obj == null) {
+                    try {
+                        obj = createMediaObject(path);
+                    } catch (Throwable th) {
+                        Log.w(TAG, "cannot create media object: " + path, th);
+                    }
+                }
+            }
+            if (obj != null) {
+                obj.delete();
+            }
+        }
+    }
 }
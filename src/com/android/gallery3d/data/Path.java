@@ -17,19 +17,27 @@
 package com.android.gallery3d.data;
 
 import com.android.gallery3d.common.Utils;
-import com.android.gallery3d.util.IdentityCache;
+import com.android.gallery3d.util.ConcurrentIdentityCache;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 
+// Paths are interned: there is only one Path object for each path string.
+// The tree of Paths is safe for concurrent use without a global lock. The
+// parent and segment of a Path never change, children are looked up in a
+// ConcurrentIdentityCache, and the string form is computed once.
 public class Path {
     private static final String TAG = "Path";
-    private static Path sRoot = new Path(null, "ROOT");
+    private static volatile Path sRoot = new Path(null, "ROOT");
 
     private final Path mParent;
     private final String mSegment;
-    private WeakReference<MediaObject> mObject;
-    private IdentityCache<String, Path> mChildren;
+    private volatile WeakReference<MediaObject> mObject;
+    private volatile ConcurrentIdentityCache<String, Path> mChildren;
+    // Lazily computed by toString().
+    private volatile String mString;
+    // Lazily computed by getFingerprint(). 0 means not computed yet.
+    private volatile long mFingerprint;
 
     private Path(Path parent, String segment) {
         mParent = parent;
@@ -37,24 +45,24 @@ public class Path {
     }
 
     public Path getChild(String segment) {
-        synchronized (Path.class) {
-            if (mChildren == null) {
-                mChildren = new IdentityCache<String, Path>();
-            } else {
-                Path p = mChildren.get(segment);
-                if (p != null) return p;
+        ConcurrentIdentityCache<String, Path> children = mChildren;
+        if (children == null) {
+            synchronized (this) {
+                children = mChildren;
+                if (children == null) {
+                    children = new ConcurrentIdentityCache<String, Path>();
+                    mChildren = children;
+                }
             }
-
-            Path p = new Path(this, segment);
-            mChildren.put(segment, p);
-            return p;
+        } else {
+            Path p = children.get(segment);
+            if (p != null) return p;
         }
+        return children.putIfAbsent(segment, new Path(this, segment));
     }
 
     public Path getParent() {
-        synchronized (Path.class) {
-            return mParent;
-        }
+        return mParent;
     }
 
     public Path getChild(int segment) {
@@ -66,30 +74,37 @@ public class Path {
     }
 
     public void setObject(MediaObject object) {
-        synchronized (Path.class) {
+        synchronized (this) {
             Utils.assertTrue(mObject == null || mObject.get() == null);
             mObject = new WeakReference<MediaObject>(object);
         }
     }
 
     MediaObject getObject() {
-        synchronized (Path.class) {
-            return (mObject == null) ? null : mObject.get();
-        }
+        WeakReference<MediaObject> object = mObject;
+        return (object == null) ? null : object.get();
     }
 
     @Override
-    // TODO: toString() should be more efficient, will fix it later
     public String toString() {
-        synchronized (Path.class) {
-            StringBuilder sb = new StringBuilder();
-            String[] segments = split();
-            for (int i = 0; i < segments.length; i++) {
-                sb.append("/");
-                sb.append(segments[i]);
-            }
-            return sb.toString();
+        String s = mString;
+        if (s == null) {
+            // Racing threads compute equal strings, so either one may win.
+            s = (mParent == null) ? "" : mParent.toString() + "/" + mSegment;
+            mString = s;
         }
+        return s;
+    }
+
+    // Returns a 64-bit fingerprint (the crc64 of toString()) of this path.
+    // It is computed once and then cached, so it is cheap to use as a key.
+    public long getFingerprint() {
+        long fingerprint = mFingerprint;
+        if (fingerprint == 0) {
+            fingerprint = Utils.crc64Long(toString());
+            mFingerprint = fingerprint;
+        }
+        return fingerprint;
     }
 
     public boolean equalsIgnoreCase (String p) {
@@ -98,29 +113,25 @@ public class Path {
     }
 
     public static Path fromString(String s) {
-        synchronized (Path.class) {
-            String[] segments = split(s);
-            Path current = sRoot;
-            for (int i = 0; i < segments.length; i++) {
-                current = current.getChild(segments[i]);
-            }
-            return current;
+        String[] segments = split(s);
+        Path current = sRoot;
+        for (int i = 0; i < segments.length; i++) {
+            current = current.getChild(segments[i]);
         }
+        return current;
     }
 
     public String[] split() {
-        synchronized (Path.class) {
-            int n = 0;
-            for (Path p = this; p != sRoot; p = p.mParent) {
-                n++;
-            }
-            String[] segments = new String[n];
-            int i = n - 1;
-            for (Path p = this; p != sRoot; p = p.mParent) {
-                segments[i--] = p.mSegment;
-            }
-            return segments;
+        int n = 0;
+        for (Path p = this; p.mParent != null; p = p.mParent) {
+            n++;
         }
+        String[] segments = new String[n];
+        int i = n - 1;
+        for (Path p = this; p.mParent != null; p = p.mParent) {
+            segments[i--] = p.mSegment;
+        }
+        return segments;
     }
 
     public static String[] split(String s) {
@@ -181,21 +192,19 @@ public class Path {
     }
 
     public String getPrefix() {
-        if (this == sRoot) return "";
+        if (mParent == null) return "";
         return getPrefixPath().mSegment;
     }
 
     public Path getPrefixPath() {
-        synchronized (Path.class) {
-            Path current = this;
-            if (current == sRoot) {
-                throw new IllegalStateException();
-            }
-            while (current.mParent != sRoot) {
-                current = current.mParent;
-            }
-            return current;
+        Path current = this;
+        if (current.mParent == null) {
+            throw new IllegalStateException();
+        }
+        while (current.mParent.mParent != null) {
+            current = current.mParent;
         }
+        return current;
     }
 
     public String getSuffix() {
@@ -205,9 +214,7 @@ public class Path {
 
     // Below are for testing/debugging only
     static void clearAll() {
-        synchronized (Path.class) {
-            sRoot = new Path(null, "");
-        }
+        sRoot = new Path(null, "");
     }
 
     static void dumpAll() {
@@ -215,25 +222,24 @@ public class Path {
     }
 
     static void dumpAll(Path p, String prefix1, String prefix2) {
-        synchronized (Path.class) {
-            MediaObject obj = p.getObject();
-            Log.d(TAG, prefix1 + p.mSegment + ":"
-                    + (obj == null ? "null" : obj.getClass().getSimpleName()));
-            if (p.mChildren != null) {
-                ArrayList<String> childrenKeys = p.mChildren.keys();
-                int i = 0, n = childrenKeys.size();
-                for (String key : childrenKeys) {
-                    Path child = p.mChildren.get(key);
-                    if (child == null) {
-                        ++i;
-                        continue;
-                    }
-                    Log.d(TAG, prefix2 + "|");
-                    if (++i < n) {
-                        dumpAll(child, prefix2 + "+-- ", prefix2 + "|   ");
-                    } else {
-                        dumpAll(child, prefix2 + "+-- ", prefix2 + "    ");
-                    }
+        MediaObject obj = p.getObject();
+        Log.d(TAG, prefix1 + p.mSegment + ":"
+                + (obj == null ? "null" : obj.getClass().getSimpleName()));
+        ConcurrentIdentityCache<String, Path> children = p.mChildren;
+        if (children != null) {
+            ArrayList<String> childrenKeys = children.keys();
+            int i = 0, n = childrenKeys.size();
+            for (String key : childrenKeys) {
+                Path child = children.get(key);
+                if (child == null) {
+                    ++i;
+                    continue;
+                }
+                Log.d(TAG, prefix2 + "|");
+                if (++i < n) {
+                    dumpAll(child, prefix2 + "+-- ", prefix2 + "|   ");
+                } else {
+                    dumpAll(child, prefix2 + "+-- ", prefix2 + "    ");
                 }
             }
         }
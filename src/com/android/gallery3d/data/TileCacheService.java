@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+
+import com.android.gallery3d.common.ShardedBlobCache;
+import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An on-disk cache of the tiles decoded by TileImageViewAdapter, so that a
+// large image viewed again is drawn from cached tiles instead of region
+// decodes of the full image.
+//
+// A tile is identified by the image (path and modification time), its level
+// and position in the pyramid, and the tile size. The tiles are stored as
+// JPEG, so only opaque images should be cached, and only tiles entirely
+// within the image, as JPEG has no transparency for the rest of an edge
+// tile. The BlobCache moves an entry found in its older region to the newer
+// one, so the least recently used tiles are the ones dropped when the byte
+// budget is reached.
+public class TileCacheService {
+    @SuppressWarnings("unused")
+    private static final String TAG = "TileCacheService";
+
+    private static final String TILE_CACHE_FILE = "tilecache";
+    private static final int TILE_CACHE_MAX_ENTRIES = 4000;
+    private static final int TILE_CACHE_MAX_BYTES = 100 * 1024 * 1024;
+    private static final int TILE_CACHE_VERSION = 2;
+    private static final int TILE_CACHE_SHARDS = 4;
+    private static final int TILE_QUALITY = 90;
+    // Tiles waiting to be compressed beyond this are not cached, so that a
+    // fast fling does not queue copies of every tile it decodes.
+    private static final int MAX_PENDING_TILES = 16;
+
+    // The key fields after the image: level, x, y and tileSize.
+    private static final ThreadLocal<CacheKey> sKey = CacheKey.newThreadLocal(4);
+
+    private ShardedBlobCache mCache;
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    // Compresses the tiles off the tile decoding threads.
+    private final ThreadPool mThreadPool = new ThreadPool(1, 1);
+
+    public TileCacheService(Context context) {
+        mCache = CacheManager.getShardedCache(context, TILE_CACHE_FILE,
+                TILE_CACHE_SHARDS, TILE_CACHE_MAX_ENTRIES,
+                TILE_CACHE_MAX_BYTES, TILE_CACHE_VERSION);
+    }
+
+    /**
+     * Gets the cached tile of the image identified by <code>path</code> and
+     * <code>timeModified</code>.
+     *
+     * The JPEG data will be stored in <code>buffer.data</code>, started from
+     * <code>buffer.offset</code> for <code>buffer.length</code> bytes.
+     *
+     * @return true if the tile is found; false if not found.
+     */
+    public boolean getTile(Path path, long timeModified, int level, int x,
+            int y, int tileSize, BytesBuffer buffer) {
+        if (mCache == null) return false;
+        try {
+            if (getKey(path, timeModified, level, x, y, tileSize)
+                    .lookup(mCache, buffer)) {
+                mHitCount.incrementAndGet();
+                return true;
+            }
+        } catch (IOException ex) {
+            // ignore.
+        }
+        mMissCount.incrementAndGet();
+        return false;
+    }
+
+    // Stores the tile, which must be opaque and entirely within the image.
+    // This is called in the tile decoding threads, which keep the tile, so
+    // it is copied and compressed in the background.
+    public void putTile(final Path path, final long timeModified,
+            final int level, final int x, final int y, final int tileSize,
+            Bitmap tile) {
+        if (mCache == null) return;
+        if (mPendingCount.incrementAndGet() > MAX_PENDING_TILES) {
+            mPendingCount.decrementAndGet();
+            return;
+        }
+        final Bitmap copy = tile.copy(Config.ARGB_8888, false);
+        if (copy == null) {
+            mPendingCount.decrementAndGet();
+            return;
+        }
+        mThreadPool.submit(new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                try {
+                    compressTile(path, timeModified, level, x, y, tileSize,
+                            copy);
+                } finally {
+                    copy.recycle();
+                    mPendingCount.decrementAndGet();
+                }
+                return null;
+            }
+        }, null, ThreadPool.PRIORITY_LOW);
+    }
+
+    private void compressTile(Path path, long timeModified, int level, int x,
+            int y, int tileSize, Bitmap tile) {
+        CacheKey key = getKey(path, timeModified, level, x, y, tileSize);
+        int headerSize = key.getHeaderSize();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                tileSize * tileSize / 4);
+        out.write(new byte[headerSize], 0, headerSize);
+        if (!tile.compress(CompressFormat.JPEG, TILE_QUALITY, out)) return;
+        byte[] data = out.toByteArray();
+        key.writeHeader(data);
+        try {
+            mCache.insert(key.getKey(), data);
+        } catch (IOException ex) {
+            // ignore.
+        }
+    }
+
+    /**
+     * @return Number of getTile() calls which found the tile.
+     */
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return Number of getTile() calls which did not find the tile.
+     */
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    private static CacheKey getKey(Path path, long timeModified, int level,
+            int x, int y, int tileSize) {
+        return sKey.get().set(path, timeModified).setField(0, level)
+                .setField(1, x).setField(2, y).setField(3, tileSize);
+    }
+}
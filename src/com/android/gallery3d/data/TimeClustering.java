@@ -24,9 +24,24 @@ import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.util.GalleryUtils;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// TimeClustering groups the items of a media set into clusters of items taken
+// close in time (and place).
+//
+// The items are kept in a timeline sorted by descending date, stored in
+// primitive arrays. A cluster is a contiguous range of the timeline, found by
+// a greedy pass which starts a new "run" of items whenever the gap to the
+// previous item is too large, and then splits runs which are too long and
+// merges runs which are too short into the previous cluster.
+//
+// The instance is meant to be kept and run() again when the media set
+// changes. Then only the inserted and deleted items are applied to the
+// timeline, and the greedy pass is restarted from the last run start before
+// the first change. It stops as soon as it reaches a run start after the
+// last change which is in the same state as in the previous pass; the
+// clusters after that point are reused as they are.
 public class TimeClustering extends Clustering {
     @SuppressWarnings("unused")
     private static final String TAG = "TimeClustering";
@@ -67,10 +82,20 @@ public class TimeClustering extends Clustering {
     // cluster.
     private static final int PARTITION_CLUSTER_SPLIT_TIME_FACTOR = 2;
 
+    // Recluster from scratch if more than 1/4 of the items changed.
+    private static final int MAX_INCREMENTAL_CHANGE_DIVISOR = 4;
+
+    private static final String MMDDYY_FORMAT = "MMddyy";
+
     private Context mContext;
-    private ArrayList<Cluster> mClusters;
-    private String[] mNames;
-    private Cluster mCurrCluster;
+    private Timeline mTimeline = new Timeline(0);
+    private ClusterList mClusters = new ClusterList(0);
+
+    // The state of the greedy pass: the current run is [mRunStart, mRunEnd)
+    // of mTimeline, and the finished clusters are in mClusters.
+    private int mRunStart;
+    private int mRunEnd;
+    private boolean mRunGeographicallySeparated;
 
     private long mClusterSplitTime =
             (MIN_CLUSTER_SPLIT_TIME_IN_MS + MAX_CLUSTER_SPLIT_TIME_IN_MS) / 2;
@@ -79,223 +104,379 @@ public class TimeClustering extends Clustering {
     private int mMinClusterSize = (MIN_MIN_CLUSTER_SIZE + MAX_MIN_CLUSTER_SIZE) / 2;
     private int mMaxClusterSize = (MIN_MAX_CLUSTER_SIZE + MAX_MAX_CLUSTER_SIZE) / 2;
 
+    // The items of the timeline, in parallel arrays.
+    private static class Timeline {
+        int count;
+        final Path[] paths;
+        final long[] dates;
+        final double[] lats;
+        final double[] lngs;
+        final int[] mediaTypes;
+
+        Timeline(int capacity) {
+            paths = new Path[capacity];
+            dates = new long[capacity];
+            lats = new double[capacity];
+            lngs = new double[capacity];
+            mediaTypes = new int[capacity];
+        }
 
-    private static final Comparator<SmallItem> sDateComparator =
-            new DateComparator();
+        void add(Timeline src, int i) {
+            paths[count] = src.paths[i];
+            dates[count] = src.dates[i];
+            lats[count] = src.lats[i];
+            lngs[count] = src.lngs[i];
+            mediaTypes[count] = src.mediaTypes[i];
+            count++;
+        }
 
-    private static class DateComparator implements Comparator<SmallItem> {
-        @Override
-        public int compare(SmallItem item1, SmallItem item2) {
-            return -Utils.compare(item1.dateInMs, item2.dateInMs);
+        boolean isSameItem(int i, Timeline other, int j) {
+            return paths[i] == other.paths[j]
+                    && dates[i] == other.dates[j]
+                    && lats[i] == other.lats[j]
+                    && lngs[i] == other.lngs[j]
+                    && mediaTypes[i] == other.mediaTypes[j];
+        }
+    }
+
+    // The clusters, in parallel arrays. Cluster i covers the timeline range
+    // [starts[i], starts[i + 1]), where starts[count] is the timeline size.
+    // runStarts[i] tells whether the greedy pass started a run at the start
+    // of cluster i (as opposed to a split of a long run); only those can be
+    // used to restart the pass. A null name means the name and the counts
+    // have not been computed yet.
+    private static class ClusterList {
+        int count;
+        int[] starts;
+        boolean[] runStarts;
+        boolean[] geographicallySeparated;
+        String[] names;
+        int[] photoCounts;
+        int[] videoCounts;
+
+        ClusterList(int capacity) {
+            starts = new int[capacity + 1];
+            runStarts = new boolean[capacity];
+            geographicallySeparated = new boolean[capacity];
+            names = new String[capacity];
+            photoCounts = new int[capacity];
+            videoCounts = new int[capacity];
+        }
+
+        void add(int start, boolean runStart, boolean separated) {
+            ensureCapacity(count + 1);
+            starts[count] = start;
+            runStarts[count] = runStart;
+            geographicallySeparated[count] = separated;
+            names[count] = null;
+            count++;
+        }
+
+        // Copies cluster i of src, whose items have moved by offset.
+        void add(ClusterList src, int i, int offset) {
+            add(src.starts[i] + offset, src.runStarts[i],
+                    src.geographicallySeparated[i]);
+            names[count - 1] = src.names[i];
+            photoCounts[count - 1] = src.photoCounts[i];
+            videoCounts[count - 1] = src.videoCounts[i];
+        }
+
+        int getLastStart() {
+            return starts[count - 1];
+        }
+
+        // Extends the last cluster, so its name needs to be computed again.
+        void invalidateLast() {
+            names[count - 1] = null;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= runStarts.length) return;
+            int n = Math.max(capacity, runStarts.length * 2);
+            starts = Arrays.copyOf(starts, n + 1);
+            runStarts = Arrays.copyOf(runStarts, n);
+            geographicallySeparated = Arrays.copyOf(geographicallySeparated, n);
+            names = Arrays.copyOf(names, n);
+            photoCounts = Arrays.copyOf(photoCounts, n);
+            videoCounts = Arrays.copyOf(videoCounts, n);
         }
     }
 
     public TimeClustering(Context context) {
         mContext = context;
-        mClusters = new ArrayList<Cluster>();
-        mCurrCluster = new Cluster();
     }
 
     @Override
     public void run(MediaSet baseSet) {
         final int total = baseSet.getTotalMediaItemCount();
-        final SmallItem[] buf = new SmallItem[total];
+        final Timeline found = new Timeline(total);
+        final boolean[] valid = new boolean[total];
         final double[] latLng = new double[2];
 
         baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
             @Override
             public void consume(int index, MediaItem item) {
                 if (index < 0 || index >= total) return;
-                SmallItem s = new SmallItem();
-                s.path = item.getPath();
-                s.mediaType = item.getMediaType();
-                s.dateInMs = item.getDateInMs();
+                found.paths[index] = item.getPath();
+                found.dates[index] = item.getDateInMs();
                 item.getLatLong(latLng);
-                s.lat = latLng[0];
-                s.lng = latLng[1];
-                buf[index] = s;
+                found.lats[index] = latLng[0];
+                found.lngs[index] = latLng[1];
+                found.mediaTypes[index] = item.getMediaType();
+                valid[index] = true;
             }
         });
 
-        ArrayList<SmallItem> items = new ArrayList<SmallItem>(total);
+        // Drop the slots which were not enumerated.
         for (int i = 0; i < total; i++) {
-            if (buf[i] != null) {
-                items.add(buf[i]);
+            if (valid[i]) found.add(found, i);
+        }
+        int n = found.count;
+
+        if (mTimeline.count == 0 || !update(found)) {
+            Timeline timeline = new Timeline(n);
+            int[] order = sortByDateDescending(found, null, n);
+            for (int i = 0; i < n; i++) {
+                timeline.add(found, order[i]);
             }
+            mTimeline = timeline;
+            setTimeRange(timeline);
+            reclusterAll();
         }
+    }
 
-        Collections.sort(items, sDateComparator);
+    // Applies the difference between the current timeline and the given
+    // items, and reclusters the affected part. Returns false if too much has
+    // changed and everything should be reclustered from scratch.
+    private boolean update(Timeline found) {
+        Timeline old = mTimeline;
+        IdentityHashMap<Path, Integer> oldIndexes =
+                new IdentityHashMap<Path, Integer>(old.count);
+        for (int i = 0; i < old.count; i++) {
+            oldIndexes.put(old.paths[i], i);
+        }
 
-        int n = items.size();
-        long minTime = 0;
-        long maxTime = 0;
-        for (int i = 0; i < n; i++) {
-            long t = items.get(i).dateInMs;
-            if (t == 0) continue;
-            if (minTime == 0) {
-                minTime = maxTime = t;
+        boolean[] kept = new boolean[old.count];
+        int[] added = new int[found.count];
+        int addedCount = 0;
+        int keptCount = 0;
+        for (int i = 0; i < found.count; i++) {
+            Integer j = oldIndexes.get(found.paths[i]);
+            if (j != null && !kept[j] && old.isSameItem(j, found, i)) {
+                kept[j] = true;
+                keptCount++;
             } else {
-                minTime = Math.min(minTime, t);
-                maxTime = Math.max(maxTime, t);
+                added[addedCount++] = i;
             }
         }
-
-        setTimeRange(maxTime - minTime, n);
-
-        for (int i = 0; i < n; i++) {
-            compute(items.get(i));
+        int deletedCount = old.count - keptCount;
+        if (addedCount == 0 && deletedCount == 0) return true;
+        if ((addedCount + deletedCount) * MAX_INCREMENTAL_CHANGE_DIVISOR > old.count) {
+            return false;
         }
 
-        compute(null);
+        // Merge the kept items with the sorted new items. An item is dirty if
+        // it is new or if the item before it has changed.
+        int[] order = sortByDateDescending(found, added, addedCount);
+        Timeline timeline = new Timeline(keptCount + addedCount);
+        int[] newToOld = new int[keptCount + addedCount];
+        int firstDirty = Integer.MAX_VALUE;
+        int lastDirty = -1;
+        boolean nextIsDirty = false;
+        int i = 0;
+        int a = 0;
+        while (i < old.count || a < addedCount) {
+            if (i < old.count && !kept[i]) {
+                i++;
+                nextIsDirty = true;
+                continue;
+            }
+            int pos = timeline.count;
+            boolean dirty;
+            if (a < addedCount && (i >= old.count
+                    || found.dates[order[a]] > old.dates[i])) {
+                timeline.add(found, order[a++]);
+                newToOld[pos] = -1;
+                dirty = true;
+            } else {
+                timeline.add(old, i);
+                newToOld[pos] = i++;
+                dirty = nextIsDirty;
+            }
+            nextIsDirty = (newToOld[pos] == -1);
+            if (dirty) {
+                firstDirty = Math.min(firstDirty, pos);
+                lastDirty = pos;
+            }
+        }
+        if (nextIsDirty) {
+            // Items were deleted or added at the very end, so the end of the
+            // last run has changed.
+            firstDirty = Math.min(firstDirty, timeline.count);
+            lastDirty = timeline.count;
+        }
+        mTimeline = timeline;
 
-        int m = mClusters.size();
-        mNames = new String[m];
-        for (int i = 0; i < m; i++) {
-            mNames[i] = mClusters.get(i).generateCaption(mContext);
+        if (setTimeRange(timeline)) {
+            // The clustering parameters changed, so all boundaries may move.
+            reclusterAll();
+            return true;
         }
+        recluster(newToOld, mClusters, firstDirty, lastDirty);
+        return true;
     }
 
-    @Override
-    public int getNumberOfClusters() {
-        return mClusters.size();
+    // Runs the greedy pass over the whole timeline.
+    private void reclusterAll() {
+        mClusters = new ClusterList(mClusters.count);
+        if (mTimeline.count > 0) {
+            mRunStart = 0;
+            mRunEnd = 1;
+            mRunGeographicallySeparated = false;
+            runFrom(1, null, null, 0);
+        }
+        finishClusters();
     }
 
-    @Override
-    public ArrayList<Path> getCluster(int index) {
-        ArrayList<SmallItem> items = mClusters.get(index).getItems();
-        ArrayList<Path> result = new ArrayList<Path>(items.size());
-        for (int i = 0, n = items.size(); i < n; i++) {
-            result.add(items.get(i).path);
+    // Runs the greedy pass from the last run start before firstDirty, reusing
+    // the old clusters before it and, once the pass is back in sync, after it.
+    private void recluster(int[] newToOld, ClusterList old, int firstDirty,
+            int lastDirty) {
+        // Items before firstDirty have not moved, so old indexes are valid.
+        int k = old.count - 1;
+        while (k >= 0 && (!old.runStarts[k] || old.starts[k] >= firstDirty)) {
+            k--;
         }
-        return result;
+        ClusterList clusters = new ClusterList(old.count);
+        for (int c = 0; c < k; c++) {
+            clusters.add(old, c, 0);
+        }
+        mClusters = clusters;
+        if (k < 0) {
+            if (mTimeline.count > 0) {
+                mRunStart = 0;
+                mRunEnd = 1;
+                mRunGeographicallySeparated = false;
+                runFrom(1, newToOld, old, lastDirty);
+            }
+        } else {
+            mRunStart = old.starts[k];
+            mRunEnd = mRunStart + 1;
+            mRunGeographicallySeparated = old.geographicallySeparated[k];
+            runFrom(mRunEnd, newToOld, old, lastDirty);
+        }
+        finishClusters();
     }
 
-    @Override
-    public String getClusterName(int index) {
-        return mNames[index];
+    // Feeds the items from index "from" to the greedy pass. If old is not
+    // null, stops and copies the rest of the old clusters as soon as a run
+    // starts in the same state as in the old pass.
+    private void runFrom(int from, int[] newToOld, ClusterList old,
+            int lastDirty) {
+        Timeline t = mTimeline;
+        for (int i = from; i < t.count; i++) {
+            if (addItem(i) && old != null && i > lastDirty
+                    && copyIfInSync(newToOld, old, lastDirty)) {
+                return;
+            }
+        }
+        finishRun();
     }
 
-    private void setTimeRange(long timeRange, int numItems) {
-        if (numItems != 0) {
-            int meanItemsPerCluster = numItems / NUM_CLUSTERS_TARGETED;
-            // Heuristic to get min and max cluster size - half and double the
-            // desired items per cluster.
-            mMinClusterSize = meanItemsPerCluster / 2;
-            mMaxClusterSize = meanItemsPerCluster * 2;
-            mClusterSplitTime = timeRange / numItems * CLUSTER_SPLIT_MULTIPLIER;
+    // Called when a new run has just started at mRunStart. If the old pass
+    // started a run at the same item, with the same previous cluster, the
+    // rest of the old pass applies unchanged: copy its clusters.
+    private boolean copyIfInSync(int[] newToOld, ClusterList old,
+            int lastDirty) {
+        ClusterList clusters = mClusters;
+        int oldStart = newToOld[mRunStart];
+        if (oldStart < 0 || clusters.count == 0) return false;
+        int k = Arrays.binarySearch(old.starts, 0, old.count, oldStart);
+        if (k <= 0 || !old.runStarts[k]
+                || old.geographicallySeparated[k] != mRunGeographicallySeparated) {
+            return false;
         }
-        mClusterSplitTime = Utils.clamp(mClusterSplitTime, MIN_CLUSTER_SPLIT_TIME_IN_MS, MAX_CLUSTER_SPLIT_TIME_IN_MS);
-        mLargeClusterSplitTime = mClusterSplitTime / PARTITION_CLUSTER_SPLIT_TIME_FACTOR;
-        mMinClusterSize = Utils.clamp(mMinClusterSize, MIN_MIN_CLUSTER_SIZE, MAX_MIN_CLUSTER_SIZE);
-        mMaxClusterSize = Utils.clamp(mMaxClusterSize, MIN_MAX_CLUSTER_SIZE, MAX_MAX_CLUSTER_SIZE);
+        // The run start is after the last dirty item, so the previous
+        // cluster is unchanged if it starts after the last dirty item too.
+        int prevStart = clusters.getLastStart();
+        if (prevStart <= lastDirty || newToOld[prevStart] != old.starts[k - 1]) {
+            return false;
+        }
+        int offset = mRunStart - oldStart;
+        for (int c = k; c < old.count; c++) {
+            clusters.add(old, c, offset);
+        }
+        return true;
     }
 
-    @Override
-    public int getClusterImageCount(int index) {
-        // TODO Auto-generated method stub
-        return mClusters.get(index).mPhotoCount;
-
-    }
+    // Returns true if the item started a new run.
+    private boolean addItem(int i) {
+        int prev = mRunEnd - 1;
+        int runSize = mRunEnd - mRunStart;
+        boolean geographicallySeparateItem = false;
+
+        // Determine if this item should go in the current run or be the
+        // start of a new run.
+        if (isGeographicallySeparated(prev, i)) {
+            addRun();
+            geographicallySeparateItem = true;
+        } else if (runSize > mMaxClusterSize) {
+            splitAndAddRun();
+        } else if (timeDistance(prev, i) < mClusterSplitTime) {
+            mRunEnd = i + 1;
+            return false;
+        } else if (mClusters.count > 0 && runSize < mMinClusterSize
+                && !mRunGeographicallySeparated) {
+            mergeAndAddRun();
+        } else {
+            addRun();
+        }
 
-    @Override
-    public int getClusterVideoCount(int index) {
-        // TODO Auto-generated method stub
-        return mClusters.get(index).mVideoCount;
+        mRunStart = i;
+        mRunEnd = i + 1;
+        mRunGeographicallySeparated = geographicallySeparateItem;
+        return true;
     }
 
-    private void compute(SmallItem currentItem) {
-        if (currentItem != null) {
-            int numClusters = mClusters.size();
-            int numCurrClusterItems = mCurrCluster.size();
-            boolean geographicallySeparateItem = false;
-            boolean itemAddedToCurrentCluster = false;
-
-            // Determine if this item should go in the current cluster or be the
-            // start of a new cluster.
-            if (numCurrClusterItems == 0) {
-                mCurrCluster.addItem(currentItem);
-            } else {
-                SmallItem prevItem = mCurrCluster.getLastItem();
-                if (isGeographicallySeparated(prevItem, currentItem)) {
-                    mClusters.add(mCurrCluster);
-                    geographicallySeparateItem = true;
-                } else if (numCurrClusterItems > mMaxClusterSize) {
-                    splitAndAddCurrentCluster();
-                } else if (timeDistance(prevItem, currentItem) < mClusterSplitTime) {
-                    mCurrCluster.addItem(currentItem);
-                    itemAddedToCurrentCluster = true;
-                } else if (numClusters > 0 && numCurrClusterItems < mMinClusterSize
-                        && !mCurrCluster.mGeographicallySeparatedFromPrevCluster) {
-                    mergeAndAddCurrentCluster();
-                } else {
-                    mClusters.add(mCurrCluster);
-                }
-
-                // Creating a new cluster and adding the current item to it.
-                if (!itemAddedToCurrentCluster) {
-                    mCurrCluster = new Cluster();
-                    if (geographicallySeparateItem) {
-                        mCurrCluster.mGeographicallySeparatedFromPrevCluster = true;
-                    }
-                    mCurrCluster.addItem(currentItem);
-                }
-            }
+    private void finishRun() {
+        int runSize = mRunEnd - mRunStart;
+        if (runSize == 0) return;
+        // The last run may potentially be too big or too small.
+        if (runSize > mMaxClusterSize) {
+            splitAndAddRun();
+        } else if (mClusters.count > 0 && runSize < mMinClusterSize
+                && !mRunGeographicallySeparated) {
+            mergeAndAddRun();
         } else {
-            if (mCurrCluster.size() > 0) {
-                int numClusters = mClusters.size();
-                int numCurrClusterItems = mCurrCluster.size();
-
-                // The last cluster may potentially be too big or too small.
-                if (numCurrClusterItems > mMaxClusterSize) {
-                    splitAndAddCurrentCluster();
-                } else if (numClusters > 0 && numCurrClusterItems < mMinClusterSize
-                        && !mCurrCluster.mGeographicallySeparatedFromPrevCluster) {
-                    mergeAndAddCurrentCluster();
-                } else {
-                    mClusters.add(mCurrCluster);
-                }
-                mCurrCluster = new Cluster();
-            }
+            addRun();
         }
+        mRunStart = mRunEnd;
     }
 
-    private void splitAndAddCurrentCluster() {
-        ArrayList<SmallItem> currClusterItems = mCurrCluster.getItems();
-        int numCurrClusterItems = mCurrCluster.size();
-        int secondPartitionStartIndex = getPartitionIndexForCurrentCluster();
-        if (secondPartitionStartIndex != -1) {
-            Cluster partitionedCluster = new Cluster();
-            for (int j = 0; j < secondPartitionStartIndex; j++) {
-                partitionedCluster.addItem(currClusterItems.get(j));
-            }
-            mClusters.add(partitionedCluster);
-            partitionedCluster = new Cluster();
-            for (int j = secondPartitionStartIndex; j < numCurrClusterItems; j++) {
-                partitionedCluster.addItem(currClusterItems.get(j));
-            }
-            mClusters.add(partitionedCluster);
-        } else {
-            mClusters.add(mCurrCluster);
+    private void addRun() {
+        mClusters.add(mRunStart, true, mRunGeographicallySeparated);
+    }
+
+    private void splitAndAddRun() {
+        int partitionIndex = getPartitionIndexForCurrentRun();
+        addRun();
+        if (partitionIndex != -1) {
+            mClusters.add(mRunStart + partitionIndex, false, false);
         }
     }
 
-    private int getPartitionIndexForCurrentCluster() {
+    private int getPartitionIndexForCurrentRun() {
         int partitionIndex = -1;
         float largestChange = MIN_PARTITION_CHANGE_FACTOR;
-        ArrayList<SmallItem> currClusterItems = mCurrCluster.getItems();
-        int numCurrClusterItems = mCurrCluster.size();
+        long[] dates = mTimeline.dates;
+        int runSize = mRunEnd - mRunStart;
         int minClusterSize = mMinClusterSize;
 
-        // Could be slightly more efficient here but this code seems cleaner.
-        if (numCurrClusterItems > minClusterSize + 1) {
-            for (int i = minClusterSize; i < numCurrClusterItems - minClusterSize; i++) {
-                SmallItem prevItem = currClusterItems.get(i - 1);
-                SmallItem currItem = currClusterItems.get(i);
-                SmallItem nextItem = currClusterItems.get(i + 1);
-
-                long timeNext = nextItem.dateInMs;
-                long timeCurr = currItem.dateInMs;
-                long timePrev = prevItem.dateInMs;
+        if (runSize > minClusterSize + 1) {
+            for (int i = minClusterSize; i < runSize - minClusterSize; i++) {
+                long timePrev = dates[mRunStart + i - 1];
+                long timeCurr = dates[mRunStart + i];
+                long timeNext = dates[mRunStart + i + 1];
 
                 if (timeNext == 0 || timeCurr == 0 || timePrev == 0) continue;
 
@@ -304,10 +485,10 @@ public class TimeClustering extends Clustering {
 
                 float change = Math.max(diff1 / (diff2 + 0.01f), diff2 / (diff1 + 0.01f));
                 if (change > largestChange) {
-                    if (timeDistance(currItem, prevItem) > mLargeClusterSplitTime) {
+                    if (diff2 > mLargeClusterSplitTime) {
                         partitionIndex = i;
                         largestChange = change;
-                    } else if (timeDistance(nextItem, currItem) > mLargeClusterSplitTime) {
+                    } else if (diff1 > mLargeClusterSplitTime) {
                         partitionIndex = i + 1;
                         largestChange = change;
                     }
@@ -317,101 +498,170 @@ public class TimeClustering extends Clustering {
         return partitionIndex;
     }
 
-    private void mergeAndAddCurrentCluster() {
-        int numClusters = mClusters.size();
-        Cluster prevCluster = mClusters.get(numClusters - 1);
-        ArrayList<SmallItem> currClusterItems = mCurrCluster.getItems();
-        int numCurrClusterItems = mCurrCluster.size();
-        if (prevCluster.size() < mMinClusterSize) {
-            for (int i = 0; i < numCurrClusterItems; i++) {
-                prevCluster.addItem(currClusterItems.get(i));
-            }
-            mClusters.set(numClusters - 1, prevCluster);
+    private void mergeAndAddRun() {
+        // The previous cluster ends where the current run starts.
+        if (mRunStart - mClusters.getLastStart() < mMinClusterSize) {
+            mClusters.invalidateLast();
         } else {
-            mClusters.add(mCurrCluster);
+            addRun();
         }
     }
 
-    // Returns true if a, b are sufficiently geographically separated.
-    private static boolean isGeographicallySeparated(SmallItem itemA, SmallItem itemB) {
-        if (!GalleryUtils.isValidLocation(itemA.lat, itemA.lng)
-                || !GalleryUtils.isValidLocation(itemB.lat, itemB.lng)) {
-            return false;
+    // Computes the names and counts of the new and changed clusters.
+    private void finishClusters() {
+        ClusterList clusters = mClusters;
+        Timeline t = mTimeline;
+        clusters.starts[clusters.count] = t.count;
+        for (int c = 0; c < clusters.count; c++) {
+            if (clusters.names[c] != null) continue;
+            int photoCount = 0;
+            int videoCount = 0;
+            long minTimestamp = 0;
+            long maxTimestamp = 0;
+            for (int i = clusters.starts[c], n = clusters.starts[c + 1]; i < n; i++) {
+                int mediaType = t.mediaTypes[i];
+                if (mediaType == MediaObject.MEDIA_TYPE_IMAGE) {
+                    photoCount++;
+                } else if (mediaType == MediaObject.MEDIA_TYPE_VIDEO) {
+                    videoCount++;
+                }
+                long time = t.dates[i];
+                if (time == 0) continue;
+                if (minTimestamp == 0) {
+                    minTimestamp = maxTimestamp = time;
+                } else {
+                    minTimestamp = Math.min(minTimestamp, time);
+                    maxTimestamp = Math.max(maxTimestamp, time);
+                }
+            }
+            clusters.photoCounts[c] = photoCount;
+            clusters.videoCounts[c] = videoCount;
+            clusters.names[c] = generateCaption(mContext, minTimestamp, maxTimestamp);
         }
+    }
 
-        double distance = GalleryUtils.fastDistanceMeters(
-            Math.toRadians(itemA.lat),
-            Math.toRadians(itemA.lng),
-            Math.toRadians(itemB.lat),
-            Math.toRadians(itemB.lng));
-        return (GalleryUtils.toMile(distance) > GEOGRAPHIC_DISTANCE_CUTOFF_IN_MILES);
+    @Override
+    public int getNumberOfClusters() {
+        return mClusters.count;
     }
 
-    // Returns the time interval between the two items in milliseconds.
-    private static long timeDistance(SmallItem a, SmallItem b) {
-        return Math.abs(a.dateInMs - b.dateInMs);
+    @Override
+    public ArrayList<Path> getCluster(int index) {
+        int start = mClusters.starts[index];
+        int end = mClusters.starts[index + 1];
+        ArrayList<Path> result = new ArrayList<Path>(end - start);
+        for (int i = start; i < end; i++) {
+            result.add(mTimeline.paths[i]);
+        }
+        return result;
     }
-}
 
-class SmallItem {
-    Path path;
-    long dateInMs;
-    double lat, lng;
-    int mediaType;
-}
+    @Override
+    public String getClusterName(int index) {
+        return mClusters.names[index];
+    }
 
-class Cluster {
-    @SuppressWarnings("unused")
-    private static final String TAG = "Cluster";
-    private static final String MMDDYY_FORMAT = "MMddyy";
-    public int mPhotoCount = 0;
-    public int mVideoCount = 0;
+    @Override
+    public int getClusterImageCount(int index) {
+        return mClusters.photoCounts[index];
+    }
 
-    // This is for TimeClustering only.
-    public boolean mGeographicallySeparatedFromPrevCluster = false;
+    @Override
+    public int getClusterVideoCount(int index) {
+        return mClusters.videoCounts[index];
+    }
 
-    private ArrayList<SmallItem> mItems = new ArrayList<SmallItem>();
+    // Sets the clustering parameters for the given timeline. Returns true if
+    // any of them changed.
+    private boolean setTimeRange(Timeline timeline) {
+        long minTime = 0;
+        long maxTime = 0;
+        for (int i = 0, n = timeline.count; i < n; i++) {
+            long t = timeline.dates[i];
+            if (t == 0) continue;
+            if (minTime == 0) {
+                minTime = maxTime = t;
+            } else {
+                minTime = Math.min(minTime, t);
+                maxTime = Math.max(maxTime, t);
+            }
+        }
 
-    public Cluster() {
+        long clusterSplitTime = mClusterSplitTime;
+        int minClusterSize = mMinClusterSize;
+        int maxClusterSize = mMaxClusterSize;
+        setTimeRange(maxTime - minTime, timeline.count);
+        return clusterSplitTime != mClusterSplitTime
+                || minClusterSize != mMinClusterSize
+                || maxClusterSize != mMaxClusterSize;
     }
 
-    public void addItem(SmallItem item) {
-        if(item.mediaType == MediaObject.MEDIA_TYPE_IMAGE) {
-            mPhotoCount++;
-        } else if(item.mediaType == MediaObject.MEDIA_TYPE_VIDEO) {
-           mVideoCount++;
+    private void setTimeRange(long timeRange, int numItems) {
+        if (numItems != 0) {
+            int meanItemsPerCluster = numItems / NUM_CLUSTERS_TARGETED;
+            // Heuristic to get min and max cluster size - half and double the
+            // desired items per cluster.
+            mMinClusterSize = meanItemsPerCluster / 2;
+            mMaxClusterSize = meanItemsPerCluster * 2;
+            mClusterSplitTime = timeRange / numItems * CLUSTER_SPLIT_MULTIPLIER;
         }
-        mItems.add(item);
+        mClusterSplitTime = Utils.clamp(mClusterSplitTime, MIN_CLUSTER_SPLIT_TIME_IN_MS, MAX_CLUSTER_SPLIT_TIME_IN_MS);
+        mLargeClusterSplitTime = mClusterSplitTime / PARTITION_CLUSTER_SPLIT_TIME_FACTOR;
+        mMinClusterSize = Utils.clamp(mMinClusterSize, MIN_MIN_CLUSTER_SIZE, MAX_MIN_CLUSTER_SIZE);
+        mMaxClusterSize = Utils.clamp(mMaxClusterSize, MIN_MAX_CLUSTER_SIZE, MAX_MAX_CLUSTER_SIZE);
     }
 
-    public int size() {
-        return mItems.size();
+    // Returns the indexes of the items (all of them if indexes is null, else
+    // the first count of indexes) sorted by descending date. The sort is
+    // stable.
+    private static int[] sortByDateDescending(Timeline items, int[] indexes, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (indexes == null) ? i : indexes[i];
+        }
+        int[] temp = new int[count];
+        long[] dates = items.dates;
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    temp[k++] = (dates[order[j]] > dates[order[i]])
+                            ? order[j++] : order[i++];
+                }
+                while (i < mid) temp[k++] = order[i++];
+                while (j < hi) temp[k++] = order[j++];
+                System.arraycopy(temp, lo, order, lo, hi - lo);
+            }
+        }
+        return order;
     }
 
-    public SmallItem getLastItem() {
-        int n = mItems.size();
-        return (n == 0) ? null : mItems.get(n - 1);
-    }
+    // Returns true if items a, b are sufficiently geographically separated.
+    private boolean isGeographicallySeparated(int a, int b) {
+        double[] lats = mTimeline.lats;
+        double[] lngs = mTimeline.lngs;
+        if (!GalleryUtils.isValidLocation(lats[a], lngs[a])
+                || !GalleryUtils.isValidLocation(lats[b], lngs[b])) {
+            return false;
+        }
 
-    public ArrayList<SmallItem> getItems() {
-        return mItems;
+        double distance = GalleryUtils.fastDistanceMeters(
+            Math.toRadians(lats[a]),
+            Math.toRadians(lngs[a]),
+            Math.toRadians(lats[b]),
+            Math.toRadians(lngs[b]));
+        return (GalleryUtils.toMile(distance) > GEOGRAPHIC_DISTANCE_CUTOFF_IN_MILES);
     }
 
-    public String generateCaption(Context context) {
-        int n = mItems.size();
-        long minTimestamp = 0;
-        long maxTimestamp = 0;
+    // Returns the time interval between the two items in milliseconds.
+    private long timeDistance(int a, int b) {
+        return Math.abs(mTimeline.dates[a] - mTimeline.dates[b]);
+    }
 
-        for (int i = 0; i < n; i++) {
-            long t = mItems.get(i).dateInMs;
-            if (t == 0) continue;
-            if (minTimestamp == 0) {
-                minTimestamp = maxTimestamp = t;
-            } else {
-                minTimestamp = Math.min(minTimestamp, t);
-                maxTimestamp = Math.max(maxTimestamp, t);
-            }
-        }
+    private static String generateCaption(Context context, long minTimestamp,
+            long maxTimestamp) {
         if (minTimestamp == 0) return "";
 
         String caption;
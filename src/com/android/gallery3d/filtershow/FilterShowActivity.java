@@ -1021,20 +1021,20 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
         }
     }
 
-    private class ParseMpoDataTask extends AsyncTask<Void, Void, byte[]> {
+    private class ParseMpoDataTask extends AsyncTask<Void, Void, MpoParser> {
         @Override
         protected void onPreExecute() {
             MasterImage.getImage().setDepthMapLoadingStatus(DdmStatus.DDM_PARSING);
         }
 
         @Override
-        protected byte[] doInBackground(Void... params) {
+        protected MpoParser doInBackground(Void... params) {
             MpoParser parser = MpoParser.parse(FilterShowActivity.this, MasterImage.getImage().getUri());
-            return parser.readImgData(false);
+            return parser.hasImgData(false) ? parser : null;
         }
 
         @Override
-        protected void onPostExecute(byte[] result) {
+        protected void onPostExecute(MpoParser result) {
             if(result == null) {
                 // parse failed
                 MasterImage.getImage().setDepthMapLoadingStatus(DdmStatus.DDM_FAILED);
@@ -1051,14 +1051,14 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
         }
     }
 
-    private class LoadMpoDataTask extends AsyncTask<byte[], Void, Boolean> {
+    private class LoadMpoDataTask extends AsyncTask<MpoParser, Void, Boolean> {
         @Override
         protected void onPreExecute() {
             MasterImage.getImage().setDepthMapLoadingStatus(DdmStatus.DDM_LOADING);
         }
 
         @Override
-        protected Boolean doInBackground(byte[]... params) {
+        protected Boolean doInBackground(MpoParser... params) {
             return MasterImage.getImage().loadMpo(params[0]);
         }
 
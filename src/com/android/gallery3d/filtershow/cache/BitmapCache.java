@@ -23,6 +23,7 @@ import android.util.Log;
 
 import com.android.gallery3d.filtershow.pipeline.Buffer;
 import com.android.gallery3d.filtershow.pipeline.CacheProcessing;
+import com.android.photos.data.GalleryBitmapPool;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -191,9 +192,15 @@ public class BitmapCache {
         if (bitmap == null
                 || bitmap.getWidth() != w
                 || bitmap.getHeight() != h) {
-            bitmap = Bitmap.createBitmap(
-                    w, h, Bitmap.Config.ARGB_8888);
-            showBitmapCounts();
+            // Fall back to the gallery-wide pool before allocating.
+            bitmap = GalleryBitmapPool.getInstance().get(w, h);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(
+                        w, h, Bitmap.Config.ARGB_8888);
+                showBitmapCounts();
+            } else {
+                bitmap.eraseColor(0);
+            }
         }
 
         if (DEBUG) {
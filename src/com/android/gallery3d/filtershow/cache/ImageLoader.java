@@ -64,6 +64,7 @@ public final class ImageLoader {
     public static final int ORI_TRANSPOSE = ExifInterface.Orientation.LEFT_TOP;
     public static final int ORI_TRANSVERSE = ExifInterface.Orientation.LEFT_BOTTOM;
 
+    private static final int[] ORIENTATION_TAGS = { ExifInterface.TAG_ORIENTATION };
     private static final int BITMAP_LOAD_BACKOUT_ATTEMPTS = 5;
     private static final float OVERDRAW_ZOOM = 1.2f;
     private ImageLoader() {}
@@ -139,10 +140,10 @@ public final class ImageLoader {
                     return ORI_NORMAL;
                 }
                 String path = uri.getPath();
-                exif.readExif(path);
+                exif.readExif(path, ORIENTATION_TAGS);
             } else {
                 is = context.getContentResolver().openInputStream(uri);
-                exif.readExif(is);
+                exif.readExif(is, ORIENTATION_TAGS);
             }
             return parseExif(exif);
         } catch (IOException e) {
@@ -435,6 +436,15 @@ public final class ImageLoader {
         return loadRegionBitmap(context, cache, uri, options, bounds);
     }
 
+    /**
+     * Returns whether getScaleOneImageForPreset() subsamples the bounds to fit
+     * them to the destination.
+     */
+    public static boolean isSubsampledRegion(Rect bounds, Rect destination) {
+        return destination != null
+                && bounds.width() > (int) (destination.width() * OVERDRAW_ZOOM);
+    }
+
     /**
      * Loads a bitmap that is downsampled by at least the input sample size. In
      * low-memory situations, the bitmap may be downsampled further.
@@ -74,6 +74,7 @@ public class FilterChanSatRepresentation extends FilterRepresentation implements
         setFilterClass(ImageFilterChanSat.class);
         setEditorId(EditorChanSat.ID);
         setSupportsPartialRendering(true);
+        setBandOverlap(0);
     }
 
     public String toString() {
@@ -29,6 +29,8 @@ public class FilterCurvesRepresentation extends FilterRepresentation {
         setEditorId(R.id.imageCurves);
         setShowParameterValue(false);
         setSupportsPartialRendering(true);
+        setBandOverlap(0);
+        setPerChannel(true);
         reset();
     }
 
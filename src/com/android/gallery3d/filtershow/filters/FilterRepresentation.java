@@ -32,6 +32,14 @@ public class FilterRepresentation {
     private int mPriority = TYPE_NORMAL;
     private Class<?> mFilterClass;
     private boolean mSupportsPartialRendering = false;
+    // Rows around a band of the image which the filter reads to render the
+    // band, or -1 if it needs the whole image. The rows are only added around
+    // the bands the image is saved or rendered in, not around the stripes of
+    // a RowFilter, which is why only filters with no overlap implement it.
+    private int mBandOverlap = -1;
+    // Whether each color channel of the output only depends on the same
+    // channel of the input pixel, so that the filter is a table per channel.
+    private boolean mIsPerChannel = false;
     private int mTextId = 0;
     private int mEditorId = BasicEditor.ID;
     private int mButtonId = 0;
@@ -66,6 +74,8 @@ public class FilterRepresentation {
         representation.setFilterClass(getFilterClass());
         representation.setFilterType(getFilterType());
         representation.setSupportsPartialRendering(supportsPartialRendering());
+        representation.setBandOverlap(getBandOverlap());
+        representation.setPerChannel(isPerChannel());
         representation.setTextId(getTextId());
         representation.setEditorId(getEditorId());
         representation.setOverlayId(getOverlayId());
@@ -146,6 +156,22 @@ public class FilterRepresentation {
         mSupportsPartialRendering = value;
     }
 
+    public int getBandOverlap() {
+        return mBandOverlap;
+    }
+
+    public void setBandOverlap(int rows) {
+        mBandOverlap = rows;
+    }
+
+    public boolean isPerChannel() {
+        return mIsPerChannel;
+    }
+
+    public void setPerChannel(boolean value) {
+        mIsPerChannel = value;
+    }
+
     public void useParametersFrom(FilterRepresentation a) {
     }
 
@@ -80,7 +80,7 @@ public abstract class ImageFilter implements Cloneable {
 
     public abstract void useRepresentation(FilterRepresentation representation);
 
-    native protected void nativeApplyGradientFilter(Bitmap bitmap, int w, int h,
+    native protected void nativeApplyGradientFilter(Bitmap bitmap, int w, int top, int bottom,
             int[] redGradient, int[] greenGradient, int[] blueGradient);
 
     public FilterRepresentation getDefaultRepresentation() {
@@ -17,12 +17,13 @@
 package com.android.gallery3d.filtershow.filters;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
 
 
-public class ImageFilterBwFilter extends SimpleImageFilter {
+public class ImageFilterBwFilter extends SimpleImageFilter implements RowFilter {
     private static final String SERIALIZATION_NAME = "BWFILTER";
 
     public ImageFilterBwFilter() {
@@ -39,26 +40,35 @@ public class ImageFilterBwFilter extends SimpleImageFilter {
         representation.setMinimum(-180);
         representation.setTextId(R.string.bwfilter);
         representation.setSupportsPartialRendering(true);
+        representation.setBandOverlap(0);
         return representation;
     }
 
-    native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, int r, int g, int b);
+    private int mRed;
+    private int mGreen;
+    private int mBlue;
+
+    native protected void nativeApplyFilter(Bitmap bitmap, int w, int top, int bottom,
+            int r, int g, int b);
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
             return bitmap;
         }
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
         float[] hsv = new float[] {
                 180 + getParameters().getValue(), 1, 1
         };
         int rgb = Color.HSVToColor(hsv);
-        int r = 0xFF & (rgb >> 16);
-        int g = 0xFF & (rgb >> 8);
-        int b = 0xFF & (rgb >> 0);
-        nativeApplyFilter(bitmap, w, h, r, g, b);
+        mRed = 0xFF & (rgb >> 16);
+        mGreen = 0xFF & (rgb >> 8);
+        mBlue = 0xFF & (rgb >> 0);
+        StripeScheduler.apply(this, bitmap);
         return bitmap;
     }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyFilter(bitmap, bitmap.getWidth(), top, bottom, mRed, mGreen, mBlue);
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.filters;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
+
+// Applies a run of per-channel filters (see FilterRepresentation.isPerChannel())
+// in a single pass over the bitmap. The run is first applied to a 256 pixel
+// gray ramp, which gives for each channel the table mapping an input value to
+// the output of the whole run; the tables are then applied to the bitmap.
+// As the filters work on 8 bit values, the result is the same as applying
+// them one after the other.
+public class ImageFilterChannelLut extends ImageFilter implements RowFilter {
+    private static final int TABLE_SIZE = 256;
+
+    private final int[] mRed = new int[TABLE_SIZE];
+    private final int[] mGreen = new int[TABLE_SIZE];
+    private final int[] mBlue = new int[TABLE_SIZE];
+    private final int[] mPixels = new int[TABLE_SIZE];
+    private Bitmap mRamp;
+
+    public ImageFilterChannelLut() {
+        mName = "ChannelLut";
+    }
+
+    @Override
+    public void useRepresentation(FilterRepresentation representation) {
+    }
+
+    // Returns the ramp to render the run of filters to. The ramp is kept by
+    // the filter and reset to gray on each call.
+    public Bitmap resetRamp() {
+        if (mRamp == null) {
+            mRamp = Bitmap.createBitmap(TABLE_SIZE, 1, Bitmap.Config.ARGB_8888);
+        }
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            mPixels[i] = Color.argb(255, i, i, i);
+        }
+        mRamp.setPixels(mPixels, 0, TABLE_SIZE, 0, 0, TABLE_SIZE, 1);
+        return mRamp;
+    }
+
+    // Reads the tables from the ramp the run of filters was rendered to.
+    public void setTables(Bitmap ramp) {
+        ramp.getPixels(mPixels, 0, TABLE_SIZE, 0, 0, TABLE_SIZE, 1);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            mRed[i] = Color.red(mPixels[i]);
+            mGreen[i] = Color.green(mPixels[i]);
+            mBlue[i] = Color.blue(mPixels[i]);
+        }
+    }
+
+    @Override
+    public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
+        StripeScheduler.apply(this, bitmap);
+        return bitmap;
+    }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyGradientFilter(bitmap, bitmap.getWidth(), top, bottom,
+                mRed, mGreen, mBlue);
+    }
+}
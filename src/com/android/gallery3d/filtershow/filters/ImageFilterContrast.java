@@ -17,10 +17,11 @@
 package com.android.gallery3d.filtershow.filters;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterContrast extends SimpleImageFilter {
+public class ImageFilterContrast extends SimpleImageFilter implements RowFilter {
     private static final String SERIALIZATION_NAME = "CONTRAST";
 
     public ImageFilterContrast() {
@@ -39,20 +40,28 @@ public class ImageFilterContrast extends SimpleImageFilter {
         representation.setMaximum(100);
         representation.setDefaultValue(0);
         representation.setSupportsPartialRendering(true);
+        representation.setBandOverlap(0);
+        representation.setPerChannel(true);
         return representation;
     }
 
-    native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float strength);
+    private float mValue;
+
+    native protected void nativeApplyFilter(Bitmap bitmap, int w, int top, int bottom,
+            float strength);
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
             return bitmap;
         }
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
-        float value = getParameters().getValue();
-        nativeApplyFilter(bitmap, w, h, value);
+        mValue = getParameters().getValue();
+        StripeScheduler.apply(this, bitmap);
         return bitmap;
     }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyFilter(bitmap, bitmap.getWidth(), top, bottom, mValue);
+    }
 }
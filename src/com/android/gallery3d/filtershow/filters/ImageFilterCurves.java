@@ -19,11 +19,16 @@ package com.android.gallery3d.filtershow.filters;
 import android.graphics.Bitmap;
 
 import com.android.gallery3d.filtershow.imageshow.Spline;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
-public class ImageFilterCurves extends ImageFilter {
+public class ImageFilterCurves extends ImageFilter implements RowFilter {
 
     private static final String LOGTAG = "ImageFilterCurves";
     FilterCurvesRepresentation mParameters = new FilterCurvesRepresentation();
+    // The tables of the pass being applied, null for the channels it leaves.
+    private int[] mRedGradient;
+    private int[] mGreenGradient;
+    private int[] mBlueGradient;
 
     @Override
     public FilterRepresentation getDefaultRepresentation() {
@@ -57,8 +62,10 @@ public class ImageFilterCurves extends ImageFilter {
         if (!mParameters.getSpline(Spline.RGB).isOriginal()) {
             int[] rgbGradient = new int[256];
             populateArray(rgbGradient, Spline.RGB);
-            nativeApplyGradientFilter(bitmap, bitmap.getWidth(), bitmap.getHeight(),
-                    rgbGradient, rgbGradient, rgbGradient);
+            mRedGradient = rgbGradient;
+            mGreenGradient = rgbGradient;
+            mBlueGradient = rgbGradient;
+            StripeScheduler.apply(this, bitmap);
         }
 
         int[] redGradient = null;
@@ -77,11 +84,19 @@ public class ImageFilterCurves extends ImageFilter {
             populateArray(blueGradient, Spline.BLUE);
         }
 
-        nativeApplyGradientFilter(bitmap, bitmap.getWidth(), bitmap.getHeight(),
-                redGradient, greenGradient, blueGradient);
+        mRedGradient = redGradient;
+        mGreenGradient = greenGradient;
+        mBlueGradient = blueGradient;
+        StripeScheduler.apply(this, bitmap);
         return bitmap;
     }
 
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyGradientFilter(bitmap, bitmap.getWidth(), top, bottom,
+                mRedGradient, mGreenGradient, mBlueGradient);
+    }
+
     public void setSpline(Spline spline, int splineIndex) {
         mParameters.setSpline(splineIndex, new Spline(spline));
     }
@@ -19,8 +19,9 @@ package com.android.gallery3d.filtershow.filters;
 import android.graphics.Bitmap;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
-public class ImageFilterHighlights extends SimpleImageFilter {
+public class ImageFilterHighlights extends SimpleImageFilter implements RowFilter {
     private static final String SERIALIZATION_NAME = "HIGHLIGHTS";
     private static final String LOGTAG = "ImageFilterVignette";
 
@@ -42,10 +43,14 @@ public class ImageFilterHighlights extends SimpleImageFilter {
         representation.setMaximum(100);
         representation.setDefaultValue(0);
         representation.setSupportsPartialRendering(true);
+        representation.setBandOverlap(0);
         return representation;
     }
 
-    native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float[] luminanceMap);
+    private float[] mLuminanceMap;
+
+    native protected void nativeApplyFilter(Bitmap bitmap, int w, int top, int bottom,
+            float[] luminanceMap);
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
@@ -65,10 +70,14 @@ public class ImageFilterHighlights extends SimpleImageFilter {
         for (int i = 0; i < luminanceMap.length; i++) {
             luminanceMap[i] = curve[i][1];
         }
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
+        mLuminanceMap = luminanceMap;
 
-        nativeApplyFilter(bitmap, w, h, luminanceMap);
+        StripeScheduler.apply(this, bitmap);
         return bitmap;
     }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyFilter(bitmap, bitmap.getWidth(), top, bottom, mLuminanceMap);
+    }
 }
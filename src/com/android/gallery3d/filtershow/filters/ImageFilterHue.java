@@ -18,10 +18,11 @@ package com.android.gallery3d.filtershow.filters;
 
 import com.android.gallery3d.R;
 import com.android.gallery3d.filtershow.editors.BasicEditor;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterHue extends SimpleImageFilter {
+public class ImageFilterHue extends SimpleImageFilter implements RowFilter {
     private static final String SERIALIZATION_NAME = "HUE";
     private ColorSpaceMatrix cmatrix = null;
 
@@ -41,24 +42,29 @@ public class ImageFilterHue extends SimpleImageFilter {
         representation.setTextId(R.string.hue);
         representation.setEditorId(BasicEditor.ID);
         representation.setSupportsPartialRendering(true);
+        representation.setBandOverlap(0);
         return representation;
     }
 
-    native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float []matrix);
+    native protected void nativeApplyFilter(Bitmap bitmap, int w, int top, int bottom,
+            float []matrix);
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
             return bitmap;
         }
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
         float value = getParameters().getValue();
         cmatrix.identity();
         cmatrix.setHue(value);
 
-        nativeApplyFilter(bitmap, w, h, cmatrix.getMatrix());
+        StripeScheduler.apply(this, bitmap);
 
         return bitmap;
     }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyFilter(bitmap, bitmap.getWidth(), top, bottom, cmatrix.getMatrix());
+    }
 }
@@ -4,8 +4,9 @@ import android.graphics.Bitmap;
 
 import com.android.gallery3d.R;
 import com.android.gallery3d.filtershow.editors.ImageOnlyEditor;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
-public class ImageFilterNegative extends ImageFilter {
+public class ImageFilterNegative extends ImageFilter implements RowFilter {
     private static final String SERIALIZATION_NAME = "NEGATIVE";
     public ImageFilterNegative() {
         mName = "Negative";
@@ -19,11 +20,13 @@ public class ImageFilterNegative extends ImageFilter {
         representation.setShowParameterValue(false);
         representation.setEditorId(ImageOnlyEditor.ID);
         representation.setSupportsPartialRendering(true);
+        representation.setBandOverlap(0);
+        representation.setPerChannel(true);
         representation.setIsBooleanFilter(true);
         return representation;
     }
 
-    native protected void nativeApplyFilter(Bitmap bitmap, int w, int h);
+    native protected void nativeApplyFilter(Bitmap bitmap, int w, int top, int bottom);
 
     @Override
     public void useRepresentation(FilterRepresentation representation) {
@@ -32,9 +35,12 @@ public class ImageFilterNegative extends ImageFilter {
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
-        nativeApplyFilter(bitmap, w, h);
+        StripeScheduler.apply(this, bitmap);
         return bitmap;
     }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyFilter(bitmap, bitmap.getWidth(), top, bottom);
+    }
 }
@@ -17,10 +17,11 @@
 package com.android.gallery3d.filtershow.filters;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.filtershow.pipeline.StripeScheduler;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterShadows extends SimpleImageFilter {
+public class ImageFilterShadows extends SimpleImageFilter implements RowFilter {
     private static final String SERIALIZATION_NAME = "SHADOWS";
     public ImageFilterShadows() {
         mName = "Shadows";
@@ -38,21 +39,28 @@ public class ImageFilterShadows extends SimpleImageFilter {
         representation.setMaximum(100);
         representation.setDefaultValue(0);
         representation.setSupportsPartialRendering(true);
+        representation.setBandOverlap(0);
         return representation;
     }
 
-    native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float  factor);
+    private float mValue;
+
+    native protected void nativeApplyFilter(Bitmap bitmap, int w, int top, int bottom,
+            float  factor);
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
             return bitmap;
         }
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
-        float p = getParameters().getValue();
+        mValue = getParameters().getValue();
 
-        nativeApplyFilter(bitmap, w, h, p);
+        StripeScheduler.apply(this, bitmap);
         return bitmap;
     }
+
+    @Override
+    public void applyRows(Bitmap bitmap, int top, int bottom) {
+        nativeApplyFilter(bitmap, bitmap.getWidth(), top, bottom, mValue);
+    }
 }
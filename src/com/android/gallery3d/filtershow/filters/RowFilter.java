@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.filters;
+
+import android.graphics.Bitmap;
+
+// A filter which can filter any range of rows of a bitmap on its own, so that
+// StripeScheduler can split it in stripes filtered on all the cores. The
+// filters set up their parameters in apply() and then call
+// StripeScheduler.apply() with themselves.
+//
+// The stripes are filtered in place and get no halo rows around them: a
+// stripe bordering another one would read rows the other stripe may already
+// have filtered. So only the filters where each output pixel depends on the
+// same input pixel implement this. The filters reading neighbouring pixels,
+// like edge and sharpen, filter the whole bitmap in apply().
+public interface RowFilter {
+    // Filters the rows [top, bottom) of the bitmap in place, with the
+    // parameters set up by the apply() running it.
+    public void applyRows(Bitmap bitmap, int top, int bottom);
+}
@@ -323,7 +323,9 @@ public class ImageShow extends View implements OnGestureListener,
             drawImageAndAnimate(canvas, highresPreview);
         }
 
-//        drawHighresImage(canvas, fullHighres);
+        if (!isDoingNewLookAnimation) {
+            drawHighresImage(canvas, fullHighres);
+        }
         //drawCompareImage(canvas, getGeometryOnlyImage());
 
         canvas.restore();
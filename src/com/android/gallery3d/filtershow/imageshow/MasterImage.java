@@ -23,7 +23,6 @@ import android.animation.Animator;
 import android.animation.ValueAnimator;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Point;
@@ -93,6 +92,11 @@ public class MasterImage implements RenderingRequestCaller {
     private Bitmap mPreviousImage = null;
     private int mShadowMargin = 15; // not scaled, fixed in the asset
     private Rect mPartialBounds = new Rect();
+    // Whether the view is zoomed enough to be covered by a region of the
+    // original rendered at full resolution, which makes the high-res preview
+    // of the whole image useless.
+    private boolean mRegionCoversView = false;
+    private boolean mHighresSkipped = false;
 
     private Bitmap mFusionUnderlay = null;
     private Rect mImageBounds = null;
@@ -743,6 +747,12 @@ public class MasterImage implements RenderingRequestCaller {
         if (mPreset == null) {
             return;
         }
+        if (mRegionCoversView && mPreset.canDoPartialRendering()) {
+            mHighresSkipped = true;
+            invalidateHighresPreview();
+            return;
+        }
+        mHighresSkipped = false;
         mActivity.getProcessingService().postHighresRenderingRequest(mPreset,
                 getScaleFactor(), this);
         invalidateHighresPreview();
@@ -768,10 +778,19 @@ public class MasterImage implements RenderingRequestCaller {
         screenToOriginal.mapRect(bounds);
         Rect rBounds = new Rect();
         bounds.roundOut(rBounds);
+        Rect destination = new Rect(0, 0, mImageShowSize.x, mImageShowSize.y);
+
+        Rect visible = new Rect(rBounds);
+        mRegionCoversView = mPreset.getFiltersOverlap() >= 0
+                && visible.intersect(getOriginalBounds())
+                && !ImageLoader.isSubsampledRegion(visible, destination);
+        if (!mRegionCoversView && mHighresSkipped) {
+            // Zoomed out of the region, the whole image is needed again.
+            needsUpdateHighResPreview();
+        }
 
         mActivity.getProcessingService().postFullresRenderingRequest(mPreset,
-                getScaleFactor(), rBounds,
-                new Rect(0, 0, mImageShowSize.x, mImageShowSize.y), this);
+                getScaleFactor(), rBounds, destination, this);
         invalidatePartialPreview();
     }
 
@@ -922,10 +941,10 @@ public class MasterImage implements RenderingRequestCaller {
         return mPreset.contains(FilterRepresentation.TYPE_TINYPLANET);
     }
 
-    public boolean loadMpo(byte[] auxiliaryMpoData) {
+    public boolean loadMpo(MpoParser parser) {
         boolean loaded = false;
 
-        if(auxiliaryMpoData != null) {
+        if(parser != null) {
             Bitmap primaryBm = ImageLoader.loadBitmap(getActivity(), getUri(), null);
 
             if(primaryBm == null) {
@@ -935,7 +954,7 @@ public class MasterImage implements RenderingRequestCaller {
             // check for pre-generated dm file
             String mpoFilepath = ImageLoader.getLocalPathFromUri(getActivity(), getUri());
             // read auxiliary image and generate depth map.
-            Bitmap auxiliaryBm = BitmapFactory.decodeByteArray(auxiliaryMpoData, 0, auxiliaryMpoData.length);
+            Bitmap auxiliaryBm = parser.decodeImg(false, null);
 
             if(auxiliaryBm == null) {
                 primaryBm.recycle();
@@ -23,6 +23,7 @@ import com.android.gallery3d.filtershow.cache.BitmapCache;
 import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.imageshow.GeometryMathUtils;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Vector;
 
@@ -30,11 +31,15 @@ public class CacheProcessing {
     private static final String LOGTAG = "CacheProcessing";
     private static final boolean DEBUG = false;
     private static final boolean NO_CACHING = false;
-    private Vector<CacheStep> mSteps = new Vector<CacheStep>();
+
+    // Memory budget of the step cache.
+    private static final long STEP_CACHE_MAX_BYTES = CachingPipeline.RENDER_CACHES_MAX_BYTES / 2;
+
+    // The results of the filter chain prefixes, shared by all the pipelines.
+    private static final StepCache sStepCache = new StepCache(STEP_CACHE_MAX_BYTES);
 
     static class CacheStep {
         ArrayList<FilterRepresentation> representations;
-        Bitmap cache;
 
         public CacheStep() {
             representations = new ArrayList<FilterRepresentation>();
@@ -142,58 +147,12 @@ public class CacheProcessing {
             displayFilters(filters);
         }
         Vector<CacheStep> steps = CacheStep.buildSteps(filters);
-        // New set of filters, let's clear the cache and rebuild it.
-        if (steps.size() != mSteps.size()) {
-            mSteps = steps;
-        }
-
-        if (DEBUG) {
-            displaySteps(mSteps);
-        }
-
-        // First, let's find how similar we are in our cache
-        // compared to the current list of filters
-        int similarUpToIndex = -1;
-        boolean similar = true;
-        for (int i = 0; i < steps.size(); i++) {
-            CacheStep newStep = steps.elementAt(i);
-            CacheStep cacheStep = mSteps.elementAt(i);
-            if (similar) {
-                similar = newStep.equals(cacheStep);
-            }
-            if (similar) {
-                similarUpToIndex = i;
-            } else {
-                mSteps.remove(i);
-                mSteps.insertElementAt(newStep, i);
-                environment.cache(cacheStep.cache);
-            }
-        }
-        if (DEBUG) {
-            Log.v(LOGTAG, "similar up to index " + similarUpToIndex);
-        }
-
-        // Now, let's get the earliest cached result in our pipeline
-        Bitmap cacheBitmap = null;
-        int findBaseImageIndex = similarUpToIndex;
-        if (findBaseImageIndex > -1) {
-            while (findBaseImageIndex > 0
-                    && mSteps.elementAt(findBaseImageIndex).cache == null) {
-                findBaseImageIndex--;
-            }
-            cacheBitmap = mSteps.elementAt(findBaseImageIndex).cache;
-        }
-
-        if (DEBUG) {
-            Log.v(LOGTAG, "found baseImageIndex: " + findBaseImageIndex + " max is "
-                    + mSteps.size() + " cacheBitmap: " + cacheBitmap);
-        }
 
         if (NO_CACHING) {
-            cacheBitmap = environment.getBitmapCopy(originalBitmap,
+            Bitmap cacheBitmap = environment.getBitmapCopy(originalBitmap,
                     BitmapCache.PREVIEW_CACHE_NO_ROOT);
-            for (int i = 0; i < mSteps.size(); i++) {
-                CacheStep step = mSteps.elementAt(i);
+            for (int i = 0; i < steps.size(); i++) {
+                CacheStep step = steps.elementAt(i);
                 Bitmap prev = cacheBitmap;
                 cacheBitmap = step.apply(environment, cacheBitmap);
                 if (prev != cacheBitmap) {
@@ -203,71 +162,64 @@ public class CacheProcessing {
             return cacheBitmap;
         }
 
-        Bitmap originalCopy = null;
-        int lastPositionCached = -1;
-        for (int i = findBaseImageIndex; i < mSteps.size(); i++) {
-            if (i == -1 || cacheBitmap == null) {
-                cacheBitmap = environment.getBitmapCopy(originalBitmap,
-                        BitmapCache.PREVIEW_CACHE_NO_ROOT);
-                originalCopy = cacheBitmap;
-                if (DEBUG) {
-                    Log.v(LOGTAG, "i: " + i + " cacheBitmap: " + cacheBitmap + " w: "
-                            + cacheBitmap.getWidth() + " h: " + cacheBitmap.getHeight()
-                            + " got from original Bitmap: " + originalBitmap + " w: "
-                            + originalBitmap.getWidth() + " h: " + originalBitmap.getHeight());
-                }
-                if (i == -1) {
-                    continue;
-                }
-            }
-            CacheStep step = mSteps.elementAt(i);
-            if (step.cache == null) {
-                if (DEBUG) {
-                    Log.v(LOGTAG, "i: " + i + " get new copy for cacheBitmap "
-                            + cacheBitmap + " apply...");
-                }
-                cacheBitmap = environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE);
-                cacheBitmap = step.apply(environment, cacheBitmap);
-                step.cache = cacheBitmap;
-                lastPositionCached = i;
+        // Find the longest prefix of the steps already computed, whatever
+        // the filters which followed it when it was computed.
+        Bitmap cacheBitmap = null;
+        int start = steps.size();
+        while (start > 0) {
+            cacheBitmap = sStepCache.get(originalBitmap, steps, start, environment);
+            if (cacheBitmap != null) {
+                break;
             }
+            start--;
+        }
+        if (cacheBitmap == null) {
+            cacheBitmap = originalBitmap;
         }
-        environment.cache(originalCopy);
-
         if (DEBUG) {
-            Log.v(LOGTAG, "now let's cleanup the cache...");
-            displayNbBitmapsInCache();
+            Log.v(LOGTAG, "found " + start + " cached steps out of " + steps.size());
         }
 
-        // Let's see if we can cleanup the cache for unused bitmaps
-        for (int i = 0; i < similarUpToIndex; i++) {
-            CacheStep currentStep = mSteps.elementAt(i);
-            Bitmap bitmap = currentStep.cache;
-            currentStep.cache = null;
-            environment.cache(bitmap);
+        // The original and the cached bitmaps must not be given back to the
+        // bitmap cache.
+        boolean keep = true;
+        for (int i = start; i < steps.size(); i++) {
+            int type = (cacheBitmap == originalBitmap) ? BitmapCache.PREVIEW_CACHE_NO_ROOT
+                    : BitmapCache.PREVIEW_CACHE;
+            Bitmap bitmap = environment.getBitmapCopy(cacheBitmap, type);
+            bitmap = steps.elementAt(i).apply(environment, bitmap);
+            if (!keep) {
+                environment.cache(cacheBitmap);
+            }
+            cacheBitmap = bitmap;
+            if (environment.needsStop()) {
+                // The rendering was interrupted, don't cache its result.
+                return cacheBitmap;
+            }
+            keep = sStepCache.put(originalBitmap, steps, i + 1, cacheBitmap, environment);
         }
 
         if (DEBUG) {
-            Log.v(LOGTAG, "cleanup done...");
             displayNbBitmapsInCache();
         }
-        if (lastPositionCached != -1) {
-            // The last element will never be reused, remove it from the cache.
-            mSteps.elementAt(lastPositionCached).cache = null;
-        }
-        if (contains(cacheBitmap)) {
+        if (keep) {
             return environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE_NO_APPLY);
         }
         return cacheBitmap;
     }
 
     public boolean contains(Bitmap bitmap) {
-        for (int i = 0; i < mSteps.size(); i++) {
-            if (mSteps.elementAt(i).cache == bitmap) {
-                return true;
-            }
-        }
-        return false;
+        return sStepCache.contains(bitmap);
+    }
+
+    // Drops the cached steps computed from the given source bitmap.
+    public void clear(Bitmap originalBitmap, FilterEnvironment environment) {
+        sStepCache.remove(originalBitmap, environment);
+    }
+
+    // Drops all the cached steps, when the pipelines are torn down.
+    public static void clearAll() {
+        sStepCache.clear();
     }
 
     private void displayFilters(Vector<FilterRepresentation> filters) {
@@ -279,28 +231,170 @@ public class CacheProcessing {
         Log.v(LOGTAG, "<<<------");
     }
 
-    private void displaySteps(Vector<CacheStep> filters) {
-        Log.v(LOGTAG, "------>>>");
-        for (int i = 0; i < filters.size(); i++) {
-            CacheStep newStep = filters.elementAt(i);
-            CacheStep step = mSteps.elementAt(i);
-            boolean similar = step.equals(newStep);
-            Log.v(LOGTAG, "[" + i + "] - " + step.getName()
-                    + " similar rep ? " + (similar ? "YES" : "NO")
-                    + " -- bitmap: " + step.cache);
-        }
-        Log.v(LOGTAG, "<<<------");
+    private void displayNbBitmapsInCache() {
+        Log.v(LOGTAG, "nb bitmaps in cache: " + sStepCache.size() + " using "
+                + sStepCache.getBytes() + " / " + STEP_CACHE_MAX_BYTES + " bytes");
     }
 
-    private void displayNbBitmapsInCache() {
-        int nbBitmapsCached = 0;
-        for (int i = 0; i < mSteps.size(); i++) {
-            CacheStep step = mSteps.elementAt(i);
-            if (step.cache != null) {
-                nbBitmapsCached++;
+    // An LRU cache, limited in bytes, of the bitmaps obtained by applying a
+    // prefix of a filter chain to a source bitmap. An entry is found by its
+    // source, rendering parameters and steps, whatever the filters which
+    // followed them, so the work done before an undo, a reordering or a
+    // filter toggled off and on again is reused.
+    static class StepCache {
+        private static class Entry {
+            WeakReference<Bitmap> source;
+            float scaleFactor;
+            int quality;
+            int hash;
+            Vector<CacheStep> steps;
+            Bitmap bitmap;
+            long bytes;
+        }
+
+        private final long mMaxBytes;
+        private long mBytes;
+        // Least recently used first.
+        private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+
+        public StepCache(long maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        // Returns the result of the first length steps applied to the
+        // source, or null. The bitmap stays owned by the cache.
+        public synchronized Bitmap get(Bitmap source, Vector<CacheStep> steps, int length,
+                FilterEnvironment environment) {
+            int index = indexOf(source, steps, length, environment);
+            if (index < 0) {
+                return null;
             }
+            Entry entry = mEntries.remove(index);
+            mEntries.add(entry);
+            return entry.bitmap;
+        }
+
+        // Adds the result of the first length steps applied to the source.
+        // Returns whether the cache took the bitmap; if so it must not be
+        // given back to the bitmap cache.
+        public boolean put(Bitmap source, Vector<CacheStep> steps, int length,
+                Bitmap bitmap, FilterEnvironment environment) {
+            long bytes = (long) bitmap.getRowBytes() * bitmap.getHeight();
+            ArrayList<Bitmap> evicted = new ArrayList<Bitmap>();
+            boolean added = false;
+            synchronized (this) {
+                if (bytes <= mMaxBytes
+                        && indexOf(source, steps, length, environment) < 0) {
+                    Entry entry = new Entry();
+                    entry.source = new WeakReference<Bitmap>(source);
+                    entry.scaleFactor = environment.getScaleFactor();
+                    entry.quality = environment.getQuality();
+                    entry.hash = hash(source, steps, length);
+                    entry.steps = new Vector<CacheStep>(steps.subList(0, length));
+                    entry.bitmap = bitmap;
+                    entry.bytes = bytes;
+                    for (int i = mEntries.size() - 1; i >= 0; i--) {
+                        if (mEntries.get(i).source.get() == null) {
+                            evicted.add(removeEntry(i));
+                        }
+                    }
+                    while (mBytes + bytes > mMaxBytes) {
+                        evicted.add(removeEntry(0));
+                    }
+                    mEntries.add(entry);
+                    mBytes += bytes;
+                    added = true;
+                }
+            }
+            // Give the bitmaps back outside of the lock, as the bitmap cache
+            // calls contains().
+            for (Bitmap b : evicted) {
+                environment.cache(b);
+            }
+            return added;
+        }
+
+        public void remove(Bitmap source, FilterEnvironment environment) {
+            ArrayList<Bitmap> evicted = new ArrayList<Bitmap>();
+            synchronized (this) {
+                for (int i = mEntries.size() - 1; i >= 0; i--) {
+                    Bitmap entrySource = mEntries.get(i).source.get();
+                    if (entrySource == null || entrySource == source) {
+                        evicted.add(removeEntry(i));
+                    }
+                }
+            }
+            for (Bitmap b : evicted) {
+                environment.cache(b);
+            }
+        }
+
+        public synchronized boolean contains(Bitmap bitmap) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                if (mEntries.get(i).bitmap == bitmap) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Drops all the entries without giving their bitmaps back, as the
+        // bitmap cache goes away with them.
+        public synchronized void clear() {
+            mEntries.clear();
+            mBytes = 0;
+        }
+
+        public synchronized int size() {
+            return mEntries.size();
+        }
+
+        public synchronized long getBytes() {
+            return mBytes;
+        }
+
+        private Bitmap removeEntry(int index) {
+            Entry entry = mEntries.remove(index);
+            mBytes -= entry.bytes;
+            return entry.bitmap;
         }
-        Log.v(LOGTAG, "nb bitmaps in cache: " + nbBitmapsCached + " / " + mSteps.size());
-    }
 
+        private int indexOf(Bitmap source, Vector<CacheStep> steps, int length,
+                FilterEnvironment environment) {
+            int hash = hash(source, steps, length);
+            for (int i = mEntries.size() - 1; i >= 0; i--) {
+                Entry entry = mEntries.get(i);
+                if (entry.hash != hash
+                        || entry.source.get() != source
+                        || entry.scaleFactor != environment.getScaleFactor()
+                        || entry.quality != environment.getQuality()
+                        || entry.steps.size() != length) {
+                    continue;
+                }
+                boolean same = true;
+                for (int j = length - 1; j >= 0 && same; j--) {
+                    same = entry.steps.elementAt(j).equals(steps.elementAt(j));
+                }
+                if (same) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Hashes what identifies an entry without comparing the filter
+        // parameters, to skip most entries quickly.
+        private static int hash(Bitmap source, Vector<CacheStep> steps, int length) {
+            int hash = System.identityHashCode(source);
+            for (int i = 0; i < length; i++) {
+                CacheStep step = steps.elementAt(i);
+                hash = 31 * hash + step.representations.size();
+                for (FilterRepresentation representation : step.representations) {
+                    String name = representation.getSerializationName();
+                    hash = 31 * hash + (name != null ? name.hashCode() : 0);
+                }
+            }
+            return hash;
+        }
+    }
 }
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
@@ -43,14 +44,25 @@ public class CachingPipeline implements PipelineInterface {
 
     private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
 
+    // Memory the filter step cache and the region tiles may hold together,
+    // half of it each.
+    static final long RENDER_CACHES_MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
     private static volatile RenderScript sRS = null;
 
     private FiltersManager mFiltersManager = null;
     private volatile Bitmap mOriginalBitmap = null;
     private volatile Bitmap mResizedOriginalBitmap = null;
+    // A smaller copy of the original, rendered first when the preview is too
+    // slow to follow the user.
+    private volatile Bitmap mProxyBitmap = null;
+
+    // Size of the proxy relative to the original.
+    private static final float PROXY_SCALE = 0.5f;
 
     private FilterEnvironment mEnvironment = new FilterEnvironment();
     private CacheProcessing mCachedProcessing = new CacheProcessing();
+    private RegionTileCache mRegionTiles = new RegionTileCache();
 
 
     private volatile Allocation mOriginalAllocation = null;
@@ -93,12 +105,22 @@ public class CachingPipeline implements PipelineInterface {
         mEnvironment.setStop(true);
     }
 
+    // Clears the stop flag for compute(), which keeps it as it is so that a
+    // stop() coming after this call is not lost.
+    public void clearStop() {
+        mEnvironment.setStop(false);
+    }
+
     public synchronized void reset() {
         synchronized (CachingPipeline.class) {
             if (getRenderScriptContext() == null) {
                 return;
             }
+            mCachedProcessing.clear(mOriginalBitmap, mEnvironment);
             mOriginalBitmap = null; // just a reference to the bitmap in ImageLoader
+            mCachedProcessing.clear(mProxyBitmap, mEnvironment);
+            mProxyBitmap = null;
+            mRegionTiles.clear(mEnvironment);
             if (mResizedOriginalBitmap != null) {
                 mResizedOriginalBitmap.recycle();
                 mResizedOriginalBitmap = null;
@@ -161,6 +183,11 @@ public class CachingPipeline implements PipelineInterface {
     }
 
     private void setupEnvironment(ImagePreset preset, boolean highResPreview) {
+        setupEnvironment(preset, highResPreview, true);
+    }
+
+    private void setupEnvironment(ImagePreset preset, boolean highResPreview,
+            boolean clearStop) {
         mEnvironment.setPipeline(this);
         mEnvironment.setFiltersManager(mFiltersManager);
         mEnvironment.setBitmapCache(MasterImage.getImage().getBitmapCache());
@@ -171,14 +198,25 @@ public class CachingPipeline implements PipelineInterface {
         }
         mEnvironment.setQuality(FilterEnvironment.QUALITY_PREVIEW);
         mEnvironment.setImagePreset(preset);
-        mEnvironment.setStop(false);
+        if (clearStop) {
+            mEnvironment.setStop(false);
+        }
     }
 
     public void setOriginal(Bitmap bitmap) {
+        Bitmap previousOriginal = mOriginalBitmap;
+        Bitmap previousProxy = mProxyBitmap;
         mOriginalBitmap = bitmap;
+        mProxyBitmap = null;
         Log.v(LOGTAG,"setOriginal, size " + bitmap.getWidth() + " x " + bitmap.getHeight());
         ImagePreset preset = MasterImage.getImage().getPreset();
         setupEnvironment(preset, false);
+        // Nothing rendered from the previous image is of use anymore.
+        if (previousOriginal != bitmap) {
+            mCachedProcessing.clear(previousOriginal, mEnvironment);
+            mCachedProcessing.clear(previousProxy, mEnvironment);
+            mRegionTiles.clear(mEnvironment);
+        }
         updateOriginalAllocation(preset);
     }
 
@@ -304,15 +342,8 @@ public class CachingPipeline implements PipelineInterface {
             mFiltersManager.freeFilterResources(preset);
 
             if (request.getType() == RenderingRequest.PARTIAL_RENDERING) {
-                MasterImage master = MasterImage.getImage();
-                bitmap = ImageLoader.getScaleOneImageForPreset(master.getActivity(),
-                        mEnvironment.getBimapCache(),
-                        master.getUri(), request.getBounds(),
-                        request.getDestination());
-                if (bitmap == null) {
-                    Log.w(LOGTAG, "could not get bitmap for: " + getType(request));
-                    return;
-                }
+                renderRegion(request, preset);
+                return;
             }
 
             if (request.getType() == RenderingRequest.FULL_RENDERING
@@ -378,6 +409,94 @@ public class CachingPipeline implements PipelineInterface {
         }
     }
 
+    // Renders the part of the original in the bounds of the request at full
+    // resolution, without geometry. The tiles of it already rendered are
+    // reused, the others are decoded and filtered as a single region, with
+    // the margin the filters read around it.
+    private void renderRegion(RenderingRequest request, ImagePreset preset) {
+        MasterImage master = MasterImage.getImage();
+        Rect imageBounds = master.getOriginalBounds();
+        Rect bounds = new Rect(request.getBounds());
+        if (imageBounds == null || !bounds.intersect(imageBounds)) {
+            return;
+        }
+        if (ImageLoader.isSubsampledRegion(bounds, request.getDestination())) {
+            // Not zoomed enough for the original resolution to show.
+            return;
+        }
+        int margin = preset.getFiltersOverlap();
+        if (margin < 0) {
+            // A filter needs the whole image, a region would give seams.
+            return;
+        }
+        mEnvironment.setQuality(FilterEnvironment.QUALITY_PREVIEW);
+        mRegionTiles.setContent(master.getUri(), preset, mEnvironment);
+
+        Rect tileBounds = RegionTileCache.getTileBounds(bounds, imageBounds);
+        Bitmap result = mEnvironment.getBitmap(tileBounds.width(), tileBounds.height(),
+                BitmapCache.REGION);
+        // The bitmaps of the cache keep their old pixels, which would show
+        // through the transparent parts of the tiles drawn over them.
+        result.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = new Canvas(result);
+        int size = RegionTileCache.TILE_SIZE;
+        Rect missing = new Rect();
+        for (int y = tileBounds.top; y < tileBounds.bottom; y += size) {
+            for (int x = tileBounds.left; x < tileBounds.right; x += size) {
+                Bitmap tile = mRegionTiles.get(x / size, y / size);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, x - tileBounds.left, y - tileBounds.top, null);
+                } else {
+                    missing.union(x, y, Math.min(x + size, tileBounds.right),
+                            Math.min(y + size, tileBounds.bottom));
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Rect region = new Rect(missing);
+            region.inset(-margin, -margin);
+            region.intersect(imageBounds);
+            Bitmap bitmap = ImageLoader.getScaleOneImageForPreset(master.getActivity(),
+                    mEnvironment.getBimapCache(), master.getUri(), region, null);
+            if (bitmap == null) {
+                Log.w(LOGTAG, "could not get bitmap for: " + getType(request));
+                mEnvironment.cache(result);
+                return;
+            }
+            bitmap = preset.apply(bitmap, mEnvironment);
+            if (mEnvironment.needsStop()) {
+                mEnvironment.cache(bitmap);
+                mEnvironment.cache(result);
+                return;
+            }
+            // Cut the rendered region in tiles, the margin is left out.
+            Rect src = new Rect();
+            Rect dst = new Rect();
+            for (int y = missing.top; y < missing.bottom; y += size) {
+                for (int x = missing.left; x < missing.right; x += size) {
+                    int w = Math.min(size, missing.right - x);
+                    int h = Math.min(size, missing.bottom - y);
+                    src.set(x - region.left, y - region.top,
+                            x - region.left + w, y - region.top + h);
+                    dst.set(x - tileBounds.left, y - tileBounds.top,
+                            x - tileBounds.left + w, y - tileBounds.top + h);
+                    canvas.drawBitmap(bitmap, src, dst, null);
+                    if (mRegionTiles.get(x / size, y / size) == null) {
+                        Bitmap tile = mEnvironment.getBitmap(w, h, BitmapCache.REGION);
+                        tile.eraseColor(Color.TRANSPARENT);
+                        dst.set(0, 0, w, h);
+                        new Canvas(tile).drawBitmap(bitmap, src, dst, null);
+                        mRegionTiles.put(x / size, y / size, tile, mEnvironment);
+                    }
+                }
+            }
+            mEnvironment.cache(bitmap);
+        }
+        request.setBounds(tileBounds);
+        request.setBitmap(result);
+    }
+
     public synchronized void renderImage(ImagePreset preset, Allocation in, Allocation out) {
         synchronized (CachingPipeline.class) {
             if (getRenderScriptContext() == null) {
@@ -413,15 +532,47 @@ public class CachingPipeline implements PipelineInterface {
         return GeometryMathUtils.applyGeometryRepresentations(preset.getGeometryFilters(), bitmap);
     }
 
-    public void compute(SharedBuffer buffer, ImagePreset preset, int type) {
+    // Renders the preset to the producer of the buffer, from the proxy of the
+    // original if proxy is true. Returns false if the rendering was stopped,
+    // in which case the buffer is left untouched. The stop flag is not
+    // cleared, the caller does it with clearStop().
+    public boolean compute(SharedBuffer buffer, ImagePreset preset, boolean proxy) {
         if (getRenderScriptContext() == null) {
-            return;
+            return false;
+        }
+        setupEnvironment(preset, false, false);
+        Bitmap source = mOriginalBitmap;
+        if (proxy) {
+            source = getProxyBitmap();
+            mEnvironment.setScaleFactor(mPreviewScaleFactor * PROXY_SCALE);
+        }
+        if (source == null) {
+            return false;
         }
-        setupEnvironment(preset, false);
         Vector<FilterRepresentation> filters = preset.getFilters();
-        Bitmap result = mCachedProcessing.process(mOriginalBitmap, filters, mEnvironment);
+        Bitmap result = mCachedProcessing.process(source, filters, mEnvironment);
+        if (mEnvironment.needsStop()) {
+            mEnvironment.cache(result);
+            return false;
+        }
         buffer.setProducer(result);
         mEnvironment.cache(result);
+        return true;
+    }
+
+    private Bitmap getProxyBitmap() {
+        Bitmap original = mOriginalBitmap;
+        Bitmap proxy = mProxyBitmap;
+        if (original == null) {
+            return null;
+        }
+        if (proxy == null) {
+            int w = Math.max(1, (int) (original.getWidth() * PROXY_SCALE));
+            int h = Math.max(1, (int) (original.getHeight() * PROXY_SCALE));
+            proxy = Bitmap.createScaledBitmap(original, w, h, true);
+            mProxyBitmap = proxy;
+        }
+        return proxy;
     }
 
     public boolean needsRepaint() {
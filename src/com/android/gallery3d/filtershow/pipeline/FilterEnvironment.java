@@ -26,9 +26,11 @@ import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.filters.FilterUserPresetRepresentation;
 import com.android.gallery3d.filtershow.filters.FiltersManagerInterface;
 import com.android.gallery3d.filtershow.filters.ImageFilter;
+import com.android.gallery3d.filtershow.filters.ImageFilterChannelLut;
 
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.List;
 
 public class FilterEnvironment {
     private static final String LOGTAG = "FilterEnvironment";
@@ -39,6 +41,7 @@ public class FilterEnvironment {
     private PipelineInterface mPipeline;
     private volatile boolean mStop = false;
     private BitmapCache mBitmapCache;
+    private ImageFilterChannelLut mChannelLut;
 
     public static final int QUALITY_ICON = 0;
     public static final int QUALITY_PREVIEW = 1;
@@ -141,6 +144,21 @@ public class FilterEnvironment {
         return ret;
     }
 
+    // Applies a run of per-channel representations in a single pass over the
+    // bitmap, see ImageFilterChannelLut.
+    public Bitmap applyPerChannelRepresentations(List<FilterRepresentation> representations,
+            Bitmap bitmap) {
+        if (mChannelLut == null) {
+            mChannelLut = new ImageFilterChannelLut();
+        }
+        Bitmap ramp = mChannelLut.resetRamp();
+        for (FilterRepresentation representation : representations) {
+            ramp = applyRepresentation(representation, ramp);
+        }
+        mChannelLut.setTables(ramp);
+        return mChannelLut.apply(bitmap, mScaleFactor, mQuality);
+    }
+
     public PipelineInterface getPipeline() {
         return mPipeline;
     }
@@ -581,7 +581,15 @@ public class ImagePreset {
                     continue;
                 }
                 Bitmap tmp = bitmap;
-                bitmap = environment.applyRepresentation(representation, bitmap);
+                int end = getPerChannelRunEnd(i, to);
+                if (end - i > 1) {
+                    // Apply consecutive per-channel filters in one pass.
+                    bitmap = environment.applyPerChannelRepresentations(
+                            mFilters.subList(i, end), bitmap);
+                    i = end - 1;
+                } else {
+                    bitmap = environment.applyRepresentation(representation, bitmap);
+                }
                 if (tmp != bitmap) {
                     environment.cache(tmp);
                 }
@@ -594,6 +602,16 @@ public class ImagePreset {
         return bitmap;
     }
 
+    // Returns the end of the run of per-channel filters starting at the
+    // given position.
+    private int getPerChannelRunEnd(int start, int to) {
+        int end = start;
+        while (end < to && mFilters.elementAt(end).isPerChannel()) {
+            end++;
+        }
+        return end;
+    }
+
     public void applyBorder(Allocation in, Allocation out,
             boolean copyOut, FilterEnvironment environment) {
         FilterRepresentation border = getFilterRepresentationForType(
@@ -646,6 +664,33 @@ public class ImagePreset {
         return true;
     }
 
+    // Returns the rows to add around each band when the image is rendered in
+    // horizontal bands, or -1 if it has to be rendered whole.
+    public int getBandOverlap() {
+        if (mDoApplyGeometry
+                && !GeometryMathUtils.unpackGeometry(getGeometryFilters()).isNil()) {
+            return -1;
+        }
+        return getFiltersOverlap();
+    }
+
+    // Returns the pixels the filters other than geometry read around each
+    // pixel they write, or -1 if they need the whole image.
+    public int getFiltersOverlap() {
+        int overlap = 0;
+        for (FilterRepresentation representation : mFilters) {
+            if (representation.getFilterType() == FilterRepresentation.TYPE_GEOMETRY) {
+                continue;
+            }
+            if (representation.getBandOverlap() < 0) {
+                return -1;
+            }
+            // Each filter reads rows already changed by the previous ones.
+            overlap += representation.getBandOverlap();
+        }
+        return overlap;
+    }
+
     public void fillImageStateAdapter(StateAdapter imageStateAdapter) {
         if (imageStateAdapter == null) {
             return;
@@ -325,6 +325,7 @@ public class ProcessingService extends Service {
         FiltersManager.getManager().freeRSFilterScripts();
         FiltersManager.getHighresManager().freeRSFilterScripts();
         FiltersManager.reset();
+        CacheProcessing.clearAll();
         CachingPipeline.destroyRenderScriptContext();
     }
 
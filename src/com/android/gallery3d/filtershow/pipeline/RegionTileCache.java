@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.android.gallery3d.filtershow.filters.FilterRepresentation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+// Keeps the regions of the original rendered for a zoomed view, cut in tiles
+// on a grid of TILE_SIZE pixels of the original, so that panning back over
+// them neither decodes nor filters them again. The tiles are only valid for
+// the filters they were rendered with. Geometry is not part of them, as it is
+// applied when they are drawn.
+public class RegionTileCache {
+    public static final int TILE_SIZE = 256;
+
+    private static final long MAX_BYTES = CachingPipeline.RENDER_CACHES_MAX_BYTES / 2;
+
+    private Uri mUri;
+    private Vector<FilterRepresentation> mFilters = new Vector<FilterRepresentation>();
+    private long mBytes;
+    // Keyed by column and row, least recently used first.
+    private final LinkedHashMap<Long, Bitmap> mTiles =
+            new LinkedHashMap<Long, Bitmap>(16, 0.75f, true);
+
+    // Drops the tiles if they were rendered from another image or with other
+    // filters than the ones of the preset.
+    public synchronized void setContent(Uri uri, ImagePreset preset,
+            FilterEnvironment environment) {
+        Vector<FilterRepresentation> filters = new Vector<FilterRepresentation>();
+        for (FilterRepresentation representation : preset.getFilters()) {
+            if (representation.getFilterType() != FilterRepresentation.TYPE_GEOMETRY) {
+                filters.add(representation);
+            }
+        }
+        if (uri != null && uri.equals(mUri) && sameFilters(filters)) {
+            return;
+        }
+        clear(environment);
+        mUri = uri;
+        mFilters.clear();
+        for (FilterRepresentation representation : filters) {
+            mFilters.add(representation.copy());
+        }
+    }
+
+    public synchronized Bitmap get(int column, int row) {
+        return mTiles.get(getKey(column, row));
+    }
+
+    public void put(int column, int row, Bitmap tile, FilterEnvironment environment) {
+        ArrayList<Bitmap> evicted = new ArrayList<Bitmap>();
+        synchronized (this) {
+            Bitmap previous = mTiles.put(getKey(column, row), tile);
+            if (previous != null) {
+                mBytes -= getBytes(previous);
+                evicted.add(previous);
+            }
+            mBytes += getBytes(tile);
+            Iterator<Map.Entry<Long, Bitmap>> it = mTiles.entrySet().iterator();
+            while (mBytes > MAX_BYTES && it.hasNext()) {
+                Bitmap bitmap = it.next().getValue();
+                if (bitmap == tile) {
+                    continue;
+                }
+                it.remove();
+                mBytes -= getBytes(bitmap);
+                evicted.add(bitmap);
+            }
+        }
+        for (Bitmap bitmap : evicted) {
+            environment.cache(bitmap);
+        }
+    }
+
+    public void clear(FilterEnvironment environment) {
+        ArrayList<Bitmap> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<Bitmap>(mTiles.values());
+            mTiles.clear();
+            mBytes = 0;
+            mUri = null;
+            mFilters.clear();
+        }
+        for (Bitmap bitmap : evicted) {
+            environment.cache(bitmap);
+        }
+    }
+
+    // Returns the bounds of the tiles covering the given bounds, clipped to
+    // the image.
+    public static Rect getTileBounds(Rect bounds, Rect imageBounds) {
+        Rect tileBounds = new Rect(
+                (bounds.left / TILE_SIZE) * TILE_SIZE,
+                (bounds.top / TILE_SIZE) * TILE_SIZE,
+                ((bounds.right + TILE_SIZE - 1) / TILE_SIZE) * TILE_SIZE,
+                ((bounds.bottom + TILE_SIZE - 1) / TILE_SIZE) * TILE_SIZE);
+        if (!tileBounds.intersect(imageBounds)) {
+            tileBounds.setEmpty();
+        }
+        return tileBounds;
+    }
+
+    private boolean sameFilters(Vector<FilterRepresentation> filters) {
+        if (filters.size() != mFilters.size()) {
+            return false;
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            if (!filters.elementAt(i).equals(mFilters.elementAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long getKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    private static long getBytes(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
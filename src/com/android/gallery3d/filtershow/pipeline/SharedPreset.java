@@ -35,6 +35,10 @@ public class SharedPreset {
         mHasNewContent = true;
     }
 
+    public synchronized boolean hasNewContent() {
+        return mHasNewContent;
+    }
+
     public synchronized ImagePreset dequeuePreset() {
         if (!mHasNewContent) {
             return mConsumerPreset;
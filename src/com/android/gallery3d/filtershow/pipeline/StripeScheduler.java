@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.graphics.Bitmap;
+
+import com.android.gallery3d.filtershow.filters.RowFilter;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Splits a bitmap into horizontal stripes, one per core, and filters them
+// in parallel with RowFilter.applyRows(). The calling thread filters the
+// first stripe itself and waits for the others, which run on threads shared
+// by the preview, high-res and final pipelines.
+public class StripeScheduler {
+    private static final String LOGTAG = "StripeScheduler";
+
+    // Stripes smaller than this are not worth a thread.
+    private static final int MIN_STRIPE_HEIGHT = 64;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService sExecutor;
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(Math.max(1, CORES - 1),
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, LOGTAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    public static void apply(final RowFilter filter, final Bitmap bitmap) {
+        int height = bitmap.getHeight();
+        int stripes = Math.min(CORES, height / MIN_STRIPE_HEIGHT);
+        if (stripes <= 1) {
+            filter.applyRows(bitmap, 0, height);
+            return;
+        }
+        ExecutorService executor = getExecutor();
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(stripes - 1);
+        for (int i = 1; i < stripes; i++) {
+            final int top = height * i / stripes;
+            final int bottom = height * (i + 1) / stripes;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    filter.applyRows(bitmap, top, bottom);
+                }
+            }));
+        }
+        // Wait for all the stripes, even if one fails, as they all write to
+        // the bitmap.
+        Throwable failure = null;
+        try {
+            filter.applyRows(bitmap, 0, height / stripes);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+}
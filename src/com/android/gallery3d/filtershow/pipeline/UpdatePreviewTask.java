@@ -17,15 +17,23 @@
 package com.android.gallery3d.filtershow.pipeline;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 
 import com.android.gallery3d.filtershow.filters.FiltersManager;
 import com.android.gallery3d.filtershow.imageshow.MasterImage;
 
 public class UpdatePreviewTask extends ProcessingTask {
     private static final String LOGTAG = "UpdatePreviewTask";
+    // Time a preview can take to follow the user at 30 frames per second.
+    private static final long FRAME_BUDGET_MS = 1000 / 30;
     private CachingPipeline mPreviewPipeline = null;
     private boolean mHasUnhandledPreviewRequest = false;
     private boolean mPipelineIsOn = false;
+    // Set while rendering at full resolution, which is stopped when a newer
+    // preset comes in.
+    private volatile boolean mRefining = false;
+    // Duration of the last full resolution rendering.
+    private volatile long mRenderTime = 0;
 
     public UpdatePreviewTask() {
         mPreviewPipeline = new CachingPipeline(
@@ -41,6 +49,11 @@ public class UpdatePreviewTask extends ProcessingTask {
         if (!mPipelineIsOn) {
             return;
         }
+        if (mRefining) {
+            // The rendering in progress is outdated, only the latest preset
+            // is worth finishing.
+            mPreviewPipeline.stop();
+        }
         mHasUnhandledPreviewRequest = true;
         if (postRequest(null)) {
             mHasUnhandledPreviewRequest = false;
@@ -54,19 +67,55 @@ public class UpdatePreviewTask extends ProcessingTask {
 
     @Override
     public Result doInBackground(Request message) {
+        // Clear the stop meant for an earlier rendering before looking at the
+        // presets: a stop() for a newer preset can only come after this.
+        mPreviewPipeline.clearStop();
         SharedBuffer buffer = MasterImage.getImage().getPreviewBuffer();
         SharedPreset preset = MasterImage.getImage().getPreviewPreset();
         ImagePreset renderingPreset = preset.dequeuePreset();
-        if (renderingPreset != null) {
-            mPreviewPipeline.compute(buffer, renderingPreset, 0);
-            // set the preset we used in the buffer for later inspection UI-side
-            buffer.getProducer().setPreset(renderingPreset);
-            buffer.getProducer().sync();
-            buffer.swapProducer(); // push back the result
+        if (renderingPreset == null) {
+            return null;
+        }
+        if (mRenderTime > FRAME_BUDGET_MS) {
+            // Show a quick rendering of the proxy first, the full resolution
+            // one would lag behind the user.
+            if (render(buffer, renderingPreset, true)) {
+                postUpdate(null);
+            }
+        }
+        mRefining = true;
+        try {
+            // A newer preset is already waiting, let its request render it.
+            if (preset.hasNewContent()) {
+                return null;
+            }
+            long start = SystemClock.uptimeMillis();
+            boolean done = render(buffer, renderingPreset, false);
+            long time = SystemClock.uptimeMillis() - start;
+            // A stopped rendering would have taken at least as long.
+            mRenderTime = done ? time : Math.max(mRenderTime, time);
+        } finally {
+            mRefining = false;
         }
         return null;
     }
 
+    private boolean render(SharedBuffer buffer, ImagePreset renderingPreset, boolean proxy) {
+        if (!mPreviewPipeline.compute(buffer, renderingPreset, proxy)) {
+            return false;
+        }
+        // set the preset we used in the buffer for later inspection UI-side
+        buffer.getProducer().setPreset(renderingPreset);
+        buffer.getProducer().sync();
+        buffer.swapProducer(); // push back the result
+        return true;
+    }
+
+    @Override
+    public void onUpdate(Update message) {
+        MasterImage.getImage().notifyObservers();
+    }
+
     @Override
     public void onResult(Result message) {
         MasterImage.getImage().notifyObservers();
@@ -22,6 +22,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
 import java.util.TimeZone;
@@ -32,6 +33,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
@@ -56,6 +59,8 @@ import com.android.gallery3d.filtershow.imageshow.MasterImage;
 import com.android.gallery3d.filtershow.pipeline.CachingPipeline;
 import com.android.gallery3d.filtershow.pipeline.ImagePreset;
 import com.android.gallery3d.filtershow.pipeline.ProcessingService;
+import com.android.gallery3d.jpegstream.JPEGOutputStream;
+import com.android.gallery3d.jpegstream.JpegConfig;
 import com.android.gallery3d.util.XmpUtilHelper;
 
 /**
@@ -81,6 +86,8 @@ public class SaveImage {
     private static final String PREFIX_IMG = "IMG";
     private static final String POSTFIX_JPG = ".jpg";
     private static final String AUX_DIR_NAME = ".aux";
+    // Rows of the image rendered at a time when saving in bands.
+    private static final int SAVE_BAND_HEIGHT = 256;
 
     private final Context mContext;
     private final Uri mSourceUri;
@@ -191,34 +198,37 @@ public class SaveImage {
         });
 
         if (fullPath[0] != null) {
-            // Construct the auxiliary directory given the source file's path.
-            // Then select and delete all the files starting with the same name
-            // under the auxiliary directory.
-            File currentFile = new File(fullPath[0]);
-
-            String filename = currentFile.getName();
-            int firstDotPos = filename.indexOf(".");
-            final String filenameNoExt = (firstDotPos == -1) ? filename :
-                filename.substring(0, firstDotPos);
-            File auxDir = getLocalAuxDirectory(currentFile);
-            if (auxDir.exists()) {
-                FilenameFilter filter = new FilenameFilter() {
-                    @Override
-                    public boolean accept(File dir, String name) {
-                        if (name.startsWith(filenameNoExt + ".")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
+            deleteAuxFiles(new File(fullPath[0]));
+        }
+    }
 
-                // Delete all auxiliary files whose name is matching the
-                // current local image.
-                File[] auxFiles = auxDir.listFiles(filter);
-                for (File file : auxFiles) {
-                    file.delete();
+    // Deletes the auxiliary files of the given local image file.
+    public static void deleteAuxFiles(File currentFile) {
+        // Construct the auxiliary directory given the source file's path.
+        // Then select and delete all the files starting with the same name
+        // under the auxiliary directory.
+        String filename = currentFile.getName();
+        int firstDotPos = filename.indexOf(".");
+        final String filenameNoExt = (firstDotPos == -1) ? filename :
+            filename.substring(0, firstDotPos);
+        File auxDir = getLocalAuxDirectory(currentFile);
+        if (auxDir.exists()) {
+            FilenameFilter filter = new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    if (name.startsWith(filenameNoExt + ".")) {
+                        return true;
+                    } else {
+                        return false;
+                    }
                 }
+            };
+
+            // Delete all auxiliary files whose name is matching the
+            // current local image.
+            File[] auxFiles = auxDir.listFiles(filter);
+            for (File file : auxFiles) {
+                file.delete();
             }
         }
     }
@@ -292,6 +302,90 @@ public class SaveImage {
         return ret;
     }
 
+    // Returns the rows to decode around each band to save the source in
+    // bands with the given preset, or -1 if it has to be rendered whole.
+    private int getBandOverlap(ImagePreset preset, Uri source) {
+        int overlap = preset.getBandOverlap();
+        if (overlap < 0) {
+            return -1;
+        }
+        // The bands are decoded as stored, so the source must not need to be
+        // rotated.
+        if (ImageLoader.getMetadataOrientation(mContext, source) != ImageLoader.ORI_NORMAL) {
+            return -1;
+        }
+        return overlap;
+    }
+
+    /**
+     * Renders the source with the preset in horizontal bands and streams the
+     * rows of each band to a JPEG encoder, so that only one band is in memory.
+     * Each band is decoded with <code>overlap</code> more rows above and below
+     * for the filters which read the pixels around them.
+     *
+     * @return false if the source cannot be decoded by regions or the file
+     *         could not be written.
+     */
+    private boolean putExifDataInBands(File file, ExifInterface exif, Uri source,
+            ImagePreset preset, int overlap, int jpegCompressQuality) {
+        boolean ret = false;
+        InputStream is = null;
+        BitmapRegionDecoder decoder = null;
+        OutputStream s = null;
+        try {
+            is = mContext.getContentResolver().openInputStream(source);
+            decoder = BitmapRegionDecoder.newInstance(is, false);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+
+            s = new JPEGOutputStream(exif.getExifWriterStream(file.getAbsolutePath()),
+                    width, height, (jpegCompressQuality > 0) ? jpegCompressQuality : 1,
+                    JpegConfig.FORMAT_RGBA);
+            CachingPipeline pipeline = new CachingPipeline(FiltersManager.getManager(),
+                    "Saving");
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inMutable = true;
+            Rect region = new Rect();
+            ByteBuffer pixels = null;
+            for (int top = 0; top < height; top += SAVE_BAND_HEIGHT) {
+                int bottom = Math.min(top + SAVE_BAND_HEIGHT, height);
+                region.set(0, Math.max(top - overlap, 0), width,
+                        Math.min(bottom + overlap, height));
+                Bitmap band = decoder.decodeRegion(region, options);
+                if (band == null) {
+                    return false;
+                }
+                band = pipeline.renderFinalImage(band, preset);
+                if (pixels == null || pixels.capacity() < band.getByteCount()) {
+                    pixels = ByteBuffer.allocate(band.getByteCount());
+                }
+                pixels.clear();
+                band.copyPixelsToBuffer(pixels);
+                int rowBytes = band.getRowBytes();
+                band.recycle();
+                // Drop the overlap, which belongs to the neighboring bands.
+                s.write(pixels.array(), (top - region.top) * rowBytes,
+                        (bottom - top) * rowBytes);
+            }
+            s.flush();
+            s.close();
+            s = null;
+            ret = true;
+        } catch (FileNotFoundException e) {
+            Log.w(LOGTAG, "File not found: " + file.getAbsolutePath(), e);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Could not write image in bands: ", e);
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            Utils.closeSilently(is);
+            Utils.closeSilently(s);
+        }
+        return ret;
+    }
+
     private Uri resetToOriginalImageIfNeeded(ImagePreset preset, boolean doAuxBackup) {
         Uri uri = null;
         if (!preset.hasModifications()) {
@@ -437,61 +531,68 @@ public class SaveImage {
             }
         }
 
+        // Render and write the image one band at a time when the edits allow
+        // it, so that it is saved at full resolution whatever its size.
+        int bandOverlap = (sizeFactor == 1f) ? getBandOverlap(preset, newSourceUri) : -1;
+
         // Stopgap fix for low-memory devices.
         while (noBitmap) {
             try {
                 updateProgress();
-                // Try to do bitmap operations, downsample if low-memory
-                Bitmap bitmap = ImageLoader.loadOrientedBitmapWithBackouts(mContext, newSourceUri,
-                        sampleSize);
-                if (bitmap == null) {
-                    return null;
-                }
-                if (sizeFactor != 1f) {
-                    // if we have a valid size
-                    int w = (int) (bitmap.getWidth() * sizeFactor);
-                    int h = (int) (bitmap.getHeight() * sizeFactor);
-                    if (w == 0 || h == 0) {
-                        w = 1;
-                        h = 1;
+                Bitmap bitmap = null;
+                if (bandOverlap < 0) {
+                    // Try to do bitmap operations, downsample if low-memory
+                    bitmap = ImageLoader.loadOrientedBitmapWithBackouts(mContext, newSourceUri,
+                            sampleSize);
+                    if (bitmap == null) {
+                        return null;
+                    }
+                    if (sizeFactor != 1f) {
+                        // if we have a valid size
+                        int w = (int) (bitmap.getWidth() * sizeFactor);
+                        int h = (int) (bitmap.getHeight() * sizeFactor);
+                        if (w == 0 || h == 0) {
+                            w = 1;
+                            h = 1;
+                        }
+                        bitmap = Bitmap.createScaledBitmap(bitmap, w, h, true);
+                    }
+                    updateProgress();
+                    CachingPipeline pipeline = new CachingPipeline(FiltersManager.getManager(),
+                            "Saving");
+
+                    bitmap = pipeline.renderFinalImage(bitmap, preset);
+
+                    // Check for Fusion
+                    FilterDualCamFusionRepresentation fusionRep = (FilterDualCamFusionRepresentation) preset.getFilterWithSerializationName(
+                            FilterDualCamFusionRepresentation.SERIALIZATION_NAME);
+
+                    if(fusionRep != null && fusionRep.hasUnderlay()) {
+                        // fusion. decode underlay image and get dest rect
+                        Uri underLayUri = Uri.parse(fusionRep.getUnderlay());
+                        Bitmap underlay = ImageLoader.loadBitmapWithBackouts(mContext, underLayUri, sampleSize);
+                        RectF destRect = new RectF();
+                        Rect imageBounds = MasterImage.getImage().getImageBounds();
+                        Rect underlayBounds = MasterImage.getImage().getFusionBounds();
+                        float underlayScaleFactor = (float)underlay.getWidth() / (float)underlayBounds.width();
+
+                        destRect.left = (imageBounds.left - underlayBounds.left) * underlayScaleFactor;
+                        destRect.right = (imageBounds.right - underlayBounds.left) * underlayScaleFactor;
+                        destRect.top = (imageBounds.top - underlayBounds.top) * underlayScaleFactor;
+                        destRect.bottom = (imageBounds.bottom - underlayBounds.top) * underlayScaleFactor;
+
+                        Canvas canvas = new Canvas(underlay);
+                        Paint paint = new Paint();
+                        paint.reset();
+                        paint.setAntiAlias(true);
+                        paint.setFilterBitmap(true);
+                        paint.setDither(true);
+
+                        canvas.drawBitmap(bitmap, null, destRect, paint);
+
+                        bitmap.recycle();
+                        bitmap = underlay;
                     }
-                    bitmap = Bitmap.createScaledBitmap(bitmap, w, h, true);
-                }
-                updateProgress();
-                CachingPipeline pipeline = new CachingPipeline(FiltersManager.getManager(),
-                        "Saving");
-
-                bitmap = pipeline.renderFinalImage(bitmap, preset);
-
-                // Check for Fusion
-                FilterDualCamFusionRepresentation fusionRep = (FilterDualCamFusionRepresentation) preset.getFilterWithSerializationName(
-                        FilterDualCamFusionRepresentation.SERIALIZATION_NAME);
-
-                if(fusionRep != null && fusionRep.hasUnderlay()) {
-                    // fusion. decode underlay image and get dest rect
-                    Uri underLayUri = Uri.parse(fusionRep.getUnderlay());
-                    Bitmap underlay = ImageLoader.loadBitmapWithBackouts(mContext, underLayUri, sampleSize);
-                    RectF destRect = new RectF();
-                    Rect imageBounds = MasterImage.getImage().getImageBounds();
-                    Rect underlayBounds = MasterImage.getImage().getFusionBounds();
-                    float underlayScaleFactor = (float)underlay.getWidth() / (float)underlayBounds.width();
-
-                    destRect.left = (imageBounds.left - underlayBounds.left) * underlayScaleFactor;
-                    destRect.right = (imageBounds.right - underlayBounds.left) * underlayScaleFactor;
-                    destRect.top = (imageBounds.top - underlayBounds.top) * underlayScaleFactor;
-                    destRect.bottom = (imageBounds.bottom - underlayBounds.top) * underlayScaleFactor;
-
-                    Canvas canvas = new Canvas(underlay);
-                    Paint paint = new Paint();
-                    paint.reset();
-                    paint.setAntiAlias(true);
-                    paint.setFilterBitmap(true);
-                    paint.setDither(true);
-
-                    canvas.drawBitmap(bitmap, null, destRect, paint);
-
-                    bitmap.recycle();
-                    bitmap = underlay;
                 }
 
                 updateProgress();
@@ -504,8 +605,23 @@ public class SaveImage {
                 updateExifData(exif, time);
                 updateProgress();
 
+                boolean saved;
+                if (bitmap == null) {
+                    saved = putExifDataInBands(mDestinationFile, exif, newSourceUri,
+                            preset, bandOverlap, quality);
+                    if (!saved) {
+                        // The source cannot be decoded by regions, render it
+                        // whole instead.
+                        bandOverlap = -1;
+                        resetProgress();
+                        continue;
+                    }
+                } else {
+                    saved = putExifData(mDestinationFile, exif, bitmap, quality);
+                }
+
                 // If we succeed in writing the bitmap as a jpeg, return a uri.
-                if (putExifData(mDestinationFile, exif, bitmap, quality)) {
+                if (saved) {
                     putPanoramaXMPData(mDestinationFile, xmp);
                     // mDestinationFile will save the newSourceUri info in the XMP.
                     if (!flatten) {
@@ -529,7 +645,11 @@ public class SaveImage {
                     throw e;
                 }
                 System.gc();
-                sampleSize *= 2;
+                if (bandOverlap >= 0) {
+                    bandOverlap = -1;
+                } else {
+                    sampleSize *= 2;
+                }
                 resetProgress();
             }
         }
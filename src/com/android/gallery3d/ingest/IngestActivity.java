@@ -43,6 +43,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.support.v4.view.ViewPager;
+import android.text.format.Formatter;
 import android.util.SparseBooleanArray;
 import android.view.ActionMode;
 import android.view.Menu;
@@ -71,6 +72,8 @@ public class IngestActivity extends Activity implements
   private Handler mHandler;
   private ProgressDialog mProgressDialog;
   private ActionMode mActiveActionMode;
+  // Version of the index results the checked positions refer to.
+  private int mSelectionResultsVersion;
 
   private View mWarningView;
   private TextView mWarningText;
@@ -187,6 +190,7 @@ public class IngestActivity extends Activity implements
       inflater.inflate(R.menu.ingest_menu_item_list_selection, menu);
       updateSelectedTitle(mode);
       mActiveActionMode = mode;
+      mSelectionResultsVersion = getResultsVersion();
       mActionMenuSwitcherItem = menu.findItem(R.id.ingest_switch_view);
       setSwitcherMenuState(mActionMenuSwitcherItem, mFullscreenPagerVisible);
       return true;
@@ -211,9 +215,14 @@ public class IngestActivity extends Activity implements
     int id = item.getItemId();
     if (id == R.id.ingest_import_items) {
       if (mActiveActionMode != null) {
-        mHelperService.importSelectedItems(
-            mGridView.getCheckedItemPositions(),
-            mAdapter);
+        // The index was published again since the items were checked, so their
+        // positions may point at other objects now. Finishing the action mode
+        // clears the selection.
+        if (mSelectionResultsVersion == getResultsVersion()) {
+          mHelperService.importSelectedItems(
+              mGridView.getCheckedItemPositions(),
+              mAdapter);
+        }
         mActiveActionMode.finish();
       }
       return true;
@@ -417,6 +426,11 @@ public class IngestActivity extends Activity implements
     }
   }
 
+  private int getResultsVersion() {
+    MtpDeviceIndex index = mAdapter.getMtpDeviceIndex();
+    return (index != null) ? index.getResultsVersion() : 0;
+  }
+
   private void uiThreadNotifyIndexChanged() {
     mAdapter.notifyDataSetChanged();
     if (mActiveActionMode != null) {
@@ -474,12 +488,16 @@ public class IngestActivity extends Activity implements
 
   @Override
   public void onImportProgress(final int visitedCount, final int totalCount,
-      String pathIfSuccessful) {
+      String pathIfSuccessful, long bytesPerSecond) {
     // Not guaranteed to be called on the UI thread
     mProgressState.reset();
     mProgressState.max = totalCount;
     mProgressState.current = visitedCount;
     mProgressState.title = getResources().getString(R.string.ingest_importing);
+    if (bytesPerSecond > 0) {
+      mProgressState.message = getResources().getString(R.string.ingest_import_speed,
+          Formatter.formatFileSize(this, bytesPerSecond));
+    }
     mHandler.sendEmptyMessage(ItemListHandler.MSG_PROGRESS_UPDATE);
     mHandler.removeMessages(ItemListHandler.MSG_PROGRESS_INDETERMINATE);
     mHandler.sendEmptyMessageDelayed(ItemListHandler.MSG_PROGRESS_INDETERMINATE,
@@ -17,10 +17,18 @@
 package com.android.gallery3d.ingest;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.app.GalleryApp;
+import com.android.gallery3d.data.DataManager;
+import com.android.gallery3d.data.MediaItem;
+import com.android.gallery3d.data.MediaObject;
+import com.android.gallery3d.data.Path;
 import com.android.gallery3d.ingest.data.ImportTask;
 import com.android.gallery3d.ingest.data.IngestObjectInfo;
 import com.android.gallery3d.ingest.data.MtpClient;
 import com.android.gallery3d.ingest.data.MtpDeviceIndex;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import android.annotation.TargetApi;
 import android.app.NotificationManager;
@@ -38,6 +46,7 @@ import android.os.Build;
 import android.os.IBinder;
 import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
+import android.text.format.Formatter;
 import android.util.SparseBooleanArray;
 import android.widget.Adapter;
 
@@ -91,6 +100,7 @@ public class IngestService extends Service implements ImportTask.Listener,
         .setContentIntent(PendingIntent.getActivity(this, 0,
             new Intent(this, IngestActivity.class), 0));
     mIndex = MtpDeviceIndex.getInstance();
+    mIndex.setSnapshotDirectory(getCacheDir());
     mIndex.setProgressListener(this);
 
     mClient = new MtpClient(getApplicationContext());
@@ -221,16 +231,19 @@ public class IngestService extends Service implements ImportTask.Listener,
 
   @Override
   public void onImportProgress(int visitedCount, int totalCount,
-      String pathIfSuccessful) {
+      String pathIfSuccessful, long bytesPerSecond) {
     if (pathIfSuccessful != null) {
       mScannerClient.scanPath(pathIfSuccessful);
     }
     mNeedRelaunchNotification = false;
     if (mClientActivity != null) {
-      mClientActivity.onImportProgress(visitedCount, totalCount, pathIfSuccessful);
+      mClientActivity.onImportProgress(visitedCount, totalCount, pathIfSuccessful,
+          bytesPerSecond);
     }
     mNotificationBuilder.setProgress(totalCount, visitedCount, false)
-        .setContentText(getResources().getText(R.string.ingest_importing));
+        .setContentText(getResources().getText(R.string.ingest_importing))
+        .setContentInfo(bytesPerSecond > 0 ? getString(R.string.ingest_import_speed,
+            Formatter.formatFileSize(this, bytesPerSecond)) : null);
     mNotificationManager.notify(R.id.ingest_notification_importing,
         mNotificationBuilder.build());
   }
@@ -239,6 +252,7 @@ public class IngestService extends Service implements ImportTask.Listener,
   public void onImportFinish(Collection<IngestObjectInfo> objectsNotImported,
       int visitedCount) {
     stopForeground(true);
+    mNotificationBuilder.setContentInfo(null);
     mNeedRelaunchNotification = true;
     if (mClientActivity != null) {
       mClientActivity.onImportFinish(objectsNotImported, visitedCount);
@@ -296,11 +310,13 @@ public class IngestService extends Service implements ImportTask.Listener,
   private static final class ScannerClient implements MediaScannerConnectionClient {
     ArrayList<String> mPaths = new ArrayList<String>();
     MediaScannerConnection mScannerConnection;
+    GalleryApp mApplication;
     boolean mConnected;
     Object mLock = new Object();
 
     public ScannerClient(Context context) {
       mScannerConnection = new MediaScannerConnection(context, this);
+      mApplication = (GalleryApp) context.getApplicationContext();
     }
 
     public void scanPath(String path) {
@@ -329,6 +345,39 @@ public class IngestService extends Service implements ImportTask.Listener,
 
     @Override
     public void onScanCompleted(String path, Uri uri) {
+      // Generate the thumbnails of the imported image while the next files are copied, so
+      // that the gallery shows them from the cache the first time.
+      DataManager manager = mApplication.getDataManager();
+      Path itemPath = manager.findPathByUri(uri, null);
+      if (itemPath == null) {
+        return;
+      }
+      MediaObject object = manager.getMediaObject(itemPath);
+      if (object instanceof MediaItem) {
+        mApplication.getThreadPool().submit(new ThumbnailJob((MediaItem) object), null,
+            ThreadPool.PRIORITY_LOW);
+      }
+    }
+  }
+
+  // Runs the thumbnail requests of an item, which store their results in the image cache.
+  private static final class ThumbnailJob implements Job<Void> {
+    private final MediaItem mItem;
+
+    public ThumbnailJob(MediaItem item) {
+      mItem = item;
+    }
+
+    @Override
+    public Void run(JobContext jc) {
+      int[] types = {MediaItem.TYPE_MICROTHUMBNAIL, MediaItem.TYPE_THUMBNAIL};
+      for (int type : types) {
+        if (jc.isCancelled()) {
+          return null;
+        }
+        mItem.requestImage(type).run(jc);
+      }
+      return null;
     }
   }
 }
@@ -23,6 +23,7 @@ import android.os.Build;
 import android.os.Environment;
 import android.os.PowerManager;
 import android.os.StatFs;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.File;
@@ -32,6 +33,10 @@ import java.util.List;
 
 /**
  * Task that handles the copying of items from an MTP device.
+ * <p>
+ * This task only runs the MTP transfers. Each imported file is reported to the listener as
+ * soon as it is copied, so the listener can scan it into the media store and generate its
+ * thumbnails on other threads while the next file is transferred.
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
 public class ImportTask implements Runnable {
@@ -42,7 +47,12 @@ public class ImportTask implements Runnable {
    * Import progress listener.
    */
   public interface Listener {
-    void onImportProgress(int visitedCount, int totalCount, String pathIfSuccessful);
+    /**
+     * @param bytesPerSecond average transfer rate of the files imported so far, or 0 if none
+     *     has been imported yet
+     */
+    void onImportProgress(int visitedCount, int totalCount, String pathIfSuccessful,
+        long bytesPerSecond);
 
     void onImportFinish(Collection<IngestObjectInfo> objectsNotImported, int visitedCount);
   }
@@ -75,15 +85,24 @@ public class ImportTask implements Runnable {
       List<IngestObjectInfo> objectsNotImported = new LinkedList<IngestObjectInfo>();
       int visited = 0;
       int total = mObjectsToImport.size();
-      mListener.onImportProgress(visited, total, null);
+      mListener.onImportProgress(visited, total, null, 0);
       File dest = new File(Environment.getExternalStorageDirectory(), mDestAlbumName);
       dest.mkdirs();
+      // Query the free space once for the whole batch, and take the size of each imported
+      // file off it, rather than asking the file system again for every file.
+      long availableSpace = getAvailableSpace();
+      long importedBytes = 0;
+      long startTime = SystemClock.elapsedRealtime();
       for (IngestObjectInfo object : mObjectsToImport) {
         visited++;
         String importedPath = null;
-        if (hasSpaceForSize(object.getCompressedSize())) {
+        long size = object.getCompressedSize();
+        if (availableSpace > size) {
           importedPath = new File(dest, object.getName(mDevice)).getAbsolutePath();
-          if (!mDevice.importFile(object.getObjectHandle(), importedPath)) {
+          if (mDevice.importFile(object.getObjectHandle(), importedPath)) {
+            availableSpace -= size;
+            importedBytes += size;
+          } else {
             importedPath = null;
           }
         }
@@ -91,7 +110,9 @@ public class ImportTask implements Runnable {
           objectsNotImported.add(object);
         }
         if (mListener != null) {
-          mListener.onImportProgress(visited, total, importedPath);
+          long elapsed = Math.max(SystemClock.elapsedRealtime() - startTime, 1);
+          mListener.onImportProgress(visited, total, importedPath,
+              importedBytes * 1000 / elapsed);
         }
       }
       if (mListener != null) {
@@ -103,19 +124,19 @@ public class ImportTask implements Runnable {
     }
   }
 
-  private static boolean hasSpaceForSize(long size) {
+  private static long getAvailableSpace() {
     String state = Environment.getExternalStorageState();
     if (!Environment.MEDIA_MOUNTED.equals(state)) {
-      return false;
+      return 0;
     }
 
     String path = Environment.getExternalStorageDirectory().getPath();
     try {
       StatFs stat = new StatFs(path);
-      return stat.getAvailableBlocks() * (long) stat.getBlockSize() > size;
+      return stat.getAvailableBlocks() * (long) stat.getBlockSize();
     } catch (Exception e) {
       Log.i(TAG, "Fail to access external storage", e);
     }
-    return false;
+    return 0;
   }
 }
@@ -5,6 +5,7 @@ import android.mtp.MtpConstants;
 import android.mtp.MtpDevice;
 import android.os.Build;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -99,6 +100,8 @@ public class MtpDeviceIndex {
   private long mGeneration;
   private ProgressListener mProgressListener;
   private volatile MtpDeviceIndexRunnable.Results mResults;
+  private int mResultsVersion;
+  private File mSnapshotDirectory;
   private final MtpDeviceIndexRunnable.Factory mIndexRunnableFactory;
 
   private static final MtpDeviceIndex sInstance = new MtpDeviceIndex(
@@ -144,6 +147,20 @@ public class MtpDeviceIndex {
     resetState();
   }
 
+  /**
+   * Sets the directory where the index of each device is kept between connections, so
+   * that the index of a device seen before is available before indexing is done.
+   *
+   * @param directory Directory for the index snapshots, or null to not keep them
+   */
+  public synchronized void setSnapshotDirectory(File directory) {
+    mSnapshotDirectory = directory;
+  }
+
+  protected synchronized File getSnapshotDirectory() {
+    return mSnapshotDirectory;
+  }
+
   /**
    * Provides a Runnable for the indexing task (assuming the state has already
    * been correctly initialized by calling {@link #setDevice(MtpDevice)}).
@@ -164,6 +181,15 @@ public class MtpDeviceIndex {
     return mResults != null;
   }
 
+  /**
+   * @return A number that changes whenever the positions of the index may point at other
+   *     objects, such as when the index of a device is published again after objects were
+   *     added to or removed from it.
+   */
+  public synchronized int getResultsVersion() {
+    return mResultsVersion;
+  }
+
   /**
    * @param listener
    * @return Current progress (useful for configuring initial UI state)
@@ -385,6 +411,7 @@ public class MtpDeviceIndex {
   protected void resetState() {
     mGeneration++;
     mResults = null;
+    mResultsVersion++;
   }
 
   /**
@@ -402,6 +429,7 @@ public class MtpDeviceIndex {
       return false;
     }
     mResults = results;
+    mResultsVersion++;
     onIndexFinish(true /*successful*/);
     return true;
   }
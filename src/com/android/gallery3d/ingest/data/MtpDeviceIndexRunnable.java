@@ -6,6 +6,7 @@ import android.mtp.MtpDevice;
 import android.mtp.MtpObjectInfo;
 import android.os.Build;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -35,6 +36,11 @@ import java.util.TreeMap;
  *  item in a bucket as needed. The individual IndexBUckets have a startIndex and endIndex
  *  that correspond to indices in this lookup index array, allowing us to calculate the
  *  offset of the specific item we want from within a specific bucket.
+ *
+ * If the device was indexed before, the objects found then are read from its
+ * {@link MtpDeviceIndexSnapshot} and published right away, while the device is walked again.
+ * Only the objects not in the snapshot need their info to be fetched from the device, and
+ * the index is published a second time only if objects were added or removed since.
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
 public class MtpDeviceIndexRunnable implements Runnable {
@@ -70,6 +76,17 @@ public class MtpDeviceIndexRunnable implements Runnable {
   protected final MtpDeviceIndex mIndex;
   private final long mIndexGeneration;
 
+  private MtpDeviceIndexSnapshot mSnapshot;
+  private MtpDeviceIndexSnapshot.Builder mSnapshotBuilder;
+  private boolean mShowingSnapshot;
+  private int mNumSnapshotObjectsVisited;
+  private int mNumNewObjects;
+
+  /**
+   * Number of objects of the snapshot checked against the device before trusting it.
+   */
+  private static final int SNAPSHOT_SAMPLE_SIZE = 16;
+
   private static Factory sDefaultFactory = new Factory();
 
   public static Factory getFactory() {
@@ -98,10 +115,55 @@ public class MtpDeviceIndexRunnable implements Runnable {
   }
 
   private void indexDevice() throws IndexingException {
+    File snapshotFile = MtpDeviceIndexSnapshot.getFile(mIndex.getSnapshotDirectory(), mDevice);
+    mSnapshot = MtpDeviceIndexSnapshot.read(snapshotFile);
+    if (mSnapshot != null && !isSnapshotValid(mSnapshot)) {
+      mSnapshot = null;
+    }
+    mSnapshotBuilder = new MtpDeviceIndexSnapshot.Builder();
+    if (mSnapshot != null) {
+      SortedMap<SimpleDate, List<IngestObjectInfo>> cachedBucketsTemp =
+          new TreeMap<SimpleDate, List<IngestObjectInfo>>();
+      int numCachedObjects = 0;
+      for (int i = 0; i < mSnapshot.size(); i++) {
+        if (mIndex.isFormatSupported(mSnapshot.getFormat(i))) {
+          numCachedObjects++;
+          addToBucket(mSnapshot.getObjectInfo(i), cachedBucketsTemp);
+        }
+      }
+      if (!mIndex.setIndexingResults(mDevice, mIndexGeneration,
+          buildResults(cachedBucketsTemp, numCachedObjects))) {
+        throw new IndexingException();
+      }
+      mShowingSnapshot = true;
+    }
+
     SortedMap<SimpleDate, List<IngestObjectInfo>> bucketsTemp =
         new TreeMap<SimpleDate, List<IngestObjectInfo>>();
     int numObjects = addAllObjects(bucketsTemp);
-    mIndex.onSorting();
+    boolean changed = mSnapshot == null || mNumNewObjects > 0
+        || mNumSnapshotObjectsVisited != mSnapshot.size();
+    if (!changed) {
+      // The published snapshot already matches the device.
+      if (!mIndex.isAtGeneration(mDevice, mIndexGeneration)) {
+        throw new IndexingException();
+      }
+      return;
+    }
+    if (!mShowingSnapshot) {
+      mIndex.onSorting();
+    }
+    if (!mIndex.setIndexingResults(mDevice, mIndexGeneration,
+        buildResults(bucketsTemp, numObjects))) {
+      throw new IndexingException();
+    }
+    if (snapshotFile != null) {
+      mSnapshotBuilder.build().write(snapshotFile);
+    }
+  }
+
+  private Results buildResults(SortedMap<SimpleDate, List<IngestObjectInfo>> bucketsTemp,
+      int numObjects) {
     int numBuckets = bucketsTemp.size();
     DateBucket[] buckets = new DateBucket[numBuckets];
     IngestObjectInfo[] mtpObjects = new IngestObjectInfo[numObjects];
@@ -131,16 +193,21 @@ public class MtpDeviceIndexRunnable implements Runnable {
           itemsStartIndex, numBucketObjects);
       i++;
     }
-    if (!mIndex.setIndexingResults(mDevice, mIndexGeneration,
-        new Results(unifiedLookupIndex, mtpObjects, buckets))) {
-      throw new IndexingException();
-    }
+    return new Results(unifiedLookupIndex, mtpObjects, buckets);
   }
 
   private SimpleDate mDateInstance = new SimpleDate();
 
   protected void addObject(IngestObjectInfo objectInfo,
       SortedMap<SimpleDate, List<IngestObjectInfo>> bucketsTemp, int numObjects) {
+    addToBucket(objectInfo, bucketsTemp);
+    if (!mShowingSnapshot) {
+      mIndex.onObjectIndexed(objectInfo, numObjects);
+    }
+  }
+
+  private void addToBucket(IngestObjectInfo objectInfo,
+      SortedMap<SimpleDate, List<IngestObjectInfo>> bucketsTemp) {
     mDateInstance.setTimestamp(objectInfo.getDateCreated());
     List<IngestObjectInfo> bucket = bucketsTemp.get(mDateInstance);
     if (bucket == null) {
@@ -149,7 +216,6 @@ public class MtpDeviceIndexRunnable implements Runnable {
       mDateInstance = new SimpleDate(); // only create new date objects when they are used
     }
     bucket.add(objectInfo);
-    mIndex.onObjectIndexed(objectInfo, numObjects);
   }
 
   protected int addAllObjects(SortedMap<SimpleDate, List<IngestObjectInfo>> bucketsTemp)
@@ -167,20 +233,65 @@ public class MtpDeviceIndexRunnable implements Runnable {
         }
         int dirHandle = pendingDirectories.pop();
         for (int objectHandle : mDevice.getObjectHandles(storageId, 0, dirHandle)) {
-          MtpObjectInfo mtpObjectInfo = mDevice.getObjectInfo(objectHandle);
-          if (mtpObjectInfo == null) {
-            throw new IndexingException();
-          }
-          int format = mtpObjectInfo.getFormat();
+          IngestObjectInfo objectInfo = getObjectInfo(objectHandle);
+          int format = objectInfo.getFormat();
           if (format == MtpConstants.FORMAT_ASSOCIATION) {
             pendingDirectories.add(objectHandle);
           } else if (mIndex.isFormatSupported(format)) {
             numObjects++;
-            addObject(new IngestObjectInfo(mtpObjectInfo), bucketsTemp, numObjects);
+            addObject(objectInfo, bucketsTemp, numObjects);
           }
         }
       }
     }
     return numObjects;
   }
+
+  /**
+   * Devices may give the handles of removed objects to other objects, such as after the
+   * storage was formatted, so the info of objects spread over the snapshot is fetched again
+   * and compared to the snapshot. Objects no longer on the device are not a mismatch.
+   *
+   * @return whether the sampled objects of the snapshot still have the same info
+   */
+  private boolean isSnapshotValid(MtpDeviceIndexSnapshot snapshot) {
+    int size = snapshot.size();
+    int count = Math.min(size, SNAPSHOT_SAMPLE_SIZE);
+    for (int i = 0; i < count; i++) {
+      int position = (count > 1) ? (int) ((long) i * (size - 1) / (count - 1)) : 0;
+      MtpObjectInfo mtpObjectInfo = mDevice.getObjectInfo(snapshot.getHandle(position));
+      if (mtpObjectInfo == null) {
+        continue;
+      }
+      IngestObjectInfo cached = snapshot.getObjectInfo(position);
+      if (mtpObjectInfo.getFormat() != cached.getFormat()
+          || mtpObjectInfo.getDateCreated() != cached.getDateCreated()
+          || mtpObjectInfo.getCompressedSize() != cached.getCompressedSize()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the info of the object from the snapshot if it is in it, or from the device
+   */
+  private IngestObjectInfo getObjectInfo(int objectHandle) throws IndexingException {
+    IngestObjectInfo objectInfo;
+    int position = (mSnapshot != null) ? mSnapshot.indexOf(objectHandle) : -1;
+    if (position >= 0) {
+      mNumSnapshotObjectsVisited++;
+      objectInfo = mSnapshot.getObjectInfo(position);
+    } else {
+      MtpObjectInfo mtpObjectInfo = mDevice.getObjectInfo(objectHandle);
+      if (mtpObjectInfo == null) {
+        throw new IndexingException();
+      }
+      mNumNewObjects++;
+      objectInfo = new IngestObjectInfo(mtpObjectInfo);
+    }
+    mSnapshotBuilder.add(objectHandle, objectInfo.getDateCreated(), objectInfo.getFormat(),
+        objectInfo.getCompressedSize());
+    return objectInfo;
+  }
 }
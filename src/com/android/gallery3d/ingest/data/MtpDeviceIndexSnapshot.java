@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.ingest.data;
+
+import android.annotation.TargetApi;
+import android.mtp.MtpDevice;
+import android.mtp.MtpDeviceInfo;
+import android.os.Build;
+import android.util.Log;
+
+import com.android.gallery3d.common.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The objects found on an MTP device when it was last indexed, so that indexing the same
+ * device again only has to fetch the info of the objects added since.
+ *
+ * Every object visited is kept, directories and unsupported formats included, in primitive
+ * arrays sorted by object handle. The snapshot of a device is stored in a file named after
+ * its serial number.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+class MtpDeviceIndexSnapshot {
+
+  private static final String TAG = "MtpDeviceIndexSnapshot";
+
+  private static final String FILE_PREFIX = "mtp_index_";
+  private static final int MAGIC = 0x4d545049; // "MTPI"
+  private static final int VERSION = 1;
+
+  private final int[] mHandles;
+  private final long[] mDates;
+  private final int[] mFormats;
+  private final int[] mSizes;
+
+  private MtpDeviceIndexSnapshot(int[] handles, long[] dates, int[] formats, int[] sizes) {
+    mHandles = handles;
+    mDates = dates;
+    mFormats = formats;
+    mSizes = sizes;
+  }
+
+  public int size() {
+    return mHandles.length;
+  }
+
+  /**
+   * @return position of the object in the snapshot, or a negative value if it is not in it
+   */
+  public int indexOf(int handle) {
+    return Arrays.binarySearch(mHandles, handle);
+  }
+
+  public int getHandle(int position) {
+    return mHandles[position];
+  }
+
+  public int getFormat(int position) {
+    return mFormats[position];
+  }
+
+  public IngestObjectInfo getObjectInfo(int position) {
+    return new IngestObjectInfo(mHandles[position], mDates[position], mFormats[position],
+        mSizes[position]);
+  }
+
+  /**
+   * @return the file holding the snapshot of the device, or null if the device has no serial
+   *     number to tell it from others
+   */
+  public static File getFile(File directory, MtpDevice device) {
+    if (directory == null || device == null) {
+      return null;
+    }
+    MtpDeviceInfo info = device.getDeviceInfo();
+    String serial = (info != null) ? info.getSerialNumber() : null;
+    if (serial == null || serial.isEmpty()) {
+      return null;
+    }
+    return new File(directory, FILE_PREFIX + Long.toHexString(Utils.crc64Long(serial)));
+  }
+
+  /**
+   * @return the snapshot stored in the file, or null if there is none or it cannot be read
+   */
+  public static MtpDeviceIndexSnapshot read(File file) {
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      int count = in.readInt();
+      if (count < 0) {
+        return null;
+      }
+      int[] handles = new int[count];
+      long[] dates = new long[count];
+      int[] formats = new int[count];
+      int[] sizes = new int[count];
+      for (int i = 0; i < count; i++) {
+        handles[i] = in.readInt();
+        dates[i] = in.readLong();
+        formats[i] = in.readInt();
+        sizes[i] = in.readInt();
+      }
+      return new MtpDeviceIndexSnapshot(handles, dates, formats, sizes);
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot read index snapshot " + file, e);
+      return null;
+    } finally {
+      Utils.closeSilently(in);
+    }
+  }
+
+  /**
+   * Writes the snapshot to the file, replacing the previous one.
+   */
+  public void write(File file) {
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(mHandles.length);
+      for (int i = 0; i < mHandles.length; i++) {
+        out.writeInt(mHandles[i]);
+        out.writeLong(mDates[i]);
+        out.writeInt(mFormats[i]);
+        out.writeInt(mSizes[i]);
+      }
+      out.close();
+      out = null;
+      if (!temp.renameTo(file)) {
+        Log.w(TAG, "Cannot replace index snapshot " + file);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot write index snapshot " + file, e);
+    } finally {
+      Utils.closeSilently(out);
+      temp.delete();
+    }
+  }
+
+  /**
+   * Collects the objects visited while indexing a device.
+   */
+  public static class Builder {
+    private int mCount;
+    private int[] mHandles = new int[64];
+    private long[] mDates = new long[64];
+    private int[] mFormats = new int[64];
+    private int[] mSizes = new int[64];
+
+    public void add(int handle, long date, int format, int size) {
+      if (mCount == mHandles.length) {
+        int capacity = mCount * 2;
+        mHandles = Arrays.copyOf(mHandles, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mFormats = Arrays.copyOf(mFormats, capacity);
+        mSizes = Arrays.copyOf(mSizes, capacity);
+      }
+      mHandles[mCount] = handle;
+      mDates[mCount] = date;
+      mFormats[mCount] = format;
+      mSizes[mCount] = size;
+      mCount++;
+    }
+
+    public MtpDeviceIndexSnapshot build() {
+      // Sort the positions by handle, keeping the position in the low bits.
+      long[] order = new long[mCount];
+      for (int i = 0; i < mCount; i++) {
+        order[i] = ((long) mHandles[i] << 32) | i;
+      }
+      Arrays.sort(order);
+      int[] handles = new int[mCount];
+      long[] dates = new long[mCount];
+      int[] formats = new int[mCount];
+      int[] sizes = new int[mCount];
+      for (int i = 0; i < mCount; i++) {
+        int position = (int) order[i];
+        handles[i] = mHandles[position];
+        dates[i] = mDates[position];
+        formats[i] = mFormats[position];
+        sizes[i] = mSizes[position];
+      }
+      return new MtpDeviceIndexSnapshot(handles, dates, formats, sizes);
+    }
+  }
+}
@@ -29,8 +29,10 @@
 
 package com.android.gallery3d.mpo;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,9 +42,14 @@ import java.nio.channels.FileChannel;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.provider.MediaStore.MediaColumns;
 import android.util.Log;
 
+import com.android.gallery3d.common.LruCache;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.exif.CountedDataInputStream;
 import com.android.gallery3d.filtershow.tools.DualCameraNativeEngine;
@@ -50,6 +57,14 @@ import com.android.gallery3d.filtershow.tools.DualCameraNativeEngine;
 public class MpoParser {
     private static final String LOGTAG = "MpoParser";
     private static final int MP_INDEX_FIELD_SIZE_BYTES = 12;
+    private static final int MP_INDEX_CACHE_SIZE = 8;
+    private static final int MARKER_SIZE = 2;
+
+    // The MP index of the files parsed recently, so that opening the same
+    // image again does not scan its segments again. An entry is used only if
+    // the file still has the same size and modification time.
+    private static final LruCache<String, MpIndex> sIndexCache =
+            new LruCache<String, MpIndex>(MP_INDEX_CACHE_SIZE);
 
     protected static final short LITTLE_ENDIAN_TAG = 0x4949; // "II"
     protected static final short BIG_ENDIAN_TAG = 0x4d4d; // "MM"
@@ -72,19 +87,39 @@ public class MpoParser {
         InputStream is = null;
         try {
             is = mContentResolver.openInputStream(mUri);
-            // seek to mp header
-            if((mMpHeaderOffset = seekToMpData(is)) == -1)
+            long fileSize = -1;
+            long lastModified = 0;
+            if (is instanceof FileInputStream) {
+                fileSize = ((FileInputStream) is).getChannel().size();
+                lastModified = getLastModified();
+            }
+            boolean cacheable = fileSize != -1 && lastModified != 0;
+            MpIndex index = sIndexCache.get(mUri.toString());
+            if (index != null && cacheable && index.mFileSize == fileSize
+                    && index.mLastModified == lastModified) {
+                mMpHeaderOffset = index.mMpHeaderOffset;
+                mPrimaryEntry = index.mPrimaryEntry;
+                mSecondaryEntry = index.mSecondaryEntry;
                 return;
+            }
 
-            // read mp header
-            mDataStream = new CountedDataInputStream(is);
-            readMpHeader();
+            // seek to mp header
+            if((mMpHeaderOffset = seekToMpData(is)) != -1) {
+                // read mp header
+                mDataStream = new CountedDataInputStream(is);
+                readMpHeader();
+
+                // read mp index ifd
+                readMpIndexIfdData();
 
-            // read mp index ifd
-            readMpIndexIfdData();
+                // read mp entries
+                readMpEntryData();
+            }
 
-            // read mp entries
-            readMpEntryData();
+            if (cacheable) {
+                sIndexCache.put(mUri.toString(), new MpIndex(fileSize, lastModified,
+                        mMpHeaderOffset, mPrimaryEntry, mSecondaryEntry));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -96,6 +131,29 @@ public class MpoParser {
         return new MpoParser(context, uri);
     }
 
+    // Returns the modification time of the file behind mUri, or 0 if it is
+    // not known.
+    private long getLastModified() {
+        String path = null;
+        if (ContentResolver.SCHEME_FILE.equals(mUri.getScheme())) {
+            path = mUri.getPath();
+        } else if (ContentResolver.SCHEME_CONTENT.equals(mUri.getScheme())) {
+            Cursor cursor = null;
+            try {
+                cursor = mContentResolver.query(mUri,
+                        new String[] {MediaColumns.DATA}, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    path = cursor.getString(0);
+                }
+            } catch (RuntimeException e) {
+                // The provider has no file path for the uri.
+            } finally {
+                Utils.closeSilently(cursor);
+            }
+        }
+        return (path == null) ? 0 : new File(path).lastModified();
+    }
+
     private int seekToMpData(InputStream inputStream) throws IOException {
         CountedDataInputStream dataStream = new CountedDataInputStream(inputStream);
         if (dataStream.readShort() != MpoHeader.SOI) {
@@ -163,74 +221,107 @@ public class MpoParser {
         return mPrimaryEntry;
     }
 
-    public byte[] readImgData(boolean primary) {
-        MpEntry mpEntry = null;
-        byte[] data = null;
-
-        if(primary) {
-            mpEntry = mPrimaryEntry;
-        } else {
-            mpEntry = mSecondaryEntry;
+    /**
+     * Opens a stream over the JPEG data of the primary or secondary image,
+     * without reading it into memory. The file is positioned at the image, and
+     * the stream ends with it. If the size in the MP entry does not end at an
+     * EOI marker, the stream runs to the end of the file, where the decoder
+     * stops at the EOI anyway.
+     *
+     * @return the stream, which the caller must close, or null if the entry
+     *         does not point at a JPEG image.
+     */
+    public InputStream openImgStream(boolean primary) {
+        MpEntry mpEntry = primary ? mPrimaryEntry : mSecondaryEntry;
+        if (mpEntry == null || mpEntry.mImgSize < 2 * MARKER_SIZE) {
+            return null;
         }
-
-        if(mpEntry == null)
-            return data;
+        long start = (mpEntry.mImgDataOffset > 0)
+                ? mpEntry.mImgDataOffset + mMpHeaderOffset : mpEntry.mImgDataOffset;
 
         InputStream is = null;
-        ByteArrayOutputStream baos = null;
         try {
             is = mContentResolver.openInputStream(mUri);
-            data = new byte[mpEntry.mImgSize];
-
-            is.skip((mpEntry.mImgDataOffset>0)?mpEntry.mImgDataOffset + mMpHeaderOffset : mpEntry.mImgDataOffset);
-            if(is.read(data) == -1) {
-                Log.d(LOGTAG, "read EOF. invalid offset/size");
-                data = null;
-            } else {
-                // verify we have well formed jpeg data
-                ByteBuffer buffer = ByteBuffer.wrap(data);
-                if(buffer.getShort(0) != MpoHeader.SOI) {
+            long length = mpEntry.mImgSize;
+            if (is instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) is).getChannel();
+                long fileSize = channel.size();
+                if (start + length > fileSize) {
+                    Log.d(LOGTAG, "read EOF. invalid offset/size");
+                    return null;
+                }
+                if (readMarker(channel, start) != MpoHeader.SOI) {
                     Log.d(LOGTAG, "non valid SOI. offset incorrect.");
-                    data = null;
-                } else if(buffer.getShort(buffer.limit() - 2) != MpoHeader.EOI) {
-                    Log.d(LOGTAG, "non valid EOI. size incorrect. attempting to read further till EOI");
-                    baos = new ByteArrayOutputStream(data.length);
-                    baos.write(data);
-
-                    byte[] readArray = new byte[2];
-                    ByteBuffer readBuf = ByteBuffer.wrap(readArray);
-
-                    readArray[0] = data[data.length-2];
-                    readArray[1] = data[data.length-1];
-
-                    data = null;
-
-                    boolean validJpg = true;
-                    while(readBuf.getShort(0) != MpoHeader.EOI) {
-                        int read = is.read();
-                        if(read == -1) {
-                            Log.d(LOGTAG, "reached EOF before EOI. invalid file");
-                            validJpg = false;
-                            break;
-                        }
-                        readArray[0] = readArray[1];
-                        readArray[1] = (byte) (read & 0xFF);
-
-                        baos.write(read);
+                    return null;
+                }
+                if (readMarker(channel, start + length - MARKER_SIZE) != MpoHeader.EOI) {
+                    Log.d(LOGTAG, "non valid EOI. size incorrect. reading till end of file");
+                    length = fileSize - start;
+                }
+                channel.position(start);
+            } else {
+                for (long remaining = start; remaining > 0; ) {
+                    long skipped = is.skip(remaining);
+                    if (skipped <= 0) {
+                        Log.d(LOGTAG, "read EOF. invalid offset/size");
+                        return null;
                     }
-
-                    if(validJpg)
-                        data = baos.toByteArray();
+                    remaining -= skipped;
+                }
+                is = new BufferedInputStream(is);
+                is.mark(MARKER_SIZE);
+                CountedDataInputStream dataStream = new CountedDataInputStream(is);
+                if (dataStream.readShort() != MpoHeader.SOI) {
+                    Log.d(LOGTAG, "non valid SOI. offset incorrect.");
+                    return null;
                 }
+                is.reset();
             }
+            InputStream result = new EntryInputStream(is, length);
+            is = null;
+            return result;
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        } finally {
+            Utils.closeSilently(is);
+        }
+    }
+
+    /**
+     * Returns whether the primary or secondary image can be read.
+     */
+    public boolean hasImgData(boolean primary) {
+        InputStream is = openImgStream(primary);
+        Utils.closeSilently(is);
+        return is != null;
+    }
+
+    /**
+     * Decodes the primary or secondary image straight from the file.
+     *
+     * @return the bitmap, or null if the image cannot be read.
+     */
+    public Bitmap decodeImg(boolean primary, BitmapFactory.Options options) {
+        InputStream is = openImgStream(primary);
+        if (is == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(is, null, options);
         } finally {
             Utils.closeSilently(is);
-            Utils.closeSilently(baos);
         }
+    }
 
-        return data;
+    private static short readMarker(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MARKER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                return 0;
+            }
+        }
+        return buffer.getShort(0);
     }
 
     public static String getDepthmapFilepath(String mpoFilepath) {
@@ -281,11 +372,71 @@ public class MpoParser {
         return depthMap;
     }
 
-    class MpEntry {
+    static class MpEntry {
         int mImgAttribute;
         int mImgSize;
         int mImgDataOffset;
         short mDepImg1Entry;
         short mDepImg2Entry;
     }
+
+    private static class MpIndex {
+        final long mFileSize;
+        final long mLastModified;
+        final int mMpHeaderOffset;
+        final MpEntry mPrimaryEntry;
+        final MpEntry mSecondaryEntry;
+
+        MpIndex(long fileSize, long lastModified, int mpHeaderOffset,
+                MpEntry primaryEntry, MpEntry secondaryEntry) {
+            mFileSize = fileSize;
+            mLastModified = lastModified;
+            mMpHeaderOffset = mpHeaderOffset;
+            mPrimaryEntry = primaryEntry;
+            mSecondaryEntry = secondaryEntry;
+        }
+    }
+
+    // Reads at most the given number of bytes from the underlying stream.
+    private static class EntryInputStream extends FilterInputStream {
+        private long mRemaining;
+
+        EntryInputStream(InputStream in, long length) {
+            super(in);
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0) return -1;
+            int b = in.read();
+            if (b != -1) mRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mRemaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, mRemaining));
+            if (n > 0) mRemaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, mRemaining));
+            if (skipped > 0) mRemaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), mRemaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
\ No newline at end of file
@@ -45,6 +45,7 @@ import com.android.gallery3d.glrenderer.TiledTexture;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.JobLimiter;
+import com.android.gallery3d.util.ThreadPool;
 
 public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
     @SuppressWarnings("unused")
@@ -168,6 +169,13 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         return mData[slotIndex % mData.length];
     }
 
+    // Slots on screen are loaded before the ones cached around them, and the
+    // most recently requested on-screen slots come first.
+    private int getJobPriority(int slotIndex) {
+        return isActiveSlot(slotIndex)
+                ? ThreadPool.PRIORITY_VIEWPORT : ThreadPool.PRIORITY_LOW;
+    }
+
     public boolean isActiveSlot(int slotIndex) {
         return slotIndex >= mActiveStart && slotIndex < mActiveEnd;
     }
@@ -451,7 +459,8 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         @Override
         protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l) {
             return mThreadPool.submit(
-                    mItem.requestImage(MediaItem.TYPE_MICROTHUMBNAIL), this);
+                    mItem.requestImage(MediaItem.TYPE_MICROTHUMBNAIL), this,
+                    getJobPriority(mSlotIndex));
         }
 
         @Override
@@ -543,7 +552,8 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
 
         @Override
         protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l) {
-            return mThreadPool.submit(mLabelMaker.requestLabel(mTitle), this);
+            return mThreadPool.submit(mLabelMaker.requestLabel(mTitle), this,
+                    getJobPriority(mSlotIndex));
         }
 
         @Override
@@ -55,6 +55,9 @@ public class MenuExecutor {
     private static final int MSG_TASK_START = 3;
     private static final int MSG_DO_SHARE = 4;
 
+    // The number of items deleted together, between two progress updates.
+    private static final int DELETE_BATCH_COUNT = 500;
+
     public static final int EXECUTION_RESULT_SUCCESS = 1;
     public static final int EXECUTION_RESULT_FAIL = 2;
     public static final int EXECUTION_RESULT_CANCEL = 3;
@@ -467,15 +470,19 @@ public class MenuExecutor {
             int result = EXECUTION_RESULT_SUCCESS;
             try {
                 onProgressStart(mListener);
-                for (Path id : mItems) {
-                    if (jc.isCancelled()) {
-                        result = EXECUTION_RESULT_CANCEL;
-                        break;
-                    }
-                    if (!execute(manager, jc, mOperation, id)) {
-                        result = EXECUTION_RESULT_FAIL;
+                if (isDeleteAction(mOperation)) {
+                    result = executeDelete(manager, jc);
+                } else {
+                    for (Path id : mItems) {
+                        if (jc.isCancelled()) {
+                            result = EXECUTION_RESULT_CANCEL;
+                            break;
+                        }
+                        if (!execute(manager, jc, mOperation, id)) {
+                            result = EXECUTION_RESULT_FAIL;
+                        }
+                        onProgressUpdate(index++, mListener);
                     }
-                    onProgressUpdate(index++, mListener);
                 }
             } catch (Throwable th) {
                 Log.e(TAG, "failed to execute operation " + mOperation
@@ -485,5 +492,28 @@ public class MenuExecutor {
             }
             return null;
         }
+
+        // Deletes the items in batches, so that each media source can delete
+        // a batch in a few database operations.
+        private int executeDelete(DataManager manager, JobContext jc) {
+            long startTime = System.currentTimeMillis();
+            int n = mItems.size();
+            for (int i = 0; i < n; i += DELETE_BATCH_COUNT) {
+                if (jc.isCancelled()) {
+                    return EXECUTION_RESULT_CANCEL;
+                }
+                int end = Math.min(n, i + DELETE_BATCH_COUNT);
+                manager.delete(new ArrayList<Path>(mItems.subList(i, end)));
+                onProgressUpdate(end - 1, mListener);
+            }
+            Log.v(TAG, "It takes " + (System.currentTimeMillis() - startTime) +
+                    " ms to delete " + n + " items");
+            return EXECUTION_RESULT_SUCCESS;
+        }
+    }
+
+    private static boolean isDeleteAction(int action) {
+        return action == R.id.action_delete
+                || action == R.id.photopage_bottom_control_delete;
     }
 }
@@ -32,10 +32,11 @@ import com.android.photos.data.GalleryBitmapPool;
 import com.android.gallery3d.glrenderer.GLCanvas;
 import com.android.gallery3d.glrenderer.UploadedTexture;
 import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.ThreadPool;
-import com.android.gallery3d.util.ThreadPool.CancelListener;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TileImageView extends GLView {
@@ -45,6 +46,11 @@ public class TileImageView extends GLView {
     private static final String TAG = "TileImageView";
     private static final int UPLOAD_LIMIT = 1;
 
+    // The maximum number of tiles decoded at the same time. Leave one core
+    // for the UI and GL threads.
+    public static final int MAX_DECODE_WORKERS = Math.max(1, Math.min(4,
+            Runtime.getRuntime().availableProcessors() - 1));
+
     // TILE_SIZE must be 2^N
     private static int sTileSize;
 
@@ -101,7 +107,7 @@ public class TileImageView extends GLView {
     // The following three queue is guarded by TileImageView.this
     private final TileQueue mRecycledQueue = new TileQueue();
     private final TileQueue mUploadQueue = new TileQueue();
-    private final TileQueue mDecodeQueue = new TileQueue();
+    private final DecodeQueue mDecodeQueue = new DecodeQueue();
 
     // The width and height of the full-sized bitmap
     protected int mImageWidth = SIZE_UNKNOWN;
@@ -118,10 +124,17 @@ public class TileImageView extends GLView {
 
     private final TileUploader mTileUploader = new TileUploader();
     private boolean mIsTextureFreed;
-    private Future<Void> mTileDecoder;
     private final ThreadPool mThreadPool;
     private boolean mBackgroundTileUploaded;
 
+    // Tiles are decoded by up to MAX_DECODE_WORKERS TileDecoder jobs. The
+    // jobs are started when tiles are queued, and end when the queue is
+    // empty. Guarded by TileImageView.this.
+    private final ArrayList<Future<Void>> mTileDecoders =
+            new ArrayList<Future<Void>>();
+    private int mDecodeWorkerCount;
+    private boolean mDecodePaused;
+
     public static interface TileSource {
         public int getLevelCount();
         public ScreenNail getScreenNail();
@@ -152,7 +165,6 @@ public class TileImageView extends GLView {
 
     public TileImageView(GalleryContext context) {
         mThreadPool = context.getThreadPool();
-        mTileDecoder = mThreadPool.submit(new TileDecoder());
         if (sTileSize == 0) {
             if (isHighResolution(context.getAndroidContext())) {
                 sTileSize = 512 ;
@@ -366,9 +378,12 @@ public class TileImageView extends GLView {
     public void freeTextures() {
         mIsTextureFreed = true;
 
-        if (mTileDecoder != null) {
-            mTileDecoder.cancel();
-            mTileDecoder = null;
+        synchronized (this) {
+            mDecodePaused = true;
+            for (Future<Void> decoder : mTileDecoders) {
+                decoder.cancel();
+            }
+            mTileDecoders.clear();
         }
 
         int n = mActiveTiles.size();
@@ -392,8 +407,9 @@ public class TileImageView extends GLView {
     }
 
     public void prepareTextures() {
-        if (mTileDecoder == null) {
-            mTileDecoder = mThreadPool.submit(new TileDecoder());
+        synchronized (this) {
+            mDecodePaused = false;
+            startDecodeWorkers();
         }
         if (mIsTextureFreed) {
             layoutTiles(mCenterX, mCenterY, mScale, mRotation);
@@ -483,7 +499,36 @@ public class TileImageView extends GLView {
     synchronized void queueForDecode(Tile tile) {
         if (tile.mTileState == STATE_ACTIVATED) {
             tile.mTileState = STATE_IN_QUEUE;
-            if (mDecodeQueue.push(tile)) notifyAll();
+            mDecodeQueue.push(tile, getDecodePriority(tile));
+            startDecodeWorkers();
+        }
+    }
+
+    // Tiles of the level on display are decoded first, then the tiles of
+    // the other levels. Tiles of the same level are decoded in the order of
+    // their distance to the center of the view.
+    private long getDecodePriority(Tile tile) {
+        int half = (sTileSize << tile.mTileLevel) / 2;
+        long dx = tile.mX + half - mCenterX;
+        long dy = tile.mY + half - mCenterY;
+        long distance = Math.min(dx * dx + dy * dy, (1L << 48) - 1);
+        return ((long) Math.abs(tile.mTileLevel - mLevel) << 48) | distance;
+    }
+
+    // Starts more TileDecoders if there are more queued tiles than running
+    // decoders. Called with TileImageView.this locked.
+    private void startDecodeWorkers() {
+        if (mDecodePaused) return;
+        int n = Math.min(MAX_DECODE_WORKERS, mDecodeQueue.size());
+        if (mDecodeWorkerCount >= n) return;
+        for (int i = mTileDecoders.size() - 1; i >= 0; i--) {
+            if (mTileDecoders.get(i).isDone()) mTileDecoders.remove(i);
+        }
+        while (mDecodeWorkerCount < n) {
+            TileDecoder decoder = new TileDecoder();
+            mDecodeWorkerCount++;
+            mTileDecoders.add(mThreadPool.submit(decoder, decoder,
+                    ThreadPool.PRIORITY_VIEWPORT));
         }
     }
 
@@ -655,6 +700,7 @@ public class TileImageView extends GLView {
         public Tile mNext;
         public Bitmap mDecodedTile;
         public volatile int mTileState = STATE_ACTIVATED;
+        public long mDecodePriority;
 
         public Tile(int x, int y, int level) {
             mX = x;
@@ -752,33 +798,79 @@ public class TileImageView extends GLView {
         }
     }
 
-    private class TileDecoder implements ThreadPool.Job<Void> {
+    // The tiles waiting to be decoded. pop() returns the tile with the
+    // lowest mDecodePriority; the queue holds a few dozen tiles at most.
+    private static class DecodeQueue {
+        private final ArrayList<Tile> mTiles = new ArrayList<Tile>();
 
-        private CancelListener mNotifier = new CancelListener() {
-            @Override
-            public void onCancel() {
-                synchronized (TileImageView.this) {
-                    TileImageView.this.notifyAll();
+        public Tile pop() {
+            int n = mTiles.size();
+            if (n == 0) return null;
+            int best = 0;
+            for (int i = 1; i < n; i++) {
+                if (mTiles.get(i).mDecodePriority
+                        < mTiles.get(best).mDecodePriority) {
+                    best = i;
                 }
             }
-        };
+            Tile tile = mTiles.get(best);
+            mTiles.set(best, mTiles.get(n - 1));
+            mTiles.remove(n - 1);
+            return tile;
+        }
+
+        public void push(Tile tile, long priority) {
+            tile.mDecodePriority = priority;
+            mTiles.add(tile);
+        }
+
+        public int size() {
+            return mTiles.size();
+        }
+
+        public void clean() {
+            mTiles.clear();
+        }
+    }
+
+    // Decodes queued tiles until the queue is empty. Several decoders can run
+    // at the same time, see startDecodeWorkers().
+    private class TileDecoder implements ThreadPool.Job<Void>,
+            FutureListener<Void> {
+        // Guarded by TileImageView.this.
+        private boolean mExited;
 
         @Override
         public Void run(JobContext jc) {
-            jc.setMode(ThreadPool.MODE_NONE);
-            jc.setCancelListener(mNotifier);
-            while (!jc.isCancelled()) {
-                Tile tile = null;
-                synchronized(TileImageView.this) {
-                    tile = mDecodeQueue.pop();
-                    if (tile == null && !jc.isCancelled()) {
-                        Utils.waitWithoutInterrupt(TileImageView.this);
+            while (true) {
+                Tile tile;
+                synchronized (TileImageView.this) {
+                    tile = (jc.isCancelled() || mDecodePaused)
+                            ? null : mDecodeQueue.pop();
+                    if (tile == null) {
+                        exit();
+                        return null;
                     }
                 }
-                if (tile == null) continue;
                 if (decodeTile(tile)) queueForUpload(tile);
             }
-            return null;
+        }
+
+        // Also called if the job is cancelled before it runs.
+        @Override
+        public void onFutureDone(Future<Void> future) {
+            synchronized (TileImageView.this) {
+                exit();
+            }
+        }
+
+        private void exit() {
+            if (mExited) return;
+            mExited = true;
+            mDecodeWorkerCount--;
+            // Tiles queued while this decoder was cancelled but still
+            // counted found no room for a new decoder.
+            if (!mDecodePaused && mDecodeQueue.size() > 0) startDecodeWorkers();
         }
     }
 }
@@ -24,12 +24,35 @@ import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 
+import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.BytesBufferPool;
+import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
+import com.android.gallery3d.data.LocalImage;
+import com.android.gallery3d.data.MediaItem;
+import com.android.gallery3d.data.Path;
+import com.android.gallery3d.data.TileCacheService;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.photos.data.GalleryBitmapPool;
 
+import java.util.ArrayList;
+
 public class TileImageViewAdapter implements TileImageView.TileSource {
     private static final String TAG = "TileImageViewAdapter";
+
+    // A BitmapRegionDecoder decodes one region at a time, so each of the
+    // TileImageView decode workers borrows a decoder of its own: the one
+    // given to setRegionDecoder(), or one of up to MAX_EXTRA_DECODERS more
+    // created by mRegionDecoderJob. If none is free, mRegionDecoder is
+    // shared.
+    private static final int MAX_EXTRA_DECODERS =
+            TileImageView.MAX_DECODE_WORKERS - 1;
+    // A level-0 tile costs about as much to decode from the image as from
+    // the tile cache, while a tile of level n reads 4^n times its pixels
+    // from the image. So only the downsampled levels are cached.
+    private static final int MIN_CACHED_TILE_LEVEL = 1;
     protected ScreenNail mScreenNail;
     protected boolean mOwnScreenNail;
     protected BitmapRegionDecoder mRegionDecoder;
@@ -37,6 +60,23 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
     protected int mImageHeight;
     protected int mLevelCount;
 
+    // The extra decoders of the current image (idle or in use), the idle ones,
+    // and those of older images which are still in use. Guarded by this.
+    private Job<BitmapRegionDecoder> mRegionDecoderJob;
+    private final ArrayList<BitmapRegionDecoder> mExtraDecoders =
+            new ArrayList<BitmapRegionDecoder>();
+    private final ArrayList<BitmapRegionDecoder> mIdleDecoders =
+            new ArrayList<BitmapRegionDecoder>();
+    private final ArrayList<BitmapRegionDecoder> mRetiredDecoders =
+            new ArrayList<BitmapRegionDecoder>();
+    private int mDecoderGeneration;
+
+    // Where the tiles of the current image are cached on disk, see
+    // setTileCache(). Guarded by this.
+    private GalleryApp mTileCacheApp;
+    private Path mTileCachePath;
+    private long mTileCacheTimeModified;
+
     public TileImageViewAdapter() {
     }
 
@@ -46,6 +86,8 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         mImageHeight = 0;
         mLevelCount = 0;
         mRegionDecoder = null;
+        mTileCacheApp = null;
+        releaseExtraDecoders();
     }
 
     // Caller is responsible to recycle the ScreenNail
@@ -57,15 +99,106 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         mImageHeight = height;
         mRegionDecoder = null;
         mLevelCount = 0;
+        mTileCacheApp = null;
+        releaseExtraDecoders();
     }
 
     public synchronized void setRegionDecoder(BitmapRegionDecoder decoder) {
+        setRegionDecoder(decoder, null);
+    }
+
+    // The decoderJob creates more decoders of the same image, so that tiles
+    // can be decoded in parallel. It is run in the tile decoding threads.
+    public synchronized void setRegionDecoder(BitmapRegionDecoder decoder,
+            Job<BitmapRegionDecoder> decoderJob) {
+        releaseExtraDecoders();
         mRegionDecoder = Utils.checkNotNull(decoder);
+        mRegionDecoderJob = decoderJob;
+        mTileCacheApp = null;
         mImageWidth = decoder.getWidth();
         mImageHeight = decoder.getHeight();
         mLevelCount = calculateLevelCount();
     }
 
+    // Keeps the downsampled tiles of the current region decoder in the tile
+    // cache of the app, so they are not decoded again the next time the
+    // item is viewed. The tiles are stored as JPEG, so this is only done for
+    // local JPEG images. Must be called after setRegionDecoder().
+    public synchronized void setTileCache(GalleryApp app, MediaItem item) {
+        mTileCacheApp = null;
+        if (mRegionDecoder == null || !(item instanceof LocalImage)
+                || !MediaItem.MIME_TYPE_JPEG.equals(item.getMimeType())) {
+            return;
+        }
+        mTileCacheApp = app;
+        mTileCachePath = item.getPath();
+        mTileCacheTimeModified = ((LocalImage) item).dateModifiedInSec;
+    }
+
+    // Called with this locked.
+    private void releaseExtraDecoders() {
+        for (BitmapRegionDecoder decoder : mIdleDecoders) {
+            decoder.recycle();
+            mExtraDecoders.remove(decoder);
+        }
+        mIdleDecoders.clear();
+        // The others are recycled when they are released.
+        mRetiredDecoders.addAll(mExtraDecoders);
+        mExtraDecoders.clear();
+        mRegionDecoderJob = null;
+        mDecoderGeneration++;
+    }
+
+    // Returns a decoder of the current image for the calling thread, or null
+    // if there is no region decoder. It must be returned with
+    // releaseRegionDecoder().
+    private BitmapRegionDecoder acquireRegionDecoder() {
+        Job<BitmapRegionDecoder> job;
+        int generation;
+        synchronized (this) {
+            if (mRegionDecoder == null) return null;
+            int n = mIdleDecoders.size();
+            if (n > 0) return mIdleDecoders.remove(n - 1);
+            if (mRegionDecoderJob == null
+                    || mExtraDecoders.size() >= MAX_EXTRA_DECODERS) {
+                return mRegionDecoder;
+            }
+            job = mRegionDecoderJob;
+            generation = mDecoderGeneration;
+            // Do not start creating another one until this one is done.
+            mRegionDecoderJob = null;
+        }
+
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = job.run(ThreadPool.JOB_CONTEXT_STUB);
+        } catch (Throwable t) {
+            Log.w(TAG, "fail to create region decoder", t);
+        }
+
+        synchronized (this) {
+            if (generation != mDecoderGeneration) {
+                if (decoder != null) decoder.recycle();
+                return mRegionDecoder;
+            }
+            if (decoder == null) return mRegionDecoder;
+            mRegionDecoderJob = job;
+            mExtraDecoders.add(decoder);
+            return decoder;
+        }
+    }
+
+    private void releaseRegionDecoder(BitmapRegionDecoder decoder) {
+        synchronized (this) {
+            if (mExtraDecoders.contains(decoder)) {
+                mIdleDecoders.add(decoder);
+                return;
+            }
+            if (!mRetiredDecoders.remove(decoder)) return;
+        }
+        decoder.recycle();
+    }
+
     private int calculateLevelCount() {
         return Math.max(0, Utils.ceilLog2(
                 (float) mImageWidth / mScreenNail.getWidth()));
@@ -93,13 +226,31 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
 
         Rect wantRegion = new Rect(x, y, x + t, y + t);
 
+        GalleryApp cacheApp = null;
+        Path cachePath = null;
+        long cacheTimeModified = 0;
+        int generation = 0;
+        synchronized (this) {
+            if (level >= MIN_CACHED_TILE_LEVEL && mTileCacheApp != null) {
+                cacheApp = mTileCacheApp;
+                cachePath = mTileCachePath;
+                cacheTimeModified = mTileCacheTimeModified;
+                generation = mDecoderGeneration;
+            }
+        }
+        TileCacheService tileCache = null;
+        if (cacheApp != null) {
+            tileCache = cacheApp.getTileCacheService();
+            Bitmap cached = decodeCachedTile(tileCache, cachePath,
+                    cacheTimeModified, level, x, y, tileSize);
+            if (cached != null) return cached;
+        }
+
         boolean needClear;
-        BitmapRegionDecoder regionDecoder = null;
+        BitmapRegionDecoder regionDecoder = acquireRegionDecoder();
+        if (regionDecoder == null) return null;
 
         synchronized (this) {
-            regionDecoder = mRegionDecoder;
-            if (regionDecoder == null) return null;
-
             // We need to clear a reused bitmap, if wantRegion is not fully
             // within the image.
             needClear = !new Rect(0, 0, mImageWidth, mImageHeight)
@@ -125,6 +276,7 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
                 bitmap = regionDecoder.decodeRegion(wantRegion, options);
             }
         } finally {
+            releaseRegionDecoder(regionDecoder);
             if (options.inBitmap != bitmap && options.inBitmap != null) {
                 GalleryBitmapPool.getInstance().put(options.inBitmap);
                 options.inBitmap = null;
@@ -133,25 +285,74 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
 
         if (bitmap == null) {
             Log.w(TAG, "fail in decoding region");
+        } else if (tileCache != null && !needClear) {
+            // The tiles over the edge of the image are not cached, as their
+            // transparent part would not survive the JPEG compression. Only
+            // store the tile if it was decoded from the same image.
+            synchronized (this) {
+                if (generation != mDecoderGeneration) tileCache = null;
+            }
+            if (tileCache != null) {
+                tileCache.putTile(cachePath, cacheTimeModified, level, x, y,
+                        tileSize, bitmap);
+            }
         }
         return bitmap;
     }
 
+    @TargetApi(ApiHelper.VERSION_CODES.HONEYCOMB)
+    private static Bitmap decodeCachedTile(TileCacheService tileCache,
+            Path path, long timeModified, int level, int x, int y,
+            int tileSize) {
+        BytesBufferPool bufferPool = MediaItem.getBytesBufferPool();
+        BytesBuffer buffer = bufferPool.get();
+        try {
+            if (!tileCache.getTile(path, timeModified, level, x, y, tileSize,
+                    buffer)) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Config.ARGB_8888;
+            options.inMutable = true;
+            options.inBitmap = GalleryBitmapPool.getInstance().get(
+                    tileSize, tileSize);
+            Bitmap bitmap = null;
+            try {
+                bitmap = BitmapFactory.decodeByteArray(
+                        buffer.data, buffer.offset, buffer.length, options);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "fail to reuse bitmap for cached tile", e);
+            } finally {
+                if (options.inBitmap != bitmap && options.inBitmap != null) {
+                    GalleryBitmapPool.getInstance().put(options.inBitmap);
+                }
+            }
+            if (bitmap == null || bitmap.getWidth() != tileSize
+                    || bitmap.getHeight() != tileSize) {
+                return null;
+            }
+            return bitmap;
+        } finally {
+            bufferPool.recycle(buffer);
+        }
+    }
+
     private Bitmap getTileWithoutReusingBitmap(
             int level, int x, int y, int tileSize) {
         int t = tileSize << level;
         Rect wantRegion = new Rect(x, y, x + t, y + t);
 
-        BitmapRegionDecoder regionDecoder;
         Rect overlapRegion;
 
         synchronized (this) {
-            regionDecoder = mRegionDecoder;
-            if (regionDecoder == null) return null;
+            if (mRegionDecoder == null) return null;
             overlapRegion = new Rect(0, 0, mImageWidth, mImageHeight);
             Utils.assertTrue(overlapRegion.intersect(wantRegion));
         }
 
+        BitmapRegionDecoder regionDecoder = acquireRegionDecoder();
+        if (regionDecoder == null) return null;
+
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inPreferredConfig = Config.ARGB_8888;
         options.inPreferQualityOverSpeed = true;
@@ -159,8 +360,12 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         Bitmap bitmap = null;
 
         // In CropImage, we may call the decodeRegion() concurrently.
-        synchronized (regionDecoder) {
-            bitmap = regionDecoder.decodeRegion(overlapRegion, options);
+        try {
+            synchronized (regionDecoder) {
+                bitmap = regionDecoder.decodeRegion(overlapRegion, options);
+            }
+        } finally {
+            releaseRegionDecoder(regionDecoder);
         }
 
         if (bitmap == null) {
@@ -21,6 +21,7 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
 import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.ShardedBlobCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -29,8 +30,11 @@ import java.util.HashMap;
 public class CacheManager {
     private static final String TAG = "CacheManager";
     private static final String KEY_CACHE_UP_TO_DATE = "cache-up-to-date";
+    private static final String KEY_CACHE_GENERATION = "cache-generation";
     private static HashMap<String, BlobCache> sCacheMap =
             new HashMap<String, BlobCache>();
+    private static HashMap<String, ShardedBlobCache> sShardedCacheMap =
+            new HashMap<String, ShardedBlobCache>();
     private static boolean sOldCheckDone = false;
 
     // Return null when we cannot instantiate a BlobCache, e.g.:
@@ -59,6 +63,40 @@ public class CacheManager {
         }
     }
 
+    // Same as getCache(), but the returned cache is split into shardCount
+    // independently locked shards and can be used by several threads at the
+    // same time. Any unsharded cache files left under the same name are
+    // deleted. The sharded caches are reset when they are first opened after
+    // the data is wiped, by any process, as the time of the wipe is kept as
+    // their generation. Only their callers know how many shard files they
+    // have, so removeOldFilesIfNecessary() cannot delete them.
+    public static ShardedBlobCache getShardedCache(Context context,
+            String filename, int shardCount, int maxEntries, int maxBytes,
+            int version) {
+        synchronized (sCacheMap) {
+            if (!sOldCheckDone) {
+                removeOldFilesIfNecessary(context);
+                sOldCheckDone = true;
+            }
+            ShardedBlobCache cache = sShardedCacheMap.get(filename);
+            if (cache == null) {
+                File cacheDir = context.getExternalCacheDir();
+                String path = cacheDir.getAbsolutePath() + "/" + filename;
+                long generation = PreferenceManager.getDefaultSharedPreferences(
+                        context).getLong(KEY_CACHE_GENERATION, 0);
+                try {
+                    cache = new ShardedBlobCache(path, shardCount, maxEntries,
+                            maxBytes, generation, version);
+                    sShardedCacheMap.put(filename, cache);
+                    BlobCache.deleteFiles(path);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot instantiate sharded cache!", e);
+                }
+            }
+            return cache;
+        }
+    }
+
     // Removes the old files if the data is wiped.
     private static void removeOldFilesIfNecessary(Context context) {
         SharedPreferences pref = PreferenceManager
@@ -70,7 +108,9 @@ public class CacheManager {
             // ignore.
         }
         if (n != 0) return;
-        pref.edit().putInt(KEY_CACHE_UP_TO_DATE, 1).commit();
+        pref.edit().putInt(KEY_CACHE_UP_TO_DATE, 1)
+                .putLong(KEY_CACHE_GENERATION, System.currentTimeMillis())
+                .commit();
 
         File cacheDir = context.getExternalCacheDir();
         String prefix = cacheDir.getAbsolutePath() + "/";
@@ -78,5 +118,6 @@ public class CacheManager {
         BlobCache.deleteFiles(prefix + "imgcache");
         BlobCache.deleteFiles(prefix + "rev_geocoding");
         BlobCache.deleteFiles(prefix + "bookmark");
+        BlobCache.deleteFiles(prefix + "clustercache");
     }
 }
@@ -1,6 +1,7 @@
 package com.android.gallery3d.util;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.app.GalleryApp;
 
 import android.content.Context;
 import android.content.ContentResolver;
@@ -103,13 +104,17 @@ public class GIFView extends ImageView implements GifAction {
     private void startDecode(InputStream is) {
         freeGifDecoder();
         mGifDecoder = new GifDecoder(is, this);
-        mGifDecoder.start();
+        mGifDecoder.start(getThreadPool());
     }
 
     private void startDecode(byte[] bytes) {
         freeGifDecoder();
         mGifDecoder = new GifDecoder(bytes, this);
-        mGifDecoder.start();
+        mGifDecoder.start(getThreadPool());
+    }
+
+    private ThreadPool getThreadPool() {
+        return ((GalleryApp) mContext.getApplicationContext()).getThreadPool();
     }
 
     protected void onDraw(Canvas canvas) {
@@ -122,8 +127,13 @@ public class GIFView extends ImageView implements GifAction {
             mCurrentImage = mGifDecoder.getImage();
         }
         if (mCurrentImage == null) {
-            // if this gif can not be displayed, just try to show it as jpg by parsing mUri
-            setImageURI(mUri);
+            int status = mGifDecoder.getStatus();
+            if (status == GifDecoder.STATUS_FORMAT_ERROR
+                    || status == GifDecoder.STATUS_OPEN_ERROR) {
+                // if this gif can not be displayed, just try to show it as jpg by parsing mUri
+                setImageURI(mUri);
+            }
+            // Otherwise the first frame is not decoded yet.
             return;
         }
         setImageURI(null);
@@ -164,6 +174,10 @@ public class GIFView extends ImageView implements GifAction {
 
     public void parseOk(boolean parseStatus, int frameIndex) {
         if (parseStatus) {
+            // show the first frame as soon as it is decoded
+            if (frameIndex == 1) {
+                mRedrawHandler.sendEmptyMessage(0);
+            }
             //indicates the start of a new GIF
             if (mGifDecoder != null && frameIndex == -1
                     && mGifDecoder.getFrameCount() > 1) {
@@ -175,6 +189,7 @@ public class GIFView extends ImageView implements GifAction {
             }
         } else {
             Log.e(TAG, "parse error");
+            mRedrawHandler.sendEmptyMessage(0);
         }
     }
 
@@ -198,6 +213,9 @@ public class GIFView extends ImageView implements GifAction {
                     return;
                 }
                 GifFrame frame = mGifDecoder.next();
+                if (frame == null) {
+                    return;
+                }
                 mCurrentImage = frame.mImage;
 
                 Message msg = mRedrawHandler.obtainMessage();
@@ -4,18 +4,42 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
 
-public class GifDecoder extends Thread {
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Decodes the frames of a GIF on demand. Only a few frames are decoded
+// ahead of playback (see next()), into a small ring of reused bitmaps, so
+// the memory used does not depend on the number of frames. When the last
+// frame has been decoded, decoding starts again from the first one.
+//
+// Decoding runs as a job on the given ThreadPool. The GifAction is called
+// with frameIndex 1 when the first frame is ready, and with frameIndex -1
+// once the GIF is known to have more than one frame.
+public class GifDecoder implements Job<Void> {
+    private static final String TAG = "GifDecoder";
 
     public static final int STATUS_PARSING = 0;
     public static final int STATUS_FORMAT_ERROR = 1;
     public static final int STATUS_OPEN_ERROR = 2;
     public static final int STATUS_FINISH = -1;
 
+    // Number of frames decoded ahead of the one on screen.
+    private static final int DECODE_AHEAD = 2;
+    // The frame on screen, the one shown before it (which the UI thread may
+    // still be drawing), and the frames decoded ahead.
+    private static final int FRAME_RING_SIZE = DECODE_AHEAD + 2;
+
     private InputStream mIS;
-    private int mStatus;
+    private byte[] mData; // the whole GIF file
+    private int mPos; // read position in mData
+    private int mFirstBlockPos; // position of the first block after the header
+    private volatile int mStatus = STATUS_PARSING;
 
     public int mWidth; // full image width
     public int mHeight; // full image height
@@ -38,11 +62,12 @@ public class GifDecoder extends Thread {
 
     private int mIx, mIy, mIw, mIh; // current image rectangle
     private int mLrx, mLry, mLrw, mLrh;
-    private Bitmap mImage; // current frame
-    private Bitmap mLastImage; // previous frame
-    private GifFrame mCurrentFrame = null;
 
-    private boolean mIsShow = false;
+    // The frames are drawn over each other in mCanvas, then copied to the
+    // frame bitmaps. mRestoreCanvas keeps the canvas from before a frame with
+    // dispose code 3.
+    private int[] mCanvas;
+    private int[] mRestoreCanvas;
 
     private byte[] mBlock = new byte[256]; // current data block
     private int mBlockSize = 0; // block size
@@ -59,17 +84,28 @@ public class GifDecoder extends Thread {
     private short[] mPrefix;
     private byte[] mSuffix;
     private byte[] mPixelStack;
-    private byte[] mPixels;
 
-    private GifFrame mGifFrame; // frames read from current file
-    private int mFrameCount;
+    // Number of frames decoded in the first pass over the file.
+    private volatile int mFrameCount;
+    private boolean mFirstPassDone;
 
     private GifAction mGifAction = null;
-
-    private byte[] mGifData = null;
+    private ThreadPool mThreadPool;
+
+    // The fields below are guarded by this object.
+    private final ArrayDeque<GifFrame> mFreeFrames = new ArrayDeque<GifFrame>();
+    private final ArrayDeque<GifFrame> mReadyFrames = new ArrayDeque<GifFrame>();
+    private int mAllocatedFrames;
+    private GifFrame mCurrentFrame;
+    private GifFrame mLastFrame;
+    private boolean mIsShow = false;
+    private boolean mDecoding;
+    private boolean mDone; // no more frames to decode
+    private boolean mFreed;
+    private Future<Void> mTask;
 
     public GifDecoder(byte[] data, GifAction act) {
-        mGifData = data;
+        mData = data;
         mGifAction = act;
     }
 
@@ -78,18 +114,118 @@ public class GifDecoder extends Thread {
         mGifAction = act;
     }
 
-    public void run() {
-        if (mIS != null) {
-            readStream();
-        } else if (mGifData != null) {
-            readByte();
+    // Starts decoding the first frames on the given thread pool.
+    public void start(ThreadPool threadPool) {
+        mThreadPool = threadPool;
+        requestDecode();
+    }
+
+    @Override
+    public Void run(JobContext jc) {
+        if (mCanvas == null && !open()) {
+            boolean freed;
+            synchronized (this) {
+                mDone = true;
+                mDecoding = false;
+                freed = mFreed;
+            }
+            if (!freed) mGifAction.parseOk(false, -1);
+            return null;
+        }
+
+        while (!jc.isCancelled()) {
+            GifFrame frame;
+            synchronized (this) {
+                if (mFreed || mDone || mReadyFrames.size() >= DECODE_AHEAD) {
+                    mDecoding = false;
+                    return null;
+                }
+                frame = mFreeFrames.poll();
+                if (frame == null) {
+                    if (mAllocatedFrames == FRAME_RING_SIZE) {
+                        mDecoding = false;
+                        return null;
+                    }
+                    mAllocatedFrames++;
+                }
+            }
+
+            boolean ok = false;
+            try {
+                if (frame == null) {
+                    frame = new GifFrame(Bitmap.createBitmap(
+                            mWidth, mHeight, Config.ARGB_4444), 0, 0);
+                }
+                ok = readFrame(frame);
+            } catch (OutOfMemoryError e) {
+                Log.e(TAG, ">>> log  : " + e.toString());
+            }
+
+            int frameIndex;
+            synchronized (this) {
+                if (mFreed) {
+                    if (frame != null) frame.mImage.recycle();
+                    mDecoding = false;
+                    return null;
+                }
+                if (!ok) {
+                    if (frame != null) mFreeFrames.add(frame);
+                    mDone = true;
+                    mDecoding = false;
+                    frameIndex = -1;
+                } else if (mCurrentFrame == null) {
+                    // Show the first frame as soon as it is decoded.
+                    mCurrentFrame = frame;
+                    frameIndex = 1;
+                } else {
+                    mReadyFrames.add(frame);
+                    frameIndex = mFirstPassDone ? 0 : mFrameCount;
+                }
+            }
+            if (frameIndex == -1) {
+                if (mFrameCount == 0) mGifAction.parseOk(false, -1);
+                return null;
+            } else if (frameIndex == 1) {
+                mGifAction.parseOk(true, 1);
+            } else if (frameIndex == 2) {
+                mGifAction.parseOk(true, -1);
+            }
+        }
+
+        synchronized (this) {
+            mDecoding = false;
         }
+        return null;
+    }
+
+    private synchronized void requestDecode() {
+        if (mDecoding || mDone || mFreed || mThreadPool == null) return;
+        if (mReadyFrames.size() >= DECODE_AHEAD) return;
+        mDecoding = true;
+        mTask = mThreadPool.submit(this);
     }
 
     public void free() {
-        freeFrame();
-        freeIS();
-        freeImage();
+        synchronized (this) {
+            mFreed = true;
+            if (mTask != null) mTask.cancel();
+            recycleFrame(mCurrentFrame);
+            recycleFrame(mLastFrame);
+            for (GifFrame f : mReadyFrames) recycleFrame(f);
+            for (GifFrame f : mFreeFrames) recycleFrame(f);
+            mCurrentFrame = null;
+            mLastFrame = null;
+            mReadyFrames.clear();
+            mFreeFrames.clear();
+        }
+        Utils.closeSilently(mIS);
+    }
+
+    private static void recycleFrame(GifFrame frame) {
+        if (frame != null && frame.mImage != null) {
+            frame.mImage.recycle();
+            frame.mImage = null;
+        }
     }
 
     public int getStatus() {
@@ -100,228 +236,317 @@ public class GifDecoder extends Thread {
         return mStatus == STATUS_FINISH;
     }
 
-    public int getDelay(int n) {
-        mDelay = -1;
-        if ((n >= 0) && (n < mFrameCount)) {
-            GifFrame f = getFrame(n);
-            if (f != null) {
-                mDelay = f.mDelayInMs;
-            }
-        }
-        return mDelay;
-    }
-
-    public int[] getDelays() {
-        GifFrame f = mGifFrame;
-        int[] d = new int[mFrameCount];
-        int i = 0;
-        while (f != null && i < mFrameCount) {
-            d[i] = f.mDelayInMs;
-            f = f.mNextFrame;
-            i++;
-        }
-        return d;
-    }
-
+    // Returns the number of frames decoded so far in the first pass over the
+    // file, which is the total number of frames once the status is
+    // STATUS_FINISH.
     public int getFrameCount() {
         return mFrameCount;
     }
 
-    public Bitmap getImage() {
-        return getFrameImage(0);
+    public synchronized Bitmap getImage() {
+        return mCurrentFrame == null ? null : mCurrentFrame.mImage;
     }
 
     public int getLoopCount() {
         return mLoopCount;
     }
 
-    private void setPixels() {
-        int[] dest = new int[mWidth * mHeight];
-        // fill in starting image contents based on last image's dispose code
-        if (mLastDispose > 0) {
-            if (mLastDispose == 3) {
-                // use image before last
-                int n = mFrameCount - 2;
-                if (n > 0) {
-                    mLastImage = getPreUndisposedImage(n - 1);
-                } else {
-                    mLastImage = null;
-                }
+    public synchronized GifFrame getCurrentFrame() {
+        return mCurrentFrame;
+    }
+
+    // Returns the frame to show next. If the decoder is behind playback, the
+    // current frame is returned again. Returns null after free().
+    public synchronized GifFrame next() {
+        if (mIsShow == false) {
+            mIsShow = true;
+            return mCurrentFrame;
+        }
+        GifFrame frame = mReadyFrames.poll();
+        if (frame != null) {
+            if (mLastFrame != null) mFreeFrames.add(mLastFrame);
+            mLastFrame = mCurrentFrame;
+            mCurrentFrame = frame;
+            requestDecode();
+        }
+        return mCurrentFrame;
+    }
+
+    private boolean open() {
+        if (mData == null) {
+            mData = readAll(mIS);
+            Utils.closeSilently(mIS);
+            mIS = null;
+            if (mData == null) {
+                mStatus = STATUS_OPEN_ERROR;
+                return false;
             }
-            if (mLastImage != null) {
-                mLastImage.getPixels(dest, 0, mWidth, 0, 0, mWidth, mHeight);
-                // copy pixels
-                if (mLastDispose == 2) {
-                    // fill last image rect area with background color
-                    int c = 0;
-                    if (!mTransparency) {
-                        c = mLastBgColor;
-                    }
-                    for (int i = 0; i < mLrh; i++) {
-                        int n1 = (mLry + i) * mWidth + mLrx;
-                        int n2 = n1 + mLrw;
-                        for (int k = n1; k < n2; k++) {
-                            dest[k] = c;
-                        }
-                    }
-                }
+        }
+        readHeader();
+        if (err()) return false;
+        if (mWidth <= 0 || mHeight <= 0) {
+            mStatus = STATUS_FORMAT_ERROR;
+            return false;
+        }
+        mFirstBlockPos = mPos;
+        try {
+            mCanvas = new int[mWidth * mHeight];
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, ">>> log  : " + e.toString());
+            mStatus = STATUS_OPEN_ERROR;
+            return false;
+        }
+        return true;
+    }
+
+    private static byte[] readAll(InputStream is) {
+        if (is == null) return null;
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                os.write(buffer, 0, n);
             }
+            return os.toByteArray();
+        } catch (Exception e) {
+            Log.e(TAG, "cannot read gif", e);
+            return null;
         }
+    }
 
-        // copy each source line to the appropriate place in the destination
-        int pass = 1;
-        int inc = 8;
-        int iline = 0;
-        for (int i = 0; i < mIh; i++) {
-            int line = i;
-            if (mInterlace) {
-                if (iline >= mIh) {
-                    pass++;
-                    switch (pass) {
-                        case 2:
-                            iline = 4;
-                            break;
-                        case 3:
-                            iline = 2;
-                            inc = 4;
-                            break;
-                        case 4:
-                            iline = 1;
-                            inc = 2;
-                    }
-                }
-                line = iline;
-                iline += inc;
+    // Decodes the next frame into the bitmap of the given frame. When the end
+    // of the file is reached, starts again from the first frame. Returns
+    // false if there is no frame to show.
+    private boolean readFrame(GifFrame frame) {
+        while (true) {
+            if (readContents()) {
+                if (!mFirstPassDone) mFrameCount++;
+                frame.mImage.setPixels(mCanvas, 0, mWidth, 0, 0, mWidth, mHeight);
+                frame.mDelayInMs = mDelay;
+                frame.mDispose = mDispose;
+                resetFrame();
+                return true;
             }
-            line += mIy;
-            if (line < mHeight) {
-                int k = line * mWidth;
-                int dx = k + mIx; // start of line in dest
-                int dlim = dx + mIw; // end of dest line
-                if ((k + mWidth) < dlim) {
-                    dlim = k + mWidth; // past dest edge
-                }
-                int sx = i * mIw; // start of line in source
-                while (dx < dlim) {
-                    // map color and insert in destination
-                    int index = ((int) mPixels[sx++]) & 0xff;
-                    int c = mAct[index];
-                    if (c != 0) {
-                        dest[dx] = c;
-                    }
-                    dx++;
+
+            // The end of the file, or a broken block after some good frames.
+            if (!mFirstPassDone) {
+                mFirstPassDone = true;
+                if (mFrameCount == 0) {
+                    if (mStatus == STATUS_PARSING) mStatus = STATUS_FORMAT_ERROR;
+                    return false;
                 }
+                mStatus = STATUS_FINISH;
             }
+            if (mFrameCount < 2) return false;
+
+            // Start again from the first frame.
+            mPos = mFirstBlockPos;
+            mLastDispose = 0;
+            mDispose = 0;
+            mTransparency = false;
+            mDelay = 0;
+            if (mGct != null) mBgColor = mGct[mBgIndex];
         }
-        mImage = Bitmap.createBitmap(dest, mWidth, mHeight, Config.ARGB_4444);
     }
 
-    public Bitmap getFrameImage(int n) {
-        GifFrame frame = getFrame(n);
-        if (frame == null) {
-            return null;
-        } else {
-            return frame.mImage;
+    // Reads blocks until an image has been drawn to mCanvas (returns true),
+    // or the end of the file or an error is reached (returns false).
+    private boolean readContents() {
+        int status = mStatus;
+        mStatus = STATUS_PARSING;
+        try {
+            while (!err()) {
+                int code = read();
+                switch (code) {
+                    case 0x2C: // image separator
+                        if (readImage()) return true;
+                        break;
+                    case 0x21: // extension
+                        code = read();
+                        switch (code) {
+                            case 0xf9: // graphics control extension
+                                readGraphicControlExt();
+                                break;
+                            case 0xff: // application extension
+                                readBlock();
+                                String app = "";
+                                for (int i = 0; i < 11; i++) {
+                                    app += (char) mBlock[i];
+                                }
+                                if (app.equals("NETSCAPE2.0")) {
+                                    readNetscapeExt();
+                                } else {
+                                    skip(); // don't care
+                                }
+                                break;
+                            default: // uninteresting extension
+                                skip();
+                        }
+                        break;
+                    case 0x3b: // terminator
+                        return false;
+                    case 0x00: // bad byte, but keep going and see what happens
+                        break;
+                    default:
+                        mStatus = STATUS_FORMAT_ERROR;
+                }
+            }
+            return false;
+        } finally {
+            // Only the first pass changes the status.
+            if (mFirstPassDone) mStatus = status;
         }
     }
 
-    public GifFrame getCurrentFrame() {
-        return mCurrentFrame;
+    private boolean err() {
+        return mStatus != STATUS_PARSING;
     }
 
-    public GifFrame getFrame(int n) {
-        GifFrame frame = mGifFrame;
-        int i = 0;
-        while (frame != null) {
-            if (i == n) {
-                return frame;
-            } else {
-                frame = frame.mNextFrame;
-            }
-            i++;
-        }
-        return null;
+    private int read() {
+        if (mPos >= mData.length) return -1;
+        return mData[mPos++] & 0xff;
     }
 
-    private Bitmap getPreUndisposedImage(int n) {
-        Bitmap preUndisposedImage = null;
-        GifFrame frame = mGifFrame;
-        int i = 0;
-        while (frame != null && i <= n) {
-            if (frame.mDispose == 1) {
-                preUndisposedImage = frame.mImage;
-            } else {
-                frame = frame.mNextFrame;
+    private int readBlock() {
+        mBlockSize = read();
+        int n = 0;
+        if (mBlockSize > 0) {
+            n = Math.min(mBlockSize, mData.length - mPos);
+            System.arraycopy(mData, mPos, mBlock, 0, n);
+            mPos += n;
+            if (n < mBlockSize) {
+                mStatus = STATUS_FORMAT_ERROR;
             }
-            i++;
         }
-        return preUndisposedImage;
+        return n;
     }
 
-    public void reset() {
-        mCurrentFrame = mGifFrame;
+    private int[] readColorTable(int ncolors, int[] tab) {
+        int nbytes = 3 * ncolors;
+        if (mData.length - mPos < nbytes) {
+            mStatus = STATUS_FORMAT_ERROR;
+            return null;
+        }
+        if (tab == null) {
+            tab = new int[256]; // max size to avoid bounds checks
+        }
+        int i = 0;
+        int j = mPos;
+        while (i < ncolors) {
+            int r = ((int) mData[j++]) & 0xff;
+            int g = ((int) mData[j++]) & 0xff;
+            int b = ((int) mData[j++]) & 0xff;
+            tab[i++] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        mPos = j;
+        return tab;
     }
 
-    public GifFrame next() {
-        if (mIsShow == false) {
-            mIsShow = true;
-            return mGifFrame;
-        } else {
-            if (mStatus == STATUS_PARSING) {
-                if (mCurrentFrame.mNextFrame != null) {
-                    mCurrentFrame = mCurrentFrame.mNextFrame;
-                }
-            } else {
-                mCurrentFrame = mCurrentFrame.mNextFrame;
-                if (mCurrentFrame == null) {
-                    mCurrentFrame = mGifFrame;
-                }
-            }
-            return mCurrentFrame;
+    private void readGraphicControlExt() {
+        read(); // block size
+        int packed = read(); // packed fields
+        mDispose = (packed & 0x1c) >> 2; // disposal method
+        if (mDispose == 0) {
+            mDispose = 1; // elect to keep old image if discretionary
         }
+        mTransparency = (packed & 1) != 0;
+        mDelay = readShort() * 10; // delay in milliseconds
+        mTransIndex = read(); // transparent color index
+        read(); // block terminator
     }
 
-    private int readByte() {
-        mIS = new ByteArrayInputStream(mGifData);
-        mGifData = null;
-        return readStream();
+    private void readHeader() {
+        String id = "";
+        for (int i = 0; i < 6; i++) {
+            id += (char) read();
+        }
+        if (!id.startsWith("GIF")) {
+            mStatus = STATUS_FORMAT_ERROR;
+            return;
+        }
+        readLSD();
+        if (mGctFlag && !err()) {
+            mGct = readColorTable(mGctSize, null);
+            if (mGct != null) mBgColor = mGct[mBgIndex];
+        }
     }
 
-    private int readStream() {
-        init();
-        if (mIS != null) {
-            readHeader();
-            if (!err()) {
-                readContents();
-                if (mFrameCount < 0) {
-                    mStatus = STATUS_FORMAT_ERROR;
-                    mGifAction.parseOk(false, -1);
-                } else {
-                    mStatus = STATUS_FINISH;
-                    mGifAction.parseOk(true, -1);
-                }
+    private boolean readImage() {
+        mIx = readShort(); // (sub)image position & size
+        mIy = readShort();
+        mIw = readShort();
+        mIh = readShort();
+        int packed = read();
+        mLctFlag = (packed & 0x80) != 0; // 1 - local color table flag
+        mInterlace = (packed & 0x40) != 0; // 2 - interlace flag
+        // 3 - sort flag
+        // 4-5 - reserved
+        mLctSize = 2 << (packed & 7); // 6-8 - local color table size
+        if (mLctFlag) {
+            mLct = readColorTable(mLctSize, mLct); // read table
+            mAct = mLct; // make local table active
+        } else {
+            mAct = mGct; // make global table active
+            if (mBgIndex == mTransIndex) {
+                mBgColor = 0;
             }
-            try {
-                mIS.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+        }
+        if (mAct == null) {
+            mStatus = STATUS_FORMAT_ERROR; // no color table defined
+        }
+        if (err()) {
+            return false;
+        }
+        int save = 0;
+        if (mTransparency) {
+            save = mAct[mTransIndex];
+            mAct[mTransIndex] = 0; // set transparent color if specified
+        }
+        prepareCanvas();
+        decodeImageData(); // decode pixel data straight into mCanvas
+        if (mTransparency) {
+            mAct[mTransIndex] = save;
+        }
+        skip();
+        return !err();
+    }
+
+    // Applies the dispose code of the last frame to mCanvas.
+    private void prepareCanvas() {
+        if (mLastDispose == 0) {
+            Arrays.fill(mCanvas, 0);
+        } else if (mLastDispose == 3 && mRestoreCanvas != null) {
+            // restore the image before last
+            System.arraycopy(mRestoreCanvas, 0, mCanvas, 0, mCanvas.length);
+        } else if (mLastDispose == 2) {
+            // fill last image rect area with background color
+            int c = 0;
+            if (!mTransparency) {
+                c = mLastBgColor;
+            }
+            int right = Math.min(mLrx + mLrw, mWidth);
+            int bottom = Math.min(mLry + mLrh, mHeight);
+            for (int y = mLry; y < bottom; y++) {
+                Arrays.fill(mCanvas, y * mWidth + mLrx, y * mWidth + right, c);
             }
-        } else {
-            mStatus = STATUS_OPEN_ERROR;
-            mGifAction.parseOk(false, -1);
         }
-        return mStatus;
+        if (mDispose == 3) {
+            if (mRestoreCanvas == null) {
+                mRestoreCanvas = new int[mCanvas.length];
+            }
+            System.arraycopy(mCanvas, 0, mRestoreCanvas, 0, mCanvas.length);
+        }
     }
 
+    // Decodes the LZW data of the current image and draws its pixels into
+    // mCanvas (at the image rectangle, following the interlace order).
     private void decodeImageData() {
         int NullCode = -1;
         int npix = mIw * mIh;
         int available, clear, code_mask, code_size, end_of_information, in_code, old_code,
-                bits, code, count, i, datum, data_size, first, top, bi, pi;
+                bits, code, count, i, datum, data_size, first, top, bi;
 
-        if ((mPixels == null) || (mPixels.length < npix)) {
-            mPixels = new byte[npix]; // allocate new pixel array
-        }
         if (mPrefix == null) {
             mPrefix = new short[MaxStackSize];
         }
@@ -331,6 +556,19 @@ public class GifDecoder extends Thread {
         if (mPixelStack == null) {
             mPixelStack = new byte[MaxStackSize + 1];
         }
+
+        // Destination of the pixels: column x of source line row goes to
+        // mCanvas[dx] as long as dx < dlim.
+        int row = 0, x = 0;
+        int pass = 1, inc = 8, iline = 0;
+        int dx = 0, dlim = 0;
+        int line = lineOf(0);
+        if (line >= 0) {
+            dx = line * mWidth + mIx;
+            dlim = Math.min(dx + mIw, (line + 1) * mWidth);
+        }
+        if (mInterlace) iline = inc;
+
         // Initialize GIF data stream decoder.
         data_size = read();
         clear = 1 << data_size;
@@ -339,22 +577,24 @@ public class GifDecoder extends Thread {
         old_code = NullCode;
         code_size = data_size + 1;
         code_mask = (1 << code_size) - 1;
-        for (code = 0; code < clear; code++) {
+        for (code = 0; code < clear && code < MaxStackSize; code++) {
             mPrefix[code] = 0;
             mSuffix[code] = (byte) code;
         }
 
         // Decode GIF pixel stream.
-        datum = bits = count = first = top = pi = bi = 0;
+        boolean eod = false; // end of the pixel data
+        datum = bits = count = first = top = bi = 0;
         for (i = 0; i < npix;) {
-            if (top == 0) {
+            if (top == 0 && !eod) {
                 if (bits < code_size) {
                     // Load bytes until there are enough bits for a code.
                     if (count == 0) {
                         // Read a new data block.
                         count = readBlock();
                         if (count <= 0) {
-                            break;
+                            eod = true;
+                            continue;
                         }
                         bi = 0;
                     }
@@ -371,7 +611,8 @@ public class GifDecoder extends Thread {
 
                 // Interpret the code
                 if ((code > available) || (code == end_of_information)) {
-                    break;
+                    eod = true;
+                    continue;
                 }
                 if (code == clear) {
                     // Reset decoder.
@@ -399,7 +640,8 @@ public class GifDecoder extends Thread {
                 first = ((int) mSuffix[code]) & 0xff;
                 // Add a new string to the string table,
                 if (available >= MaxStackSize) {
-                    break;
+                    eod = true;
+                    continue;
                 }
                 mPixelStack[top++] = (byte) first;
                 mPrefix[available] = (short) old_code;
@@ -413,222 +655,60 @@ public class GifDecoder extends Thread {
                 old_code = in_code;
             }
 
-            // Pop a pixel off the pixel stack.
-            top--;
-            mPixels[pi++] = mPixelStack[top];
-            i++;
-        }
-        for (i = pi; i < npix; i++) {
-            mPixels[i] = 0; // clear missing pixels
-        }
-    }
-
-    private boolean err() {
-        return mStatus != STATUS_PARSING;
-    }
-
-    private void init() {
-        mStatus = STATUS_PARSING;
-        mFrameCount = 0;
-        mGifFrame = null;
-        mGct = null;
-        mLct = null;
-    }
-
-    private int read() {
-        int curByte = 0;
-        try {
-            curByte = mIS.read();
-        } catch (Exception e) {
-            mStatus = STATUS_FORMAT_ERROR;
-        }
-        return curByte;
-    }
-
-    private int readBlock() {
-        mBlockSize = read();
-        int n = 0;
-        if (mBlockSize > 0) {
-            try {
-                int count = 0;
-                while (n < mBlockSize) {
-                    count = mIS.read(mBlock, n, mBlockSize - n);
-                    if (count == -1) {
-                        break;
-                    }
-                    n += count;
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+            // Pop a pixel off the pixel stack and draw it. Missing pixels
+            // are drawn with color index 0.
+            int index = 0;
+            if (top > 0) {
+                top--;
+                index = ((int) mPixelStack[top]) & 0xff;
             }
-            if (n < mBlockSize) {
-                mStatus = STATUS_FORMAT_ERROR;
+            int c = mAct[index];
+            if (c != 0 && dx < dlim) {
+                mCanvas[dx] = c;
             }
-        }
-        return n;
-    }
-
-    private int[] readColorTable(int ncolors) {
-        int nbytes = 3 * ncolors;
-        int[] tab = null;
-        byte[] c = new byte[nbytes];
-        int n = 0;
-        try {
-            n = mIS.read(c);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        if (n < nbytes) {
-            mStatus = STATUS_FORMAT_ERROR;
-        } else {
-            tab = new int[256]; // max size to avoid bounds checks
-            int i = 0;
-            int j = 0;
-            while (i < ncolors) {
-                int r = ((int) c[j++]) & 0xff;
-                int g = ((int) c[j++]) & 0xff;
-                int b = ((int) c[j++]) & 0xff;
-                tab[i++] = 0xff000000 | (r << 16) | (g << 8) | b;
-            }
-        }
-        return tab;
-    }
+            dx++;
+            i++;
 
-    private void readContents() {
-        // read GIF file content blocks
-        boolean done = false;
-        while (!(done || err())) {
-            int code = read();
-            switch (code) {
-                case 0x2C: // image separator
-                    readImage();
-                    break;
-                case 0x21: // extension
-                    code = read();
-                    switch (code) {
-                        case 0xf9: // graphics control extension
-                            readGraphicControlExt();
-                            break;
-                        case 0xff: // application extension
-                            readBlock();
-                            String app = "";
-                            for (int i = 0; i < 11; i++) {
-                                app += (char) mBlock[i];
-                            }
-                            if (app.equals("NETSCAPE2.0")) {
-                                readNetscapeExt();
-                            } else {
-                                skip(); // don't care
-                            }
-                            break;
-                        default: // uninteresting extension
-                            skip();
+            if (++x == mIw) {
+                // Move to the next source line.
+                x = 0;
+                row++;
+                if (mInterlace) {
+                    if (iline >= mIh) {
+                        pass++;
+                        switch (pass) {
+                            case 2:
+                                iline = 4;
+                                break;
+                            case 3:
+                                iline = 2;
+                                inc = 4;
+                                break;
+                            case 4:
+                                iline = 1;
+                                inc = 2;
+                        }
                     }
-                    break;
-                case 0x3b: // terminator
-                    done = true;
-                    break;
-                case 0x00: // bad byte, but keep going and see what happens
-                    break;
-                default:
-                    mStatus = STATUS_FORMAT_ERROR;
+                    line = lineOf(iline);
+                    iline += inc;
+                } else {
+                    line = lineOf(row);
+                }
+                if (line >= 0) {
+                    dx = line * mWidth + mIx;
+                    dlim = Math.min(dx + mIw, (line + 1) * mWidth);
+                } else {
+                    dx = dlim = 0;
+                }
             }
         }
     }
 
-    private void readGraphicControlExt() {
-        read(); // block size
-        int packed = read(); // packed fields
-        mDispose = (packed & 0x1c) >> 2; // disposal method
-        if (mDispose == 0) {
-            mDispose = 1; // elect to keep old image if discretionary
-        }
-        mTransparency = (packed & 1) != 0;
-        mDelay = readShort() * 10; // delay in milliseconds
-        mTransIndex = read(); // transparent color index
-        read(); // block terminator
-    }
-
-    private void readHeader() {
-        String id = "";
-        for (int i = 0; i < 6; i++) {
-            id += (char) read();
-        }
-        if (!id.startsWith("GIF")) {
-            mStatus = STATUS_FORMAT_ERROR;
-            return;
-        }
-        readLSD();
-        if (mGctFlag && !err()) {
-            mGct = readColorTable(mGctSize);
-            mBgColor = mGct[mBgIndex];
-        }
-    }
-
-    private void readImage() {
-        mIx = readShort(); // (sub)image position & size
-        mIy = readShort();
-        mIw = readShort();
-        mIh = readShort();
-        int packed = read();
-        mLctFlag = (packed & 0x80) != 0; // 1 - local color table flag
-        mInterlace = (packed & 0x40) != 0; // 2 - interlace flag
-        // 3 - sort flag
-        // 4-5 - reserved
-        mLctSize = 2 << (packed & 7); // 6-8 - local color table size
-        if (mLctFlag) {
-            mLct = readColorTable(mLctSize); // read table
-            mAct = mLct; // make local table active
-        } else {
-            mAct = mGct; // make global table active
-            if (mBgIndex == mTransIndex) {
-                mBgColor = 0;
-            }
-        }
-        int save = 0;
-        if (mTransparency) {
-            save = mAct[mTransIndex];
-            mAct[mTransIndex] = 0; // set transparent color if specified
-        }
-        if (mAct == null) {
-            mStatus = STATUS_FORMAT_ERROR; // no color table defined
-        }
-        if (err()) {
-            return;
-        }
-        try {
-            decodeImageData(); // decode pixel data
-            skip();
-            if (err()) {
-                return;
-            }
-            mFrameCount++;
-            // create new image to receive frame data
-            mImage = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_4444);
-            // createImage(mWidth, mHeight);
-            setPixels(); // transfer pixel data to image
-            if (mGifFrame == null) {
-                mGifFrame = new GifFrame(mImage, mDelay, mDispose);
-                mCurrentFrame = mGifFrame;
-            } else {
-                GifFrame f = mGifFrame;
-                while (f.mNextFrame != null) {
-                    f = f.mNextFrame;
-                }
-                f.mNextFrame = new GifFrame(mImage, mDelay, mDispose);
-            }
-            // frames.addElement(new GifFrame(image, delay)); // add image to
-            // frame
-            // list
-            if (mTransparency) {
-                mAct[mTransIndex] = save;
-            }
-            resetFrame();
-            mGifAction.parseOk(true, mFrameCount);
-        } catch (OutOfMemoryError e) {
-            Log.e("GifDecoder", ">>> log  : " + e.toString());
-            e.printStackTrace();
-        }
+    // Returns the canvas line of the given image line, or -1 if it is
+    // outside of the canvas.
+    private int lineOf(int imageLine) {
+        int line = imageLine + mIy;
+        return line < mHeight ? line : -1;
     }
 
     private void readLSD() {
@@ -668,12 +748,10 @@ public class GifDecoder extends Thread {
         mLry = mIy;
         mLrw = mIw;
         mLrh = mIh;
-        mLastImage = mImage;
         mLastBgColor = mBgColor;
         mDispose = 0;
         mTransparency = false;
         mDelay = 0;
-        mLct = null;
     }
 
     /**
@@ -684,40 +762,4 @@ public class GifDecoder extends Thread {
             readBlock();
         } while ((mBlockSize > 0) && !err());
     }
-
-    private void freeFrame() {
-        GifFrame fg = mGifFrame;
-        while (fg != null) {
-            if (fg.mImage != null) {
-                fg.mImage.recycle();
-            }
-            fg.mImage = null;
-            fg = null;
-            mGifFrame = mGifFrame.mNextFrame;
-            fg = mGifFrame;
-        }
-    }
-
-    private void freeIS() {
-        if (mIS != null) {
-            try {
-                mIS.close();
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-            mIS = null;
-        }
-        mGifData = null;
-    }
-
-    private void freeImage() {
-        if (mImage != null) {
-            mImage.recycle();
-            mImage = null;
-        }
-        if (mLastImage != null) {
-            mLastImage.recycle();
-            mLastImage = null;
-        }
-    }
 }
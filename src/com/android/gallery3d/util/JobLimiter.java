@@ -20,6 +20,7 @@ import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 
 // Limit the number of concurrent jobs that has been submitted into a ThreadPool
@@ -44,10 +45,12 @@ public class JobLimiter implements FutureListener {
         private Future<T> mDelegate;
         private FutureListener<T> mListener;
         private T mResult;
+        private final int mPriority;
 
-        public JobWrapper(Job<T> job, FutureListener<T> listener) {
+        public JobWrapper(Job<T> job, FutureListener<T> listener, int priority) {
             mJob = job;
             mListener = listener;
+            mPriority = priority;
         }
 
         public synchronized void setFuture(Future<T> future) {
@@ -133,8 +136,16 @@ public class JobLimiter implements FutureListener {
         mLimit = limit;
     }
 
-    public synchronized <T> Future<T> submit(Job<T> job, FutureListener<T> listener) {
-        JobWrapper<T> future = new JobWrapper<T>(Utils.checkNotNull(job), listener);
+    public <T> Future<T> submit(Job<T> job, FutureListener<T> listener) {
+        return submit(job, listener, ThreadPool.PRIORITY_NORMAL);
+    }
+
+    // See ThreadPool.submit(Job, FutureListener, int). The waiting jobs are
+    // ordered the same way as in the ThreadPool.
+    public synchronized <T> Future<T> submit(Job<T> job,
+            FutureListener<T> listener, int priority) {
+        JobWrapper<T> future = new JobWrapper<T>(
+                Utils.checkNotNull(job), listener, priority);
         mJobs.addLast(future);
         submitTasksIfAllowed();
         return future;
@@ -143,12 +154,35 @@ public class JobLimiter implements FutureListener {
     @SuppressWarnings({"rawtypes", "unchecked"})
     private void submitTasksIfAllowed() {
         while (mLimit > 0 && !mJobs.isEmpty()) {
-            JobWrapper wrapper = mJobs.removeFirst();
-            if (!wrapper.isCancelled()) {
+            JobWrapper wrapper = removeNextJob();
+            if (wrapper != null) {
                 --mLimit;
-                wrapper.setFuture(mPool.submit(wrapper, this));
+                wrapper.setFuture(mPool.submit(wrapper, this, wrapper.mPriority));
+            }
+        }
+    }
+
+    // Removes and returns the waiting job which should run next. Cancelled
+    // jobs found on the way are dropped. Returns null if none is left.
+    private JobWrapper<?> removeNextJob() {
+        JobWrapper<?> best = null;
+        Iterator<JobWrapper<?>> iter = mJobs.iterator();
+        while (iter.hasNext()) {
+            JobWrapper<?> wrapper = iter.next();
+            if (wrapper.isCancelled()) {
+                iter.remove();
+                continue;
+            }
+            // Later viewport jobs win over earlier ones (LIFO), other jobs
+            // keep their submission order.
+            if (best == null || wrapper.mPriority > best.mPriority
+                    || (wrapper.mPriority == best.mPriority
+                    && wrapper.mPriority == ThreadPool.PRIORITY_VIEWPORT)) {
+                best = wrapper;
             }
         }
+        if (best != null) mJobs.remove(best);
+        return best;
     }
 
     @Override
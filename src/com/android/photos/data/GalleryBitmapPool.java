@@ -16,6 +16,7 @@
 
 package com.android.photos.data;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.util.Pools.Pool;
@@ -23,9 +24,14 @@ import android.util.Pools.SynchronizedPool;
 
 import com.android.photos.data.SparseArrayBitmapPool.Node;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Pool allowing the efficient reuse of bitmaps in order to avoid long
- * garbage collection pauses.
+ * garbage collection pauses. It is shared by the album grids, the photo
+ * tiles and the filtershow editor. Bitmaps are kept by size, all ARGB_8888,
+ * and evicted least recently released first, either when the byte budget
+ * is exceeded or when the system reports memory pressure.
  */
 public class GalleryBitmapPool {
 
@@ -54,6 +60,9 @@ public class GalleryBitmapPool {
     private SparseArrayBitmapPool [] mPools;
     private Pool<Node> mSharedNodePool = new SynchronizedPool<Node>(128);
 
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
     private GalleryBitmapPool(int capacityBytes) {
         mPools = new SparseArrayBitmapPool[3];
         mPools[POOL_INDEX_SQUARE] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
@@ -122,23 +131,44 @@ public class GalleryBitmapPool {
     }
 
     /**
-     * @return Bitmap from the pool with the desired height/width or null if none available.
+     * @return Number of get() calls which returned a bitmap.
+     */
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return Number of get() calls which returned null.
+     */
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return ARGB_8888 bitmap from the pool with the desired height/width or
+     *         null if none available.
      */
     public Bitmap get(int width, int height) {
         SparseArrayBitmapPool pool = getPoolForDimensions(width, height);
-        if (pool == null) {
-            return null;
+        Bitmap b = (pool == null) ? null : pool.get(width, height);
+        if (b == null) {
+            mMissCount.incrementAndGet();
         } else {
-            return pool.get(width, height);
+            mHitCount.incrementAndGet();
         }
+        return b;
     }
 
     /**
-     * Adds the given bitmap to the pool.
+     * Adds the given bitmap to the pool. Only mutable ARGB_8888 bitmaps are
+     * accepted, as all the users of the pool decode and draw in that config.
      * @return Whether the bitmap was added to the pool.
      */
     public boolean put(Bitmap b) {
-        if (b == null || b.getConfig() != Bitmap.Config.ARGB_8888) {
+        if (b == null || b.isRecycled() || !b.isMutable()) {
+            return false;
+        }
+        if (b.getConfig() != Bitmap.Config.ARGB_8888) {
             return false;
         }
         SparseArrayBitmapPool pool = getPoolForDimensions(b.getWidth(), b.getHeight());
@@ -158,4 +188,21 @@ public class GalleryBitmapPool {
             p.clear();
         }
     }
+
+    /**
+     * Shrink the pool in response to ComponentCallbacks2.onTrimMemory().
+     * The pool is emptied once the process is in the background or memory is
+     * critical, and halved when memory is getting low.
+     */
+    public void onTrimMemory(int level) {
+        // TRIM_MEMORY_UI_HIDDEN and the background levels are all above
+        // TRIM_MEMORY_RUNNING_CRITICAL.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            for (SparseArrayBitmapPool p : mPools) {
+                p.trimToSize(p.getCapacity() / 2);
+            }
+        }
+    }
 }
@@ -75,8 +75,19 @@ public class SparseArrayBitmapPool {
     }
 
     private void freeUpCapacity(int bytesNeeded) {
-        int targetSize = mCapacityBytes - bytesNeeded;
-        // Repeatedly remove the oldest node until we have freed up at least bytesNeeded.
+        trimToSizeLocked(mCapacityBytes - bytesNeeded);
+    }
+
+    /**
+     * Evict the least recently released bitmaps until the pool holds at most
+     * the given number of bytes. The capacity is left unchanged.
+     */
+    public synchronized void trimToSize(int sizeBytes) {
+        trimToSizeLocked(sizeBytes);
+    }
+
+    private void trimToSizeLocked(int targetSize) {
+        // Repeatedly remove the oldest node until we are down to targetSize.
         while (mPoolNodesTail != null && mSizeBytes > targetSize) {
             unlinkAndRecycleNode(mPoolNodesTail, true);
         }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.common;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.gallery3d.common.BlobCache.LookupRequest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the hit latency and the allocations of BlobCache lookups with and
+ * without mapped reads, on a cache holding as many thumbnails as the image
+ * cache.
+ */
+@LargeTest
+public class BlobCacheBenchmark extends AndroidTestCase {
+    private static final String TAG = "BlobCacheBenchmark";
+
+    // IMAGE_CACHE_MAX_ENTRIES of ImageCacheService.
+    private static final int ENTRIES = 5000;
+    private static final int MIN_BLOB_SIZE = 4 * 1024;
+    private static final int MAX_BLOB_SIZE = 16 * 1024;
+    private static final int LOOKUPS = 20000;
+    private static final int ROUNDS = 3;
+
+    private String mPath;
+    private BlobCache mCache;
+    private long[] mKeys;
+    private int[] mLookups;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPath = getContext().getCacheDir().getAbsolutePath() + "/benchmark";
+        // All the entries fit in the active region.
+        mCache = new BlobCache(mPath, ENTRIES * 2, ENTRIES * MAX_BLOB_SIZE * 2, true);
+        Random random = new Random(0);
+        mKeys = new long[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            mKeys[i] = random.nextLong();
+            byte[] blob = new byte[MIN_BLOB_SIZE
+                    + random.nextInt(MAX_BLOB_SIZE - MIN_BLOB_SIZE)];
+            random.nextBytes(blob);
+            mCache.insert(mKeys[i], blob);
+        }
+        mCache.syncAll();
+        mLookups = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            mLookups[i] = random.nextInt(ENTRIES);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.close();
+        BlobCache.deleteFiles(mPath);
+        super.tearDown();
+    }
+
+    public void testMappedReadsMatch() throws IOException {
+        LookupRequest request = new LookupRequest();
+        for (int i = 0; i < ENTRIES; i++) {
+            mCache.setMappedReads(false);
+            byte[] copied = mCache.lookup(mKeys[i]);
+            mCache.setMappedReads(true);
+            request.key = mKeys[i];
+            request.buffer = null;
+            assertTrue(mCache.lookup(request));
+            assertNotNull(copied);
+            assertEquals(copied.length, request.length);
+            assertTrue(Arrays.equals(copied, request.buffer));
+        }
+    }
+
+    public void testHitLatency() throws IOException {
+        for (int round = 0; round < ROUNDS; round++) {
+            // Like ImageCacheService, with a buffer reused across lookups.
+            measure("copied, pooled buffer", false, true);
+            measure("mapped, pooled buffer", true, true);
+            // A new buffer for each hit.
+            measure("copied, new buffer", false, false);
+            measure("mapped, new buffer", true, false);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measure(String name, boolean mapped, boolean pooled) throws IOException {
+        mCache.setMappedReads(mapped);
+        LookupRequest request = new LookupRequest();
+        byte[] buffer = new byte[MAX_BLOB_SIZE];
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadGcInvocationCount();
+        Debug.startAllocCounting();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < LOOKUPS; i++) {
+            request.key = mKeys[mLookups[i]];
+            request.buffer = pooled ? buffer : null;
+            assertTrue(mCache.lookup(request));
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        Debug.stopAllocCounting();
+        Log.i(TAG, name + ": " + (elapsed / LOOKUPS) + " ns/hit, "
+                + (Debug.getThreadAllocSize() / LOOKUPS) + " bytes/hit, "
+                + Debug.getThreadAllocCount() + " allocations, "
+                + Debug.getThreadGcInvocationCount() + " GCs");
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.MediaColumns;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.gallery3d.app.GalleryApp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares deleting a selection of 5000 images one path at a time, as
+ * MenuExecutor used to, with DataManager.delete(ArrayList), which deletes
+ * them in batches. Besides the time, it reports the number of change
+ * notifications received by a ContentListener-like observer, as each one
+ * makes the visible sets reload.
+ */
+@LargeTest
+public class DeleteBenchmark extends AndroidTestCase {
+    private static final String TAG = "DeleteBenchmark";
+
+    private static final int ITEMS = 5000;
+    // The time left to the media provider to deliver the notifications.
+    private static final long NOTIFY_DELAY_MS = 2000;
+
+    private File mDir;
+    private byte[] mJpeg;
+    private DataManager mDataManager;
+    private HandlerThread mObserverThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_PICTURES), TAG);
+        assertTrue(mDir.isDirectory() || mDir.mkdirs());
+        Bitmap bitmap = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        mJpeg = out.toByteArray();
+        mDataManager = ((GalleryApp) getContext().getApplicationContext()).getDataManager();
+        mObserverThread = new HandlerThread(TAG);
+        mObserverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mObserverThread.quit();
+        getContext().getContentResolver().delete(Images.Media.EXTERNAL_CONTENT_URI,
+                MediaColumns.DATA + " LIKE ?", new String[] {mDir.getPath() + "/%"});
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testDeleteOneByOne() throws IOException {
+        ArrayList<Path> paths = insertImages();
+        AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = register(notifications);
+        long start = SystemClock.elapsedRealtime();
+        for (Path path : paths) {
+            mDataManager.delete(path);
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        report("one by one", elapsed, observer, notifications);
+    }
+
+    public void testDeleteInBatches() throws IOException {
+        ArrayList<Path> paths = insertImages();
+        AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = register(notifications);
+        long start = SystemClock.elapsedRealtime();
+        mDataManager.delete(paths);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        report("in batches", elapsed, observer, notifications);
+    }
+
+    // Adds ITEMS images to the media provider and returns their paths.
+    private ArrayList<Path> insertImages() throws IOException {
+        ContentValues[] values = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            File file = new File(mDir, "image" + i + ".jpg");
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(mJpeg);
+            } finally {
+                out.close();
+            }
+            values[i] = new ContentValues();
+            values[i].put(MediaColumns.DATA, file.getPath());
+            values[i].put(MediaColumns.TITLE, "image" + i);
+            values[i].put(MediaColumns.MIME_TYPE, "image/jpeg");
+            values[i].put(MediaColumns.SIZE, mJpeg.length);
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        assertEquals(ITEMS, resolver.bulkInsert(Images.Media.EXTERNAL_CONTENT_URI, values));
+
+        ArrayList<Path> paths = new ArrayList<Path>(ITEMS);
+        Cursor cursor = resolver.query(Images.Media.EXTERNAL_CONTENT_URI,
+                new String[] {MediaColumns._ID}, MediaColumns.DATA + " LIKE ?",
+                new String[] {mDir.getPath() + "/%"}, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                paths.add(LocalImage.ITEM_PATH.getChild(cursor.getInt(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(ITEMS, paths.size());
+        return paths;
+    }
+
+    private ContentObserver register(final AtomicInteger notifications) {
+        ContentObserver observer = new ContentObserver(
+                new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+        getContext().getContentResolver().registerContentObserver(
+                Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+        return observer;
+    }
+
+    private void report(String name, long elapsed, ContentObserver observer,
+            AtomicInteger notifications) {
+        SystemClock.sleep(NOTIFY_DELAY_MS);
+        getContext().getContentResolver().unregisterContentObserver(observer);
+        Log.i(TAG, name + ": " + ITEMS + " items in " + elapsed + " ms, "
+                + notifications.get() + " change notifications");
+
+        Cursor cursor = getContext().getContentResolver().query(
+                Images.Media.EXTERNAL_CONTENT_URI, new String[] {MediaColumns._ID},
+                MediaColumns.DATA + " LIKE ?", new String[] {mDir.getPath() + "/%"}, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.provider.MediaStore.Images;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.gallery3d.exif.ExifInterface;
+import com.android.gallery3d.exif.Rational;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Compares the time and the allocations of a full ExifInterface.readExif()
+ * with the tag-filtered ones of Exif and MediaDetails, on the camera JPEGs of
+ * the device. Synthetic camera-like files are used when the device has too
+ * few of them. The files are read into memory first, so only the parsing is
+ * measured.
+ */
+@LargeTest
+public class ExifReadBenchmark extends AndroidTestCase {
+    private static final String TAG = "ExifReadBenchmark";
+
+    private static final int MAX_FILES = 100;
+    private static final int MIN_FILES = 20;
+    private static final int ROUNDS = 5;
+
+    private ArrayList<byte[]> mFiles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFiles = loadCameraFiles();
+        int cameraFiles = mFiles.size();
+        Random random = new Random(0);
+        while (mFiles.size() < MIN_FILES) {
+            mFiles.add(createCameraLikeFile(random));
+        }
+        Log.i(TAG, cameraFiles + " camera files, "
+                + (mFiles.size() - cameraFiles) + " synthetic files");
+    }
+
+    public void testFilteredReadMatchesFullRead() throws IOException {
+        for (byte[] file : mFiles) {
+            ExifInterface full = new ExifInterface();
+            full.readExif(new ByteArrayInputStream(file));
+            ExifInterface filtered = new ExifInterface();
+            filtered.readExif(new ByteArrayInputStream(file), MediaDetails.EXIF_DETAIL_TAGS);
+            for (int tagId : MediaDetails.EXIF_DETAIL_TAGS) {
+                assertEquals(full.getTag(tagId), filtered.getTag(tagId));
+            }
+            assertNull(filtered.getTag(ExifInterface.TAG_MAKER_NOTE));
+            assertNull(filtered.getThumbnailBytes());
+        }
+    }
+
+    public void testReadTime() throws IOException {
+        for (int round = 0; round < ROUNDS; round++) {
+            measure("full", null);
+            measure("orientation", Exif.ORIENTATION_TAGS);
+            measure("details", MediaDetails.EXIF_DETAIL_TAGS);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measure(String name, int[] tagIds) throws IOException {
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (byte[] file : mFiles) {
+            ExifInterface exif = new ExifInterface();
+            if (tagIds == null) {
+                exif.readExif(new ByteArrayInputStream(file));
+            } else {
+                exif.readExif(new ByteArrayInputStream(file), tagIds);
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        Debug.stopAllocCounting();
+        int n = mFiles.size();
+        Log.i(TAG, name + ": " + (elapsed / n / 1000) + " us/file, "
+                + (Debug.getThreadAllocCount() / n) + " allocations/file, "
+                + (Debug.getThreadAllocSize() / n) + " bytes/file");
+    }
+
+    // Returns the start of the newest JPEGs in MediaStore, enough to hold
+    // their Exif data.
+    private ArrayList<byte[]> loadCameraFiles() throws IOException {
+        ArrayList<byte[]> files = new ArrayList<byte[]>();
+        Cursor cursor = getContext().getContentResolver().query(
+                Images.Media.EXTERNAL_CONTENT_URI,
+                new String[] {Images.Media.DATA},
+                Images.Media.MIME_TYPE + "=?", new String[] {"image/jpeg"},
+                Images.Media.DATE_TAKEN + " DESC");
+        if (cursor == null) {
+            return files;
+        }
+        try {
+            while (files.size() < MAX_FILES && cursor.moveToNext()) {
+                File file = new File(cursor.getString(0));
+                if (file.canRead()) {
+                    files.add(readHead(file));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return files;
+    }
+
+    private static byte[] readHead(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            // The APP1 segment is at most 64KB.
+            byte[] head = new byte[(int) Math.min(file.length(), 128 * 1024)];
+            int n = 0;
+            while (n < head.length) {
+                int count = in.read(head, n, head.length - n);
+                if (count < 0) {
+                    break;
+                }
+                n += count;
+            }
+            return head;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Returns a JPEG with the tags, maker note and thumbnail a camera writes.
+    private static byte[] createCameraLikeFile(Random random) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.setTag(exif.buildTag(ExifInterface.TAG_MAKE, "Benchmark"));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_MODEL, "Camera " + random.nextInt(10)));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.getOrientationValueForRotation(90 * random.nextInt(4))));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_IMAGE_WIDTH, 4000));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_IMAGE_LENGTH, 3000));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_FLASH, (short) 0));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_WHITE_BALANCE, (short) 0));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_ISO_SPEED_RATINGS,
+                (short) (100 << random.nextInt(5))));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_EXPOSURE_TIME,
+                new Rational(1, 30 + random.nextInt(1000))));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_F_NUMBER, new Rational(22, 10)));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_APERTURE_VALUE, new Rational(228, 100)));
+        exif.setTag(exif.buildTag(ExifInterface.TAG_FOCAL_LENGTH, new Rational(430, 100)));
+        exif.addDateTimeStampTag(ExifInterface.TAG_DATE_TIME, System.currentTimeMillis(),
+                TimeZone.getDefault());
+        exif.addGpsTags(37 + random.nextDouble(), -122 + random.nextDouble());
+        byte[] makerNote = new byte[16 * 1024];
+        random.nextBytes(makerNote);
+        exif.setTag(exif.buildTag(ExifInterface.TAG_MAKER_NOTE, makerNote));
+        exif.setCompressedThumbnail(createJpeg(160, 120, random));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exif.writeExif(createJpeg(640, 480, random), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] createJpeg(int width, int height, Random random) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(random.nextInt(256), random.nextInt(256),
+                random.nextInt(256)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.gallery3d.util.GalleryUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the grid-based LocationClustering with a k-means sweep over every
+ * item, which is what LocationClustering did before, on synthetic sets of
+ * 100k geotagged items. The quality is reported as the number of clusters
+ * and the mean distance of the items to the center of their cluster.
+ */
+@LargeTest
+public class LocationClusteringBenchmark extends AndroidTestCase {
+    private static final String TAG = "LocationClusteringBenchmark";
+
+    private static final int POINTS = 100000;
+    // About 111 km per degree of latitude.
+    private static final double METERS_PER_DEGREE = 111000;
+
+    private double[] mLats = new double[POINTS];
+    private double[] mLngs = new double[POINTS];
+
+    // Points around 12 cities, 2 km apart on average from their city.
+    public void testCities() {
+        Random random = new Random(0);
+        double[] cityLat = new double[12];
+        double[] cityLng = new double[12];
+        for (int i = 0; i < cityLat.length; i++) {
+            cityLat[i] = 30 + random.nextDouble() * 20;
+            cityLng[i] = -120 + random.nextDouble() * 40;
+        }
+        for (int i = 0; i < POINTS; i++) {
+            int city = random.nextInt(cityLat.length);
+            mLats[i] = cityLat[city] + random.nextGaussian() * 2000 / METERS_PER_DEGREE;
+            mLngs[i] = cityLng[city] + random.nextGaussian() * 2000 / METERS_PER_DEGREE;
+        }
+        compare("cities");
+    }
+
+    // Most points in one home town, the rest spread over a continent.
+    public void testHomeAndTravels() {
+        Random random = new Random(1);
+        for (int i = 0; i < POINTS; i++) {
+            if (random.nextInt(10) < 9) {
+                mLats[i] = 37.4 + random.nextGaussian() * 5000 / METERS_PER_DEGREE;
+                mLngs[i] = -122.1 + random.nextGaussian() * 5000 / METERS_PER_DEGREE;
+            } else {
+                mLats[i] = 25 + random.nextDouble() * 25;
+                mLngs[i] = -125 + random.nextDouble() * 60;
+            }
+        }
+        compare("home and travels");
+    }
+
+    // Points spread evenly over a country.
+    public void testUniform() {
+        Random random = new Random(2);
+        for (int i = 0; i < POINTS; i++) {
+            mLats[i] = 42 + random.nextDouble() * 8;
+            mLngs[i] = -5 + random.nextDouble() * 13;
+        }
+        compare("uniform");
+    }
+
+    private void compare(String name) {
+        int[] items = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            items[i] = i;
+        }
+
+        int[] gridK = new int[1];
+        long start = SystemClock.elapsedRealtime();
+        int[] gridGroups = LocationClustering.cluster(items, POINTS, mLats, mLngs, gridK);
+        long gridTime = SystemClock.elapsedRealtime() - start;
+
+        double[] latRad = new double[POINTS];
+        double[] lngRad = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            latRad[i] = Math.toRadians(mLats[i]);
+            lngRad[i] = Math.toRadians(mLngs[i]);
+        }
+        int[] weights = new int[POINTS];
+        Arrays.fill(weights, 1);
+        int[] itemK = new int[1];
+        start = SystemClock.elapsedRealtime();
+        int[] itemGroups = LocationClustering.kMeans(latRad, lngRad, weights, POINTS, itemK);
+        long itemTime = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, name + ": grid " + gridTime + " ms, k=" + gridK[0] + ", "
+                + (int) getMeanDistance(latRad, lngRad, gridGroups, gridK[0])
+                + " m to center; per item " + itemTime + " ms, k=" + itemK[0] + ", "
+                + (int) getMeanDistance(latRad, lngRad, itemGroups, itemK[0])
+                + " m to center");
+        assertTrue(gridK[0] >= 1);
+    }
+
+    // Returns the mean distance in meters of the points to the center of
+    // their group.
+    private static double getMeanDistance(double[] latRad, double[] lngRad,
+            int[] groups, int k) {
+        double[] centerLat = new double[k];
+        double[] centerLng = new double[k];
+        int[] count = new int[k];
+        for (int i = 0; i < groups.length; i++) {
+            centerLat[groups[i]] += latRad[i];
+            centerLng[groups[i]] += lngRad[i];
+            count[groups[i]]++;
+        }
+        for (int i = 0; i < k; i++) {
+            if (count[i] > 0) {
+                centerLat[i] /= count[i];
+                centerLng[i] /= count[i];
+            }
+        }
+        double total = 0;
+        for (int i = 0; i < groups.length; i++) {
+            total += GalleryUtils.fastDistanceMeters(latRad[i], lngRad[i],
+                    centerLat[groups[i]], centerLng[groups[i]]);
+        }
+        return total / groups.length;
+    }
+}
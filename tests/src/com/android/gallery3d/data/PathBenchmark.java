@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Measures the throughput of Path lookups from several threads, as done by
+ * the loader threads and the GL thread. The "global lock" runs hold the
+ * Path.class monitor around each lookup, as Path did before it was made
+ * lock-free, to show the contention it caused.
+ */
+@LargeTest
+public class PathBenchmark extends AndroidTestCase {
+    private static final String TAG = "PathBenchmark";
+
+    private static final int ITEMS = 10000;
+    private static final int LOOKUPS_PER_THREAD = 200000;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    private String[] mStrings;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStrings = new String[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            mStrings[i] = "/benchmark/image/item/" + i;
+        }
+    }
+
+    public void testConcurrentInterning() throws InterruptedException {
+        final int threads = 8;
+        final AtomicReferenceArray<Path> paths = new AtomicReferenceArray<Path>(ITEMS);
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * ITEMS / threads;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    for (int i = 0; i < ITEMS; i++) {
+                        int index = (offset + i) % ITEMS;
+                        Path path = Path.fromString("/intern" + mStrings[index]);
+                        if (!paths.compareAndSet(index, null, path)
+                                && paths.get(index) != path) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(0, duplicates.get());
+        Path item = Path.fromString("/intern/benchmark/image/item");
+        for (int i = 0; i < ITEMS; i++) {
+            assertSame(item.getChild(i), paths.get(i));
+            assertEquals("/intern" + mStrings[i], paths.get(i).toString());
+        }
+    }
+
+    public void testLookupThroughput() throws InterruptedException {
+        // Intern all the paths first, so that only lookups are measured.
+        for (String s : mStrings) {
+            Path.fromString(s);
+        }
+        for (int threads : THREAD_COUNTS) {
+            long locked = measure(threads, true);
+            long free = measure(threads, false);
+            Log.i(TAG, threads + " threads: global lock " + locked
+                    + " lookups/s, lock-free " + free + " lookups/s");
+        }
+    }
+
+    // Returns the lookups per second done by the given number of threads,
+    // each resolving a path string, an item id and the string of the result.
+    private long measure(int threads, final boolean globalLock)
+            throws InterruptedException {
+        final Path parent = Path.fromString("/benchmark/image/item");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * 7919;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                        int index = (offset + i) % ITEMS;
+                        if (globalLock) {
+                            lookupLocked(parent, index);
+                        } else {
+                            lookup(parent, index);
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = SystemClock.elapsedRealtimeNanos();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - begin;
+        return (long) threads * LOOKUPS_PER_THREAD * 1000000000L / elapsed;
+    }
+
+    private void lookup(Path parent, int index) {
+        Path path = Path.fromString(mStrings[index]);
+        if (parent.getChild(index) != path || path.toString().length() == 0) {
+            throw new AssertionError("wrong path for " + mStrings[index]);
+        }
+    }
+
+    private void lookupLocked(Path parent, int index) {
+        Path path;
+        synchronized (Path.class) {
+            path = Path.fromString(mStrings[index]);
+        }
+        synchronized (Path.class) {
+            if (parent.getChild(index) != path) {
+                throw new AssertionError("wrong path for " + mStrings[index]);
+            }
+        }
+        synchronized (Path.class) {
+            if (path.toString().length() == 0) {
+                throw new AssertionError("empty path for " + mStrings[index]);
+            }
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // keep waiting
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.exif;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Checks that the files rewritten by {@link ExifInterface#forceRewriteExif}
+ * stay valid JPEGs, with their image data untouched, whether the Exif segment
+ * is written in place or the file is rebuilt.
+ */
+@MediumTest
+public class ExifFileRewriterTest extends AndroidTestCase {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static final int SOI = 0xFFD8;
+    private static final int EOI = 0xFFD9;
+    private static final int SOS = 0xFFDA;
+    private static final int APP1 = 0xFFE1;
+
+    private File mFile;
+    private byte[] mJpeg;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "exif_rewriter_test.jpg");
+        mJpeg = createJpeg();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+        super.tearDown();
+    }
+
+    public void testFileWithoutExif() throws IOException {
+        writeFile(mJpeg);
+        rewrite(ExifInterface.TAG_ARTIST, "artist");
+
+        byte[] result = readFile();
+        assertValidJpeg(result);
+        assertEquals(1, countExifSegments(result));
+        assertEquals("artist", readTag(ExifInterface.TAG_ARTIST));
+        assertTrue(Arrays.equals(stripExif(mJpeg), stripExif(result)));
+    }
+
+    public void testRebuild() throws IOException {
+        byte[] original = createJpegWithExif(ExifInterface.TAG_ARTIST, "artist");
+        writeFile(original);
+        // Far more than the padding left by ExifOutputStream, if any.
+        rewrite(ExifInterface.TAG_IMAGE_DESCRIPTION, repeat('d', 8000));
+
+        byte[] result = readFile();
+        assertTrue(result.length > original.length);
+        assertValidJpeg(result);
+        assertEquals(1, countExifSegments(result));
+        assertEquals("artist", readTag(ExifInterface.TAG_ARTIST));
+        assertEquals(repeat('d', 8000), readTag(ExifInterface.TAG_IMAGE_DESCRIPTION));
+        assertTrue(Arrays.equals(stripExif(original), stripExif(result)));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    public void testInPlace() throws IOException {
+        writeFile(mJpeg);
+        // The first rewrite rebuilds the file and reserves padding.
+        rewrite(ExifInterface.TAG_ARTIST, "artist");
+        byte[] padded = readFile();
+
+        rewrite(ExifInterface.TAG_COPYRIGHT, "copyright");
+        byte[] result = readFile();
+        assertEquals(padded.length, result.length);
+        assertValidJpeg(result);
+        assertEquals(1, countExifSegments(result));
+        assertEquals("artist", readTag(ExifInterface.TAG_ARTIST));
+        assertEquals("copyright", readTag(ExifInterface.TAG_COPYRIGHT));
+        assertTrue(Arrays.equals(stripExif(mJpeg), stripExif(result)));
+    }
+
+    public void testMultipleApp1Segments() throws IOException {
+        // An XMP segment in front of the Exif one, and a second Exif segment
+        // after it: only the first Exif segment is replaced.
+        byte[] exifJpeg = createJpegWithExif(ExifInterface.TAG_ARTIST, "artist");
+        byte[] exif = getSegment(exifJpeg, 2);
+        byte[] xmp = createApp1("http://ns.adobe.com/xap/1.0/\0", "<x:xmpmeta/>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(mJpeg, 0, 2);
+        out.write(xmp, 0, xmp.length);
+        out.write(exif, 0, exif.length);
+        out.write(exif, 0, exif.length);
+        out.write(mJpeg, 2, mJpeg.length - 2);
+        byte[] original = out.toByteArray();
+        writeFile(original);
+
+        rewrite(ExifInterface.TAG_COPYRIGHT, "copyright");
+
+        byte[] result = readFile();
+        assertValidJpeg(result);
+        assertEquals(2, countExifSegments(result));
+        assertTrue(Arrays.equals(xmp, getSegment(result, 2)));
+        assertEquals("artist", readTag(ExifInterface.TAG_ARTIST));
+        assertEquals("copyright", readTag(ExifInterface.TAG_COPYRIGHT));
+        assertTrue(Arrays.equals(stripFirstExif(original), stripFirstExif(result)));
+    }
+
+    public void testSegmentTooLarge() throws IOException {
+        byte[] original = createJpegWithExif(ExifInterface.TAG_ARTIST, "artist");
+        writeFile(original);
+        try {
+            rewrite(ExifInterface.TAG_IMAGE_DESCRIPTION, repeat('d', 0x10000));
+            fail("An Exif segment over 64KB was written");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(Arrays.equals(original, readFile()));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    private void rewrite(int tagId, String value) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        Collection<ExifTag> tags = new ArrayList<ExifTag>();
+        tags.add(exif.buildTag(tagId, value));
+        exif.forceRewriteExif(mFile.getPath(), tags);
+    }
+
+    private String readTag(int tagId) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mFile.getPath());
+        return exif.getTagStringValue(tagId);
+    }
+
+    private static byte[] createJpeg() {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                bitmap.setPixel(x, y, Color.rgb(x, y, x ^ y));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private byte[] createJpegWithExif(int tagId, String value) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.setTag(exif.buildTag(tagId, value));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exif.writeExif(mJpeg, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] createApp1(String header, String content) {
+        byte[] data = (header + content).getBytes();
+        byte[] segment = new byte[data.length + 4];
+        segment[0] = (byte) (APP1 >> 8);
+        segment[1] = (byte) APP1;
+        segment[2] = (byte) ((data.length + 2) >> 8);
+        segment[3] = (byte) (data.length + 2);
+        System.arraycopy(data, 0, segment, 4, data.length);
+        return segment;
+    }
+
+    // Checks the markers up to the image data, the end of image marker and
+    // that the image still decodes.
+    private static void assertValidJpeg(byte[] jpeg) {
+        assertEquals(SOI, getShort(jpeg, 0));
+        int pos = 2;
+        while (true) {
+            assertTrue("truncated header", pos + 4 <= jpeg.length);
+            int marker = getShort(jpeg, pos);
+            assertEquals("not a marker at " + pos, 0xFF, marker >> 8);
+            int length = getShort(jpeg, pos + 2);
+            assertTrue("bad segment length at " + pos, length >= 2);
+            pos += 2 + length;
+            if (marker == SOS) {
+                break;
+            }
+        }
+        assertTrue(pos < jpeg.length);
+        assertEquals(EOI, getShort(jpeg, jpeg.length - 2));
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        assertNotNull(bitmap);
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+        bitmap.recycle();
+    }
+
+    private static int countExifSegments(byte[] jpeg) {
+        int count = 0;
+        for (int pos = 2; getShort(jpeg, pos) != SOS; pos += 2 + getShort(jpeg, pos + 2)) {
+            if (isExifSegment(jpeg, pos)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isExifSegment(byte[] jpeg, int pos) {
+        return getShort(jpeg, pos) == APP1 && jpeg[pos + 4] == 'E' && jpeg[pos + 5] == 'x'
+                && jpeg[pos + 6] == 'i' && jpeg[pos + 7] == 'f';
+    }
+
+    // Returns the segment starting at pos, marker included.
+    private static byte[] getSegment(byte[] jpeg, int pos) {
+        return Arrays.copyOfRange(jpeg, pos, pos + 2 + getShort(jpeg, pos + 2));
+    }
+
+    private static byte[] stripExif(byte[] jpeg) {
+        return strip(jpeg, Integer.MAX_VALUE);
+    }
+
+    private static byte[] stripFirstExif(byte[] jpeg) {
+        return strip(jpeg, 1);
+    }
+
+    // Returns the file without its first count Exif segments.
+    private static byte[] strip(byte[] jpeg, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        int pos = 2;
+        while (getShort(jpeg, pos) != SOS) {
+            int size = 2 + getShort(jpeg, pos + 2);
+            if (count > 0 && isExifSegment(jpeg, pos)) {
+                count--;
+            } else {
+                out.write(jpeg, pos, size);
+            }
+            pos += size;
+        }
+        out.write(jpeg, pos, jpeg.length - pos);
+        return out.toByteArray();
+    }
+
+    private static int getShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private void writeFile(byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        InputStream in = new FileInputStream(mFile);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
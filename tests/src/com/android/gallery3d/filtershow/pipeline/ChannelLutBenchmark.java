@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.gallery3d.filtershow.cache.BitmapCache;
+import com.android.gallery3d.filtershow.filters.FilterBasicRepresentation;
+import com.android.gallery3d.filtershow.filters.FilterCurvesRepresentation;
+import com.android.gallery3d.filtershow.filters.FilterRepresentation;
+import com.android.gallery3d.filtershow.filters.FiltersManager;
+import com.android.gallery3d.filtershow.filters.ImageFilterBwFilter;
+import com.android.gallery3d.filtershow.filters.ImageFilterContrast;
+import com.android.gallery3d.filtershow.filters.ImageFilterCurves;
+import com.android.gallery3d.filtershow.filters.ImageFilterExposure;
+import com.android.gallery3d.filtershow.filters.ImageFilterHighlights;
+import com.android.gallery3d.filtershow.filters.ImageFilterHue;
+import com.android.gallery3d.filtershow.filters.ImageFilterNegative;
+import com.android.gallery3d.filtershow.filters.ImageFilterSaturated;
+import com.android.gallery3d.filtershow.filters.ImageFilterShadows;
+import com.android.gallery3d.filtershow.filters.ImageFilterVibrance;
+import com.android.gallery3d.filtershow.imageshow.Spline;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks the single LUT pass of FilterEnvironment.applyPerChannelRepresentations()
+ * against the sequential chain on a 12 MP image, within 1 LSB, and compares
+ * their time.
+ * <p>
+ * It also measures how far a 3D LUT of each filter that mixes the channels
+ * (saturation, vibrance, hue, black and white, shadows and highlights) is
+ * from the filter itself. These filters are left out of the fused runs
+ * because such a LUT is not within 1 LSB of them.
+ */
+@LargeTest
+public class ChannelLutBenchmark extends AndroidTestCase {
+    private static final String TAG = "ChannelLutBenchmark";
+
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int ROUNDS = 3;
+
+    // Lattice points per axis of the 3D LUTs, the size of common .cube LUTs.
+    private static final int LUT_SIZE = 33;
+    private static final int SAMPLE_SIZE = 1024;
+
+    static {
+        // Loads the filter library.
+        try {
+            Class.forName(ProcessingService.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private FiltersManager mFiltersManager;
+    private FilterEnvironment mEnvironment;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFiltersManager = new FiltersManager();
+        mEnvironment = new FilterEnvironment();
+        mEnvironment.setFiltersManager(mFiltersManager);
+        mEnvironment.setBitmapCache(new BitmapCache());
+        mEnvironment.setQuality(FilterEnvironment.QUALITY_FINAL);
+        mEnvironment.setScaleFactor(1.0f);
+    }
+
+    public void testPerChannelRun() {
+        ArrayList<FilterRepresentation> run = new ArrayList<FilterRepresentation>();
+        run.add(getRepresentation(ImageFilterExposure.class, 30));
+        run.add(getRepresentation(ImageFilterContrast.class, 40));
+        run.add(getCurvesRepresentation());
+        run.add(getRepresentation(ImageFilterNegative.class, 0));
+        for (FilterRepresentation representation : run) {
+            assertTrue(representation.isPerChannel());
+        }
+
+        Bitmap sequential = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Bitmap fused = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        long sequentialTime = Long.MAX_VALUE;
+        long fusedTime = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            fill(sequential);
+            long start = SystemClock.elapsedRealtime();
+            for (FilterRepresentation representation : run) {
+                assertSame(sequential, mEnvironment.applyRepresentation(
+                        representation, sequential));
+            }
+            sequentialTime = Math.min(sequentialTime, SystemClock.elapsedRealtime() - start);
+
+            fill(fused);
+            start = SystemClock.elapsedRealtime();
+            assertSame(fused, mEnvironment.applyPerChannelRepresentations(run, fused));
+            fusedTime = Math.min(fusedTime, SystemClock.elapsedRealtime() - start);
+        }
+
+        int maxError = getMaxError(sequential, fused);
+        Log.i(TAG, run.size() + " per-channel filters on " + WIDTH + "x" + HEIGHT
+                + ": sequential " + sequentialTime + " ms, fused " + fusedTime
+                + " ms, max error " + maxError);
+        sequential.recycle();
+        fused.recycle();
+        assertTrue("max error " + maxError, maxError <= 1);
+    }
+
+    public void testMixingFiltersAgainst3dLut() {
+        measure3dLut(getRepresentation(ImageFilterSaturated.class, 50));
+        measure3dLut(getRepresentation(ImageFilterVibrance.class, 50));
+        measure3dLut(getRepresentation(ImageFilterHue.class, 60));
+        measure3dLut(getRepresentation(ImageFilterBwFilter.class, 90));
+        measure3dLut(getRepresentation(ImageFilterShadows.class, 50));
+        measure3dLut(getRepresentation(ImageFilterHighlights.class, 50));
+    }
+
+    // Renders the filter to a LUT_SIZE^3 lattice and compares the filter with
+    // the trilinear interpolation of the lattice on random colors.
+    private void measure3dLut(FilterRepresentation representation) {
+        Bitmap lattice = Bitmap.createBitmap(LUT_SIZE * LUT_SIZE, LUT_SIZE,
+                Bitmap.Config.ARGB_8888);
+        int[] lut = new int[LUT_SIZE * LUT_SIZE * LUT_SIZE];
+        for (int b = 0; b < LUT_SIZE; b++) {
+            for (int g = 0; g < LUT_SIZE; g++) {
+                for (int r = 0; r < LUT_SIZE; r++) {
+                    lut[(b * LUT_SIZE + g) * LUT_SIZE + r] = Color.rgb(
+                            getLatticeValue(r), getLatticeValue(g), getLatticeValue(b));
+                }
+            }
+        }
+        lattice.setPixels(lut, 0, LUT_SIZE * LUT_SIZE, 0, 0, LUT_SIZE * LUT_SIZE, LUT_SIZE);
+        lattice = mEnvironment.applyRepresentation(representation, lattice);
+        lattice.getPixels(lut, 0, LUT_SIZE * LUT_SIZE, 0, 0, LUT_SIZE * LUT_SIZE, LUT_SIZE);
+        lattice.recycle();
+
+        Bitmap sample = Bitmap.createBitmap(SAMPLE_SIZE, SAMPLE_SIZE, Bitmap.Config.ARGB_8888);
+        int[] colors = new int[SAMPLE_SIZE * SAMPLE_SIZE];
+        Random random = new Random(0);
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt() | 0xFF000000;
+        }
+        sample.setPixels(colors, 0, SAMPLE_SIZE, 0, 0, SAMPLE_SIZE, SAMPLE_SIZE);
+        sample = mEnvironment.applyRepresentation(representation, sample);
+        int[] filtered = new int[colors.length];
+        sample.getPixels(filtered, 0, SAMPLE_SIZE, 0, 0, SAMPLE_SIZE, SAMPLE_SIZE);
+        sample.recycle();
+
+        int maxError = 0;
+        int overOne = 0;
+        for (int i = 0; i < colors.length; i++) {
+            int error = getError(filtered[i], interpolate(lut, colors[i]));
+            maxError = Math.max(maxError, error);
+            if (error > 1) {
+                overOne++;
+            }
+        }
+        Log.i(TAG, representation.getName() + " as a " + LUT_SIZE + "^3 LUT: max error "
+                + maxError + ", " + (overOne * 100.0f / colors.length)
+                + "% of pixels off by more than 1");
+    }
+
+    private static int getLatticeValue(int index) {
+        return index * 255 / (LUT_SIZE - 1);
+    }
+
+    private static int interpolate(int[] lut, int color) {
+        float r = Color.red(color) * (LUT_SIZE - 1) / 255.0f;
+        float g = Color.green(color) * (LUT_SIZE - 1) / 255.0f;
+        float b = Color.blue(color) * (LUT_SIZE - 1) / 255.0f;
+        int r0 = Math.min((int) r, LUT_SIZE - 2);
+        int g0 = Math.min((int) g, LUT_SIZE - 2);
+        int b0 = Math.min((int) b, LUT_SIZE - 2);
+        float fr = r - r0;
+        float fg = g - g0;
+        float fb = b - b0;
+        float[] out = new float[3];
+        for (int i = 0; i < 8; i++) {
+            int dr = i & 1;
+            int dg = (i >> 1) & 1;
+            int db = (i >> 2) & 1;
+            float weight = (dr == 1 ? fr : 1 - fr) * (dg == 1 ? fg : 1 - fg)
+                    * (db == 1 ? fb : 1 - fb);
+            int c = lut[((b0 + db) * LUT_SIZE + g0 + dg) * LUT_SIZE + r0 + dr];
+            out[0] += weight * Color.red(c);
+            out[1] += weight * Color.green(c);
+            out[2] += weight * Color.blue(c);
+        }
+        return Color.rgb(Math.round(out[0]), Math.round(out[1]), Math.round(out[2]));
+    }
+
+    // Returns curves with an S-curve on all the channels and a lift of the
+    // red channel, so that the curves change every channel.
+    private FilterRepresentation getCurvesRepresentation() {
+        FilterCurvesRepresentation representation = (FilterCurvesRepresentation)
+                mFiltersManager.getRepresentation(ImageFilterCurves.class);
+        // The y axis of a spline points down.
+        Spline rgb = new Spline();
+        rgb.addPoint(0.0f, 1.0f);
+        rgb.addPoint(0.25f, 0.82f);
+        rgb.addPoint(0.75f, 0.18f);
+        rgb.addPoint(1.0f, 0.0f);
+        representation.setSpline(Spline.RGB, rgb);
+        Spline red = new Spline();
+        red.addPoint(0.0f, 1.0f);
+        red.addPoint(0.5f, 0.4f);
+        red.addPoint(1.0f, 0.0f);
+        representation.setSpline(Spline.RED, red);
+        assertFalse(representation.isNil());
+        return representation;
+    }
+
+    private FilterRepresentation getRepresentation(Class<?> filterClass, int value) {
+        FilterRepresentation representation = mFiltersManager.getRepresentation(filterClass);
+        if (representation instanceof FilterBasicRepresentation) {
+            ((FilterBasicRepresentation) representation).setValue(value);
+        }
+        return representation;
+    }
+
+    // Fills the bitmap with gradients and a pattern, so that every input
+    // value of each channel is present.
+    private static void fill(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = Color.rgb(x * 255 / (width - 1), y * 255 / (height - 1),
+                        (x ^ y) & 0xFF);
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+    }
+
+    private static int getMaxError(Bitmap a, Bitmap b) {
+        int width = a.getWidth();
+        int[] rowA = new int[width];
+        int[] rowB = new int[width];
+        int maxError = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            a.getPixels(rowA, 0, width, 0, y, width, 1);
+            b.getPixels(rowB, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                maxError = Math.max(maxError, getError(rowA[x], rowB[x]));
+            }
+        }
+        return maxError;
+    }
+
+    private static int getError(int a, int b) {
+        return Math.max(Math.abs(Color.red(a) - Color.red(b)),
+                Math.max(Math.abs(Color.green(a) - Color.green(b)),
+                        Math.abs(Color.blue(a) - Color.blue(b))));
+    }
+}